@@ -0,0 +1,67 @@
+import json
+import os
+import struct
+import sys
+
+# every frame is a 4 byte big-endian length followed by that many bytes of utf-8 json
+HEADER = struct.Struct('>I')
+
+class FramedIO:
+    '''
+    Reads and writes length-prefixed json frames over the process's stdin/stdout. Anything
+    printed by the worker or its libraries is redirected to stderr so it can never corrupt the
+    frame stream read by the java side.
+    '''
+
+    def __init__(self):
+        self.reader = sys.stdin.buffer
+        self.writer = os.fdopen(os.dup(sys.stdout.fileno()), 'wb')
+        sys.stdout = sys.stderr
+
+    def read(self):
+        '''
+        Returns the next frame as a dict, or None once stdin has been closed.
+        '''
+        header = self.reader.read(HEADER.size)
+        if len(header) < HEADER.size:
+            return None
+        (length,) = HEADER.unpack(header)
+        payload = self.reader.read(length)
+        if len(payload) < length:
+            return None
+        return json.loads(payload.decode('utf-8'))
+
+    def write(self, obj):
+        payload = json.dumps(obj, ensure_ascii=False).encode('utf-8')
+        self.writer.write(HEADER.pack(len(payload)))
+        self.writer.write(payload)
+        self.writer.flush()
+
+def serve(handler, setup=None):
+    '''
+    Runs the request loop of a worker until stdin is closed. A frame of type "ready" is sent
+    once setup is done, the java side only hands the worker jobs after it. Every request must
+    carry an "id" which is echoed back in the response. Requests of type "ping" are answered
+    directly so the java side can health check the worker, every other request is passed on to
+    handler.
+
+            Parameters:
+                    handler (callable): takes a request dict, returns a json serialisable result
+                    setup (callable): optional, run once after stdout has been redirected
+    '''
+    io = FramedIO()
+    if setup is not None:
+        setup()
+    io.write({'type': 'ready'})
+    while True:
+        request = io.read()
+        if request is None:
+            return
+        job_id = request.get('id')
+        if request.get('type') == 'ping':
+            io.write({'id': job_id, 'ok': True, 'result': 'pong'})
+            continue
+        try:
+            io.write({'id': job_id, 'ok': True, 'result': handler(request)})
+        except Exception as e:
+            io.write({'id': job_id, 'ok': False, 'error': type(e).__name__ + ': ' + str(e)})
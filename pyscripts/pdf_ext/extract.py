@@ -0,0 +1,167 @@
+import fitz
+from column_boxes_rect import column_boxes_rect
+from collections import defaultdict
+
+# constants for tuples in the fitz (pymupdf) module
+X0 = 0
+Y0 = 1
+X1 = 2
+Y1 = 3
+
+def bbox(b):
+    return fitz.IRect(b[:4])
+
+def extract_page(page, clips):
+    '''
+    Returns a dict with the paragraphs, outlier text and images found in the given clips of a page
+
+            Parameters:
+                    page (fitz.Page): page loaded from a pdf document
+                    clips (list[fitz.IRect]): sections of the page to extract text from, in order
+
+            Returns:
+                    extract_dict (dict): {'paragraphs': [...], 'other': [...], 'images': [...]}
+    '''
+
+    # setting up json fields
+    extract_dict = defaultdict()
+    extract_dict['paragraphs'] = []
+    extract_dict['other'] = []
+    extract_dict['images'] = []
+
+    # if no clip was specfied, scan the whole page
+    clips = list(clips)
+    if (clips==[]):
+        page_clip = +page.rect
+        page_clip.y0 += 50 # ignore top header
+        page_clip.y1 -= 50 # ignore bottom header
+        clips.append(page_clip)
+
+    # preload text and images as an optimisation
+    text_page = page.get_textpage()
+    text_blocks = text_page.extractBLOCKS()
+    text_block_set = set()
+    images = page.get_image_info(xrefs=True)
+    image_xref_bbox = [(i['xref'], fitz.IRect(i['bbox'])) for i in images]
+    image_xref_set = set()
+
+    # get text from rectangles
+    for clip in clips:
+
+        # if there are no text blocks to extract, we are done
+        if (len(text_blocks) == 0):
+            return dict(extract_dict)
+
+        # generate columns in the given rect
+        bboxes = column_boxes_rect(page, clip=clip, no_image_text=True)
+
+        if (len(bboxes) < 1):
+            continue
+
+        # get median width of boxes
+        bbox_widths = [b.width for b in bboxes]
+        median_width = bbox_widths[len(bbox_widths)//2]
+
+        # filters out wider or thinner text boxes, assume columns are ordered left to right
+        bboxes_main = [                         \
+                b for b in bboxes               \
+                if (b.width/median_width) < 1.5 \
+                or  b.height/b.width > 0.6      \
+                ]
+        bboxes_main = sorted(bboxes_main, key=lambda b:b.x0)
+        bboxes_other = [b for b in bboxes if b not in bboxes_main]
+
+        # extract text from outlier bboxes
+        for outlier_bbox in bboxes_other:
+            outlier_tbs = [                             \
+                    tb for tb in text_blocks            \
+                    if bbox(tb).intersects(outlier_bbox)\
+                    ]
+            outlier_tbs = [tb for tb in outlier_tbs if tb not in text_block_set]
+            outlier_tbs = sorted(outlier_tbs, key=lambda b:b[Y0])
+            for tb in outlier_tbs:
+                text_block_set.add(tb)
+                text = ' '.join(tb[4].split())
+                extract_dict['other'].append(text)
+
+        # go through each column and extract the text blocks
+        for column_bbox in bboxes_main:
+            column_tbs = [                              \
+                    tb for tb in text_blocks            \
+                    if bbox(tb).intersects(column_bbox) \
+                    ]
+            column_tbs = [tb for tb in column_tbs if tb not in text_block_set]
+            column_tbs = sorted(column_tbs, key=lambda b:b[Y0])
+
+            # extract data from all paragraphs in the column
+            while(not column_tbs == []):
+
+                # next text block to extract in the column
+                head, *tail = column_tbs
+
+                # filter column_tbs into two lists
+                intersect = [head]
+                non_intersect = []
+
+                # find all other text blocks that intersects the current block
+                for tb in tail:
+                    if bbox(head).intersects(bbox(tb)):
+                        intersect.append(tb)
+                    else:
+                        non_intersect.append(tb)
+
+                # update text blocks that have been parsed
+                text_block_set.update(intersect)
+
+                # assume intersecting text blocks form one paragraph
+                paragraph_text = "".join(
+                        [                       \
+                        " ".join(tb[4].split()) \
+                        for tb in intersect     \
+                        ])
+                extract_dict['paragraphs'].append(paragraph_text)
+
+                column_tbs = non_intersect
+
+        # extract images
+        for xref, im_bbox in image_xref_bbox:
+
+            if xref not in image_xref_set and im_bbox.intersects(clip):
+                img_text = [                    \
+                        ' '.join(tb[4].split()) \
+                        for tb in text_blocks   \
+                        if bbox(tb) in im_bbox  \
+                        ]
+                img_obj = {"xref": xref, "text": img_text}
+                extract_dict['images'].append(img_obj)
+                image_xref_set.add(xref)
+                text_block_set.update(img_text)
+
+        # filter text blocks to get the remaining text blocks
+        text_blocks = list(filter(lambda tb: tb not in text_block_set, text_blocks))
+
+    return dict(extract_dict)
+
+def extract_jobs(doc, jobs):
+    '''
+    Runs a batch of extractions against one document, loading each page at most once
+
+            Parameters:
+                    doc (fitz.Document): document opened by the caller
+                    jobs (list[dict]): [{'id': ..., 'page': int, 'clips': [[x0,y0,x1,y1]], 'sequence': int}]
+
+            Returns:
+                    results (dict): extract_page results keyed by str(job id), in sequence order
+    '''
+
+    results = {}
+    pages = {}
+    for job in sorted(jobs, key=lambda j: j.get('sequence', 0)):
+        page_number = int(job.get('page', 0))
+        if (page_number not in range(len(doc))):
+            raise ValueError('Page number ' + str(page_number) + ' does not exist')
+        if page_number not in pages:
+            pages[page_number] = doc.load_page(page_number)
+        clips = [fitz.IRect(c) for c in job.get('clips') or []]
+        results[str(job['id'])] = extract_page(pages[page_number], clips)
+    return results
@@ -0,0 +1,62 @@
+import fitz
+
+def irect(r):
+    '''
+    Returns the rect as an [x0,y0,x1,y1] list of ints, rounded the way fitz.IRect rounds
+    '''
+    ir = fitz.IRect(r)
+    return [ir.x0, ir.y0, ir.x1, ir.y1]
+
+def extract_layout(page):
+    '''
+    Returns the text layout of a page, in the compact form the server keeps as its layout index
+
+            Parameters:
+                    page (fitz.Page): page loaded from a pdf document
+
+            Returns:
+                    layout (dict): {
+                        'rect': [x0,y0,x1,y1],
+                        'blocks': [[x0,y0,x1,y1,text]],         text blocks, as extractBLOCKS
+                        'lines': [[block_no, horizontal]],      lines, as get_text('dict')
+                        'words': [[x0,y0,x1,y1,text,line_no]],  words, line_no indexes lines
+                        'images': [[xref,x0,y0,x1,y1]],
+                        'paths': [[x0,y0,x1,y1]]
+                    }
+    '''
+
+    layout = {}
+    layout['rect'] = irect(page.rect)
+    layout['blocks'] = [
+            irect(b[:4]) + [b[4]]                           \
+            for b in page.get_textpage().extractBLOCKS()    \
+            ]
+
+    # lines are numbered in page order, words are matched to them by block and line number
+    line_index = {}
+    layout['lines'] = []
+    blocks = page.get_text('dict', flags=fitz.TEXTFLAGS_TEXT)['blocks']
+    for block_no, b in enumerate(blocks):
+        for line_no, line in enumerate(b.get('lines', [])):
+            line_index[(block_no, line_no)] = len(layout['lines'])
+            horizontal = 1 if tuple(line['dir']) == (1, 0) else 0
+            layout['lines'].append([block_no, horizontal])
+
+    layout['words'] = [
+            [round(c, 2) for c in w[:4]] + [w[4], line_index[(w[5], w[6])]] \
+            for w in page.get_text('words', flags=fitz.TEXTFLAGS_TEXT)      \
+            if (w[5], w[6]) in line_index                                   \
+            ]
+
+    layout['images'] = [
+            [i['xref']] + irect(i['bbox'])                  \
+            for i in page.get_image_info(xrefs=True)        \
+            ]
+    layout['paths'] = [irect(p['rect']) for p in page.get_drawings()]
+    return layout
+
+def extract_layouts(doc):
+    '''
+    Returns the text layout of every page in the document, see extract_layout
+    '''
+    return [extract_layout(page) for page in doc]
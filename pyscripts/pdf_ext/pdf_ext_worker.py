@@ -0,0 +1,64 @@
+import fitz
+import os
+import sys
+from collections import OrderedDict
+from extract import extract_page, extract_jobs
+
+sys.path.append(os.path.join(os.path.dirname(os.path.abspath(__file__)), '..', 'common'))
+from framed_io import serve
+
+"""
+
+Long lived version of pdf_ext.py. Requests are framed json read from stdin:
+
+    {"id": 1, "type": "extract", "file_path": "/tmp/a.pdf", "page": 0, "clips": [[x0,y0,x1,y1]]}
+
+and responses are framed json written to stdout:
+
+    {"id": 1, "ok": true, "result": {"paragraphs": [...], "other": [...], "images": [...]}}
+
+A batch of jobs against the one document is sent as:
+
+    {"id": 2, "type": "extract_batch", "file_path": "/tmp/a.pdf",
+     "jobs": [{"id": 0, "page": 0, "clips": [[x0,y0,x1,y1]], "sequence": 1}]}
+
+and answered with the results keyed by job id:
+
+    {"id": 2, "ok": true, "result": {"jobs": {"0": {"paragraphs": [...], ...}}}}
+
+"""
+
+# keep the last few documents open, editors tend to hammer one edition at a time
+MAX_OPEN_DOCS = 4
+docs = OrderedDict()
+
+def open_doc(file_path):
+
+    # reopen the document if the file was replaced since it was loaded
+    mtime = os.stat(file_path).st_mtime_ns
+    cached = docs.get(file_path)
+    if cached is not None and cached[0] == mtime:
+        docs.move_to_end(file_path)
+        return cached[1]
+    if cached is not None:
+        cached[1].close()
+
+    doc = fitz.open(file_path)
+    docs[file_path] = (mtime, doc)
+    while len(docs) > MAX_OPEN_DOCS:
+        _, (_, evicted) = docs.popitem(last=False)
+        evicted.close()
+    return doc
+
+def handle(request):
+    doc = open_doc(request['file_path'])
+    if request.get('type') == 'extract_batch':
+        return {'jobs': extract_jobs(doc, request.get('jobs') or [])}
+
+    page_number = int(request.get('page', 0))
+    if page_number not in range(len(doc)):
+        raise ValueError('Page number ' + str(page_number) + ' does not exist')
+    clips = [fitz.IRect(c) for c in request.get('clips') or []]
+    return extract_page(doc.load_page(page_number), clips)
+
+serve(handle)
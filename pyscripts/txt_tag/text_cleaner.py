@@ -7,20 +7,36 @@ from nltk.stem import WordNetLemmatizer
 from nltk.tag import pos_tag
 from collections import defaultdict
 
-nltk.download('stopwords', download_dir='usr/local/lib/nltk_data')
-nltk.download('wordnet', download_dir='usr/local/lib/nltk_data')
-nltk.download('averaged_perceptron_tagger', download_dir='usr/local/lib/nltk_data')
+lemmatizer = None
+stop_words = None
 
-lemmatizer = WordNetLemmatizer()
-stop_words = set(stopwords.words("english"))
+def load_models():
+    '''
+    Downloads (if needed) and loads the nltk models. Only needs to be called once per process.
+    '''
+    global lemmatizer, stop_words
+    if lemmatizer is not None:
+        return
+
+    nltk.download('stopwords', download_dir='usr/local/lib/nltk_data', quiet=True)
+    nltk.download('wordnet', download_dir='usr/local/lib/nltk_data', quiet=True)
+    nltk.download('averaged_perceptron_tagger', download_dir='usr/local/lib/nltk_data', quiet=True)
 
-def title_cleanup(titles, id_value):
+    lemmatizer = WordNetLemmatizer()
+    stop_words = set(stopwords.words("english"))
+
+    # force the lazily loaded corpora in now rather than on the first edition
+    lemmatizer.lemmatize('warmup')
+    pos_tag(['warmup'])
+
+def title_cleanup(titles, id_value, rows):
     '''
-    Returns a list, with words forming the title of the edition/stories, and prints to stdout word,edition_id,1
+    Returns a list, with words forming the title of the edition/stories, and appends (word,edition_id,1) to rows
 
             Parameters:
                     titles (list[str]): list of strings consisting of each title
                     id_value (int): edition id
+                    rows (list[tuple]): output rows
 
             Returns:
                     stop_rem (list[str]): list of unique words encountered
@@ -30,34 +46,36 @@ def title_cleanup(titles, id_value):
     title_words_set = set(title_words.split())
     stop_rem = sorted([word for word in title_words_set if word not in stop_words])
     for word in stop_rem:
-        print(f"{word},{id_value},1", file=sys.stdout)
+        rows.append((word, id_value, 1))
     return stop_rem
 
-def author_cleanup(authors, id_value, prev_words):
+def author_cleanup(authors, id_value, prev_words, rows):
     '''
-    Prints to stdout word,edition_id,1
+    Appends (word,edition_id,1) to rows
 
             Parameters:
                     authors (list[str]): list of strings consisting of each author
                     id_value (int): edition id
                     prev_words (list[str]): list of unique words previously encountered
+                    rows (list[tuple]): output rows
     '''
     author_names = ' '.join(authors).lower()
     author_names_set = set(author_names.split())
     for name in author_names_set:
         if(name not in prev_words):
-            print(f"{name},{id_value},1", file=sys.stdout)
+            rows.append((name, id_value, 1))
         prev_words.append(name)
     prev_words = list(set(prev_words))
 
-def proper_nouns_cleanup(texts, id_value, prev_words):
+def proper_nouns_cleanup(texts, id_value, prev_words, rows):
     '''
-    Prints to stdout word,edition_id,1
+    Appends (word,edition_id,1) to rows
 
             Parameters:
                     texts (list[str]): list of strings consisting of all texts
                     id_value (int): edition id
                     prev_words (list[str]): list of unique words previously encountered
+                    rows (list[tuple]): output rows
     '''
     single_line = ' '.join(texts).replace("\\n", ' ').replace('\n', ' ')
     punc_rem = single_line.translate(single_line.maketrans("", "", string.punctuation))
@@ -66,18 +84,19 @@ def proper_nouns_cleanup(texts, id_value, prev_words):
     proper_nouns = set([word for word,pos in tagged_sent if pos == 'NNP'])
     for proper_noun in proper_nouns:
         if proper_noun not in prev_words:
-            print(f"{proper_noun},{id_value},1", file=sys.stdout)
+            rows.append((proper_noun, id_value, 1))
         prev_words.append(proper_noun)
     prev_words = list(set(prev_words))
 
-def text_cleanup(texts, id_value, prev_words):
+def text_cleanup(texts, id_value, prev_words, rows):
     '''
-    Prints to stdout word,edition_id,ratio
+    Appends (word,edition_id,ratio) to rows
 
             Parameters:
                     texts (list[str]): list of strings consisting of all texts
                     id_value (int): edition id
                     prev_words (list[str]): list of unique words previously encountered
+                    rows (list[tuple]): output rows
     '''
     single_line = ' '.join(texts).replace("\\n", ' ').replace('\n', ' ')
     punc_rem = single_line.translate(single_line.maketrans("", "", string.punctuation)) # Remove punctuation
@@ -93,19 +112,24 @@ def text_cleanup(texts, id_value, prev_words):
             ratio[word] += 1
     for key in ratio:
         ratio[key] /= len_clean_text
-        print(f"{key},{id_value},{round(ratio[key], 4)}", file=sys.stdout)
+        rows.append((key, id_value, round(ratio[key], 4)))
+
 
+def tag_edition(data):
+    '''
+    Returns the keyword rows (word,edition_id,ratio) for an edition
+
+            Parameters:
+                    data (dict): {"id": ..., "title": ..., "stories": [{"title", "author", "text"}]}
 
+            Returns:
+                    rows (list[tuple]): keyword rows in the order they were found
+    '''
+    titles = []
+    authors = []
+    texts = []
+    rows = []
 
-# Read the JSON data from stdin
-json_text = sys.stdin.read()
-titles = []
-authors = []
-texts = []
-try:
-    # Parse the JSON data
-    data = json.loads(json_text)
-    
     # Access the fields
     id_value = data["id"]
     edition_title = data["title"]
@@ -116,12 +140,23 @@ try:
         titles.append(story['title'])
         authors.append(story['author'])
         texts.append(story['text'])
-    
-    prev_words = title_cleanup(titles, id_value)
-    author_cleanup(authors, id_value, prev_words)
-    proper_nouns_cleanup(texts, id_value, prev_words)
-    text_cleanup(texts, id_value, prev_words)
-
 
-except json.JSONDecodeError as e:
-    print("Error decoding JSON:", e)
+    prev_words = title_cleanup(titles, id_value, rows)
+    author_cleanup(authors, id_value, prev_words, rows)
+    proper_nouns_cleanup(texts, id_value, prev_words, rows)
+    text_cleanup(texts, id_value, prev_words, rows)
+    return rows
+
+if __name__ == '__main__':
+
+    # Read the JSON data from stdin
+    json_text = sys.stdin.read()
+    try:
+        # Parse the JSON data
+        data = json.loads(json_text)
+        load_models()
+        for word, id_value, ratio in tag_edition(data):
+            print(f"{word},{id_value},{ratio}", file=sys.stdout)
+
+    except json.JSONDecodeError as e:
+        print("Error decoding JSON:", e)
@@ -0,0 +1,25 @@
+import os
+import sys
+import text_cleaner
+
+sys.path.append(os.path.join(os.path.dirname(os.path.abspath(__file__)), '..', 'common'))
+from framed_io import serve
+
+"""
+
+Long lived version of text_cleaner.py which loads the nltk models once. Requests are framed
+json read from stdin, one edition each:
+
+    {"id": 1, "type": "tag", "edition": {"id": 4, "title": ..., "stories": [...]}}
+
+and responses are framed json written to stdout:
+
+    {"id": 1, "ok": true, "result": {"rows": [["word", 0.25], ...]}}
+
+"""
+
+def handle(request):
+    rows = text_cleaner.tag_edition(request['edition'])
+    return {'rows': [[word, ratio] for word, _, ratio in rows]}
+
+serve(handle, setup=text_cleaner.load_models)
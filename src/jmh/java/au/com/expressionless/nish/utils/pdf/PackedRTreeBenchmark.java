@@ -0,0 +1,100 @@
+package au.com.expressionless.nish.utils.pdf;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares {@link PackedRTree} queries with the linear scan it replaced, over text blocks laid out
+ * like a broadsheet page and selection sized queries. Each operation answers one query.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PackedRTreeBenchmark {
+
+    // broadsheet page in points
+    private static final int PAGE_WIDTH = 2000;
+    private static final int PAGE_HEIGHT = 3000;
+
+    private static final int QUERIES = 1024;
+
+    @Param({ "100", "1000", "10000" })
+    public int blocks;
+
+    private int[] rects;
+    private PackedRTree tree;
+    private int[] queries;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+
+        // spans of text a few words wide and a line or so tall
+        rects = new int[blocks * 4];
+        for (int i = 0; i < blocks; i++) {
+            int x = random.nextInt(PAGE_WIDTH);
+            int y = random.nextInt(PAGE_HEIGHT);
+            rects[i * 4] = x;
+            rects[i * 4 + 1] = y;
+            rects[i * 4 + 2] = x + 20 + random.nextInt(200);
+            rects[i * 4 + 3] = y + 8 + random.nextInt(30);
+        }
+        tree = PackedRTree.build(rects);
+
+        // story selections, from a paragraph up to a few columns
+        queries = new int[QUERIES * 4];
+        for (int q = 0; q < QUERIES; q++) {
+            int x = random.nextInt(PAGE_WIDTH);
+            int y = random.nextInt(PAGE_HEIGHT);
+            queries[q * 4] = x;
+            queries[q * 4 + 1] = y;
+            queries[q * 4 + 2] = x + 50 + random.nextInt(600);
+            queries[q * 4 + 3] = y + 50 + random.nextInt(800);
+        }
+    }
+
+    @Benchmark
+    public void tree(Blackhole bh) {
+        int q = nextQuery();
+        tree.search(queries[q], queries[q + 1], queries[q + 2], queries[q + 3], bh::consume);
+    }
+
+    @Benchmark
+    public void bruteForce(Blackhole bh) {
+        int q = nextQuery();
+        int x0 = queries[q], y0 = queries[q + 1], x1 = queries[q + 2], y1 = queries[q + 3];
+        for (int i = 0; i < blocks; i++) {
+            int r = i * 4;
+            if (rects[r] <= x1 && x0 <= rects[r + 2] && rects[r + 1] <= y1 && y0 <= rects[r + 3])
+                bh.consume(i);
+        }
+    }
+
+    @Benchmark
+    public PackedRTree build() {
+        return PackedRTree.build(rects);
+    }
+
+    private int nextQuery() {
+        int q = next;
+        next = (next + 1) % QUERIES;
+        return q * 4;
+    }
+}
@@ -0,0 +1,159 @@
+package au.com.expressionless.nish.utils.pdf;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+
+/**
+ * Benchmark inputs. A directory of real editions can be given, otherwise synthetic broadsheet
+ * pages are generated: a headline across the page over columns of body text and a photo.
+ */
+final class SamplePdfs {
+
+    private static final String[] WORDS = (
+        "the council voted on tuesday to approve a new budget for the coming year after months of "
+        + "debate residents raised concerns about rates roads and the future of the local library "
+        + "while the mayor said the plan would keep services running without large increases"
+    ).split(" ");
+
+    // layout of generated pages, in points
+    static final int COLUMNS = 5;
+    static final float MARGIN = 36;
+    static final float GUTTER = 12;
+
+    private SamplePdfs() {
+    }
+
+    /**
+     * Returns the PDFs in a directory, or generated ones if no directory is given.
+     * @param corpus Directory of PDFs, or empty to generate
+     * @param count Number of PDFs to generate
+     * @param pages Pages in each generated PDF
+     */
+    static List<File> corpus(String corpus, int count, int pages) throws IOException {
+        List<File> files = new ArrayList<>();
+        if (corpus != null && !corpus.isEmpty()) {
+            File[] found = new File(corpus).listFiles((dir, name) -> name.toLowerCase().endsWith(".pdf"));
+            if (found == null || found.length == 0)
+                throw new IOException("No PDFs in " + corpus);
+            Arrays.sort(found);
+            files.addAll(Arrays.asList(found));
+            return files;
+        }
+
+        for (int i = 0; i < count; i++) {
+            File file = File.createTempFile("bench-edition-", ".pdf");
+            file.deleteOnExit();
+            broadsheet(file, pages, COLUMNS, new Random(i));
+            files.add(file);
+        }
+        return files;
+    }
+
+    /**
+     * Writes pages of columns of body text under a headline, each with a photo.
+     */
+    static void broadsheet(File file, int pages, int columns, Random random) throws IOException {
+        try (PDDocument document = new PDDocument()) {
+            PDType1Font body = new PDType1Font(Standard14Fonts.FontName.HELVETICA);
+            PDType1Font headline = new PDType1Font(Standard14Fonts.FontName.HELVETICA_BOLD);
+            PDImageXObject photo = LosslessFactory.createFromImage(document, photo(1600, 1200));
+
+            for (int p = 0; p < pages; p++) {
+                PDPage page = new PDPage(PDRectangle.A3);
+                document.addPage(page);
+                float width = page.getMediaBox().getWidth();
+                float height = page.getMediaBox().getHeight();
+                float margin = MARGIN;
+                float gutter = GUTTER;
+                float columnWidth = (width - 2 * margin - (columns - 1) * gutter) / columns;
+
+                try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                    text(content, headline, 28, margin, height - margin - 28, sentence(random, 8));
+
+                    // the photo spans the first two columns below the headline
+                    float photoWidth = 2 * columnWidth + gutter;
+                    float photoHeight = photoWidth * 3 / 4;
+                    float photoTop = height - margin - 60;
+                    content.drawImage(photo, margin, photoTop - photoHeight, photoWidth, photoHeight);
+
+                    for (int c = 0; c < columns; c++) {
+                        float x = margin + c * (columnWidth + gutter);
+                        float y = c < 2 ? photoTop - photoHeight - 20 : photoTop;
+                        while (y > margin + 60) {
+
+                            // paragraphs of wrapped lines with a gap between them
+                            int lines = 4 + random.nextInt(8);
+                            for (int l = 0; l < lines && y > margin + 60; l++) {
+                                text(content, body, 9, x, y, line(random, body, 9, columnWidth));
+                                y -= 11;
+                            }
+                            y -= 8;
+                        }
+                    }
+                }
+            }
+            document.save(file);
+        }
+    }
+
+    private static void text(PDPageContentStream content, PDType1Font font, float size, float x, float y, String text) throws IOException {
+        content.beginText();
+        content.setFont(font, size);
+        content.newLineAtOffset(x, y);
+        content.showText(text);
+        content.endText();
+    }
+
+    private static String line(Random random, PDType1Font font, float size, float width) throws IOException {
+        StringBuilder line = new StringBuilder();
+        while (true) {
+            String word = WORDS[random.nextInt(WORDS.length)];
+            String next = line.length() == 0 ? word : line + " " + word;
+            if (font.getStringWidth(next) / 1000 * size > width)
+                return line.toString();
+            line.setLength(0);
+            line.append(next);
+        }
+    }
+
+    private static String sentence(Random random, int words) {
+        StringBuilder sentence = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0)
+                sentence.append(' ');
+            sentence.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return sentence.toString().toUpperCase();
+    }
+
+    private static BufferedImage photo(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setPaint(new GradientPaint(0, 0, new Color(40, 90, 160), width, height, new Color(230, 190, 120)));
+        g.fillRect(0, 0, width, height);
+
+        // noise so the image doesn't compress to nothing
+        Random random = new Random(width * 31L + height);
+        for (int i = 0; i < width * height / 20; i++)
+            image.setRGB(random.nextInt(width), random.nextInt(height), random.nextInt(0xFFFFFF));
+        g.dispose();
+        return image;
+    }
+}
@@ -0,0 +1,197 @@
+package au.com.expressionless.nish.utils.pdf;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.json.JsonObject;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import au.com.expressionless.nish.models.entity.edition.story.Bounds;
+import au.com.expressionless.nish.utils.python.PyScheduler;
+import au.com.expressionless.nish.utils.python.PyTextExtractor;
+import au.com.expressionless.nish.utils.python.PyWorkerPool;
+
+/**
+ * Compares the text extraction engines, PyMuPDF through a pdf_ext worker and PDFBox in process,
+ * each with one thread. Each operation extracts every column of a page in one batch, as a story
+ * spanning the page would. Before the python engine is measured its output is compared with
+ * PDFBox's job by job and the parity printed, since the timings only matter if the text agrees.
+ * <p>
+ * The python engine needs PyMuPDF and PY_SCRIPT_DIR set to the pyscripts directory, e.g.
+ * {@code PY_SCRIPT_DIR=$PWD/pyscripts/ mvn -Pbenchmark test-compile exec:exec -Djmh.args=TextExtraction}.
+ * Pass {@code -p corpus=<dir>} to run over real editions rather than generated pages.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TextExtractionBenchmark {
+
+    private static final String WORKER_SCRIPT = "pdf_ext/pdf_ext_worker.py";
+    private static final long TIMEOUT = 30;
+
+    // generated corpus
+    private static final int DOCUMENTS = 2;
+    private static final int PAGES = 4;
+
+    @Param({ "pdfbox", "python" })
+    public String engine;
+
+    // directory of PDFs, empty to generate them
+    @Param({ "" })
+    public String corpus;
+
+    private PyWorkerPool pool;
+    private TextExtractor extractor;
+    private final List<PDFWrapper> pdfs = new ArrayList<>();
+    private final List<List<ExtractionJob>> pages = new ArrayList<>();
+    private final List<PDFWrapper> pageOwners = new ArrayList<>();
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        for (File file : SamplePdfs.corpus(corpus, DOCUMENTS, PAGES)) {
+            PDFWrapper pdf = new PDFWrapper(file);
+            pdfs.add(pdf);
+            try (PDDocument document = Loader.loadPDF(file)) {
+                for (int p = 0; p < document.getNumberOfPages(); p++) {
+                    pages.add(columnJobs(p, document.getPage(p).getMediaBox()));
+                    pageOwners.add(pdf);
+                }
+            }
+        }
+
+        if ("pdfbox".equals(engine)) {
+            extractor = new PDFBoxTextExtractor(1);
+            return;
+        }
+        if (!"python".equals(engine))
+            throw new IllegalArgumentException("Unknown engine `" + engine + "`");
+        if (System.getenv("PY_SCRIPT_DIR") == null)
+            throw new IllegalStateException("PY_SCRIPT_DIR must point at the pyscripts directory to benchmark python");
+
+        pool = new PyWorkerPool(WORKER_SCRIPT, 1, PyScheduler.Lane.INTERACTIVE).start(0);
+        extractor = new PyTextExtractor(pool, TIMEOUT);
+        printParity(new PDFBoxTextExtractor(1));
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (pool != null)
+            pool.close();
+        pdfs.forEach(PDFWrapper::close);
+    }
+
+    @Benchmark
+    public Map<Integer, JsonObject> extractPage() {
+        int page = next;
+        next = (next + 1) % pages.size();
+        Map<Integer, JsonObject> text = extractor.getText(pageOwners.get(page), pages.get(page));
+        if (text == null)
+            throw new IllegalStateException(engine + " could not extract page " + page);
+        return text;
+    }
+
+    /**
+     * One job for each column of the generated layout, in points from the top left.
+     */
+    private static List<ExtractionJob> columnJobs(int pageIndex, PDRectangle box) {
+        int columns = SamplePdfs.COLUMNS;
+        float columnWidth = (box.getWidth() - 2 * SamplePdfs.MARGIN - (columns - 1) * SamplePdfs.GUTTER) / columns;
+        int top = Math.round(SamplePdfs.MARGIN);
+        int height = Math.round(box.getHeight() - 2 * SamplePdfs.MARGIN);
+
+        List<ExtractionJob> jobs = new ArrayList<>();
+        for (int c = 0; c < columns; c++) {
+            int x = Math.round(SamplePdfs.MARGIN + c * (columnWidth + SamplePdfs.GUTTER));
+            List<Bounds> bounds = List.of(new Bounds(x, top, Math.round(columnWidth), height, 0));
+            jobs.add(new ExtractionJob(c, pageIndex, bounds, c));
+        }
+        return jobs;
+    }
+
+    /**
+     * Prints how many jobs both engines extracted the same words for, in the same order, and how
+     * many of the words they agree on overall.
+     */
+    private void printParity(TextExtractor reference) {
+        int jobs = 0;
+        int identical = 0;
+        long shared = 0;
+        long total = 0;
+        for (int page = 0; page < pages.size(); page++) {
+            Map<Integer, JsonObject> expected = reference.getText(pageOwners.get(page), pages.get(page));
+            Map<Integer, JsonObject> actual = extractor.getText(pageOwners.get(page), pages.get(page));
+            for (ExtractionJob job : pages.get(page)) {
+                List<String> a = words(expected == null ? null : expected.get(job.getId()));
+                List<String> b = words(actual == null ? null : actual.get(job.getId()));
+                jobs++;
+                if (a.equals(b))
+                    identical++;
+                shared += 2 * sharedWords(a, b);
+                total += a.size() + b.size();
+            }
+        }
+        System.out.printf(
+            "text parity python vs pdfbox: %d/%d jobs identical, %.1f%% of words shared%n",
+            identical, jobs, total == 0 ? 100.0 : 100.0 * shared / total
+        );
+    }
+
+    private static List<String> words(JsonObject result) {
+        List<String> words = new ArrayList<>();
+        if (result == null)
+            return words;
+        for (String key : new String[] { "paragraphs", "other" }) {
+            if (!result.containsKey(key))
+                continue;
+            for (JsonValue value : result.getJsonArray(key)) {
+                if (value.getValueType() != JsonValue.ValueType.STRING)
+                    continue;
+                for (String word : ((JsonString) value).getString().trim().split("\\s+")) {
+                    if (!word.isEmpty())
+                        words.add(word);
+                }
+            }
+        }
+        return words;
+    }
+
+    private static long sharedWords(List<String> a, List<String> b) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (String word : a)
+            counts.merge(word, 1, Integer::sum);
+        long shared = 0;
+        for (String word : b) {
+            Integer count = counts.get(word);
+            if (count != null && count > 0) {
+                counts.put(word, count - 1);
+                shared++;
+            }
+        }
+        return shared;
+    }
+}
@@ -0,0 +1,83 @@
+package au.com.expressionless.nish.utils.pdf;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times a thumbnail of the first page of an edition in each {@link PDFThumbnailBuilder.Mode}.
+ * The peak heap used while rendering, garbage included, is printed at the end of each mode's
+ * run; use {@code -prof gc} for how much each render allocates. Pass {@code -p corpus=<dir>} to
+ * render the first PDF of a directory rather than a generated broadsheet page.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ThumbnailBenchmark {
+
+    @Param({ "FAST", "BALANCED", "QUALITY" })
+    public PDFThumbnailBuilder.Mode mode;
+
+    // directory of PDFs, empty to generate one
+    @Param({ "" })
+    public String corpus;
+
+    private File pdf;
+    private long peakBytes;
+
+    @Setup
+    public void setUp() throws Exception {
+        pdf = SamplePdfs.corpus(corpus, 1, 1).get(0);
+    }
+
+    @Setup(Level.Iteration)
+    public void resetPeak() {
+        System.gc();
+        for (MemoryPoolMXBean pool : heapPools())
+            pool.resetPeakUsage();
+    }
+
+    @TearDown(Level.Iteration)
+    public void recordPeak() {
+        long used = 0;
+        for (MemoryPoolMXBean pool : heapPools())
+            used += pool.getPeakUsage().getUsed();
+        peakBytes = Math.max(peakBytes, used);
+    }
+
+    @TearDown
+    public void printPeak() {
+        System.out.printf("%s peak heap: %d MB%n", mode, peakBytes / (1024 * 1024));
+    }
+
+    @Benchmark
+    public BufferedImage build() throws Exception {
+        return PDFThumbnailBuilder.builder(pdf).setMode(mode).build();
+    }
+
+    private static Iterable<MemoryPoolMXBean> heapPools() {
+        return ManagementFactory.getMemoryPoolMXBeans().stream()
+            .filter(pool -> pool.getType() == MemoryType.HEAP)
+            ::iterator;
+    }
+}
@@ -5,4 +5,32 @@ public class Config {
     public static final String ENV_MINIO_URL = "ITPROJ_MINIO_URL";
     public static final String ENV_MINIO_USER = "ITPROJ_MINIO_USER";
     public static final String ENV_MINIO_PASS = "ITPROJ_MINIO_PASS";
+    public static final String ENV_MINIO_CONCURRENCY = "MINIO_CONCURRENCY";
+    public static final String ENV_MINIO_PUBLIC_URL = "MINIO_PUBLIC_URL";
+    public static final String ENV_MINIO_REGION = "MINIO_REGION";
+    public static final String ENV_MINIO_URL_EXPIRY = "MINIO_URL_EXPIRY";
+    public static final String ENV_MINIO_URL_CACHE_SIZE = "MINIO_URL_CACHE_SIZE";
+    public static final String ENV_MEDIA_DELIVERY = "MEDIA_DELIVERY";
+    public static final String ENV_MINIO_CACHE_DIR = "MINIO_CACHE_DIR";
+    public static final String ENV_MINIO_CACHE_MB = "MINIO_CACHE_MB";
+    public static final String ENV_MINIO_CACHE_TTL = "MINIO_CACHE_TTL";
+
+    public static final String ENV_TEXT_EXTRACTOR = "TEXT_EXTRACTOR";
+    public static final String ENV_PDF_EXT_WORKERS = "PDF_EXT_WORKERS";
+    public static final String ENV_TXT_TAG_WORKERS = "TXT_TAG_WORKERS";
+    public static final String ENV_KEYWORD_ENGINE = "KEYWORD_ENGINE";
+    public static final String ENV_PY_WORKER_HEALTH_CHECK = "PY_WORKER_HEALTH_CHECK";
+
+    public static final String ENV_PY_MAX_PROCESSES = "PY_MAX_PROCESSES";
+    public static final String ENV_PY_MAX_QUEUED = "PY_MAX_QUEUED";
+    public static final String ENV_PY_QUEUE_TIMEOUT = "PY_QUEUE_TIMEOUT";
+
+    public static final String ENV_PDF_WORKSPACE_DIR = "PDF_WORKSPACE_DIR";
+    public static final String ENV_PDF_CACHE_MB = "PDF_CACHE_MB";
+
+    public static final String ENV_THUMBNAIL_MODE = "THUMBNAIL_MODE";
+    public static final String ENV_THUMBNAIL_MAX_RENDERS = "THUMBNAIL_MAX_RENDERS";
+    public static final String ENV_THUMBNAIL_WORKERS = "THUMBNAIL_WORKERS";
+    public static final String ENV_PREVIEW_PARALLELISM = "PREVIEW_PARALLELISM";
+    public static final String ENV_LAYOUT_CACHE_SIZE = "LAYOUT_CACHE_SIZE";
 }
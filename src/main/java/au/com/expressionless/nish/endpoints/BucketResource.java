@@ -0,0 +1,154 @@
+package au.com.expressionless.nish.endpoints;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.json.Json;
+import javax.json.stream.JsonGenerator;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.jboss.logging.Logger;
+
+import au.com.expressionless.nish.service.MinIO;
+
+@Path("v2/bucket")
+@ApplicationScoped
+public class BucketResource extends SecureResource {
+
+    // most objects a single page lists, each is streamed so this only bounds request time
+    private static final int MAX_PAGE_SIZE = 10000;
+
+    // separates the prefix from the last key in a continuation token
+    private static final char TOKEN_SEPARATOR = '\0';
+
+    @Inject
+    MinIO minio;
+
+    static final Logger log = Logger.getLogger(BucketResource.class);
+
+    /**
+     * Lists a page of the objects in a bucket in key order, streamed as it is read from MinIO so
+     * buckets of any size can be walked a page at a time in constant memory.
+     * @param bucket Bucket to list
+     * @param prefix Only list objects whose names start with this
+     * @param startAfter Only list objects after this name
+     * @param continuationToken Token from the previous page, takes the place of start_after
+     * @param limit Most objects to list, up to 10000
+     * @return JsonObject of the listed items, with the token for the next page if there may be
+     * more. If MinIO fails part way the error is included along with a token to resume from.
+     * */
+    @GET
+    @Path("/{bucket}/objects")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response listObjects(
+        @PathParam("bucket") String bucket,
+        @QueryParam("prefix") @DefaultValue("") String prefix,
+        @QueryParam("start_after") String startAfter,
+        @QueryParam("continuation_token") String continuationToken,
+        @QueryParam("limit") @DefaultValue("1000") int limit) {
+
+            mustBeAuthenticated();
+            if (limit < 1 || limit > MAX_PAGE_SIZE) {
+                return error(Status.BAD_REQUEST, "Limit must be between 1 and " + MAX_PAGE_SIZE);
+            }
+
+            String after = startAfter;
+            if (continuationToken != null) {
+                after = decodeToken(continuationToken, prefix);
+                if (after == null) {
+                    return error(Status.BAD_REQUEST, "Invalid continuation token for prefix `" + prefix + "`");
+                }
+            }
+            if (!minio.bucketExists(bucket)) {
+                return error(Status.NOT_FOUND, "Bucket " + bucket + " does not exist");
+            }
+
+            // the status is sent before listing, so failures part way are reported in the body
+            final String from = after;
+            StreamingOutput body = out -> {
+                try (JsonGenerator json = Json.createGenerator(out)) {
+                    json.writeStartObject()
+                    .write("bucket", bucket)
+                    .write("prefix", prefix)
+                    .writeStartArray("items");
+
+                    String[] last = { from };
+                    int[] count = { 0 };
+                    String next;
+                    String failure = null;
+                    try {
+                        next = minio.listObjects(bucket, prefix, from, limit, item -> {
+                            json.writeStartObject()
+                            .write("name", item.objectName())
+                            .write("size", item.size())
+                            .write("etag", item.etag() == null ? "" : item.etag().replace("\"", ""));
+                            if (item.lastModified() != null)
+                                json.write("lastModified", item.lastModified().toString());
+                            json.writeEnd();
+                            last[0] = item.objectName();
+                            count[0]++;
+                        });
+                    } catch (IOException e) {
+                        log.error(e.getMessage());
+                        failure = e.getMessage();
+                        next = last[0];
+                    }
+
+                    json.writeEnd()
+                    .write("count", count[0]);
+                    if (next != null)
+                        json.write("nextContinuationToken", encodeToken(prefix, next));
+                    if (failure != null)
+                        json.write("error", failure);
+                    json.writeEnd();
+                }
+            };
+            return Response.ok(body).build();
+    }
+
+    private static Response error(Status status, String message) {
+        return Response.status(status)
+            .entity(
+                Json.createObjectBuilder()
+                .add("error", message)
+                .build()
+            ).build();
+    }
+
+    /**
+     * Tokens are opaque to clients, but hold the prefix they were issued for so a token can't
+     * resume a different listing.
+     */
+    private static String encodeToken(String prefix, String lastKey) {
+        String token = prefix + TOKEN_SEPARATOR + lastKey;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns the key a token resumes after, or null if it is malformed or for another prefix.
+     */
+    private static String decodeToken(String token, String prefix) {
+        String decoded;
+        try {
+            decoded = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        int sep = decoded.indexOf(TOKEN_SEPARATOR);
+        if (sep < 0 || !decoded.substring(0, sep).equals(prefix))
+            return null;
+        return decoded.substring(sep + 1);
+    }
+}
@@ -1,23 +1,20 @@
 package au.com.expressionless.nish.endpoints;
 
-import java.awt.image.BufferedImage;
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 import javax.enterprise.context.ApplicationScoped;
-import javax.imageio.ImageIO;
 import javax.inject.Inject;
 import javax.json.Json;
-import javax.json.JsonArray;
 import javax.json.JsonArrayBuilder;
-import javax.json.JsonObject;
 import javax.transaction.Transactional;
 import javax.ws.rs.BadRequestException;
 import javax.ws.rs.Consumes;
@@ -30,14 +27,15 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.ServiceUnavailableException;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 
 import org.apache.commons.io.FilenameUtils;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.Pair;
 import org.jboss.logging.Logger;
 import org.jboss.resteasy.plugins.providers.multipart.InputPart;
 import org.jboss.resteasy.plugins.providers.multipart.MultipartFormDataInput;
@@ -45,11 +43,14 @@ import org.jboss.resteasy.plugins.providers.multipart.MultipartFormDataInput;
 import au.com.expressionless.nish.models.entity.edition.Edition;
 import au.com.expressionless.nish.models.entity.edition.Keyword;
 import au.com.expressionless.nish.models.entity.edition.story.Story;
+import au.com.expressionless.nish.service.DocumentWorkspace;
+import au.com.expressionless.nish.service.KeywordTaggingService;
+import au.com.expressionless.nish.service.LayoutService;
 import au.com.expressionless.nish.service.MinIO;
-import au.com.expressionless.nish.utils.GeneralUtils;
-import au.com.expressionless.nish.utils.pdf.PDFWrapper;
-import au.com.expressionless.nish.utils.python.PyScriptResult;
-import au.com.expressionless.nish.utils.python.PyScriptRunner;
+import au.com.expressionless.nish.service.PreviewService;
+import au.com.expressionless.nish.service.SelectionIndex;
+import au.com.expressionless.nish.service.ThumbnailService;
+import au.com.expressionless.nish.utils.pdf.PDFUploadStream;
 import io.minio.ObjectWriteResponse;
 
 @Path("v2/edition")
@@ -59,6 +60,24 @@ public class EditionResource extends SecureResource {
     @Inject
     MinIO minio;
 
+    @Inject
+    KeywordTaggingService keywordTagging;
+
+    @Inject
+    DocumentWorkspace workspace;
+
+    @Inject
+    ThumbnailService thumbnails;
+
+    @Inject
+    PreviewService previews;
+
+    @Inject
+    LayoutService layouts;
+
+    @Inject
+    SelectionIndex selectionIndex;
+
     static final Logger log = Logger.getLogger(EditionResource.class);
 
     /**
@@ -93,6 +112,7 @@ public class EditionResource extends SecureResource {
                     .add("author",      edition.getAuthor())
                     .add("minioId",     edition.getMinioId())
                     .add("published",   edition.isPublished())
+                    .add("thumbnail",   edition.getThumbnailStatus().name().toLowerCase())
                     .build()
                 );
             }
@@ -274,6 +294,10 @@ public class EditionResource extends SecureResource {
         String minioId;
         String fileName;
         String author;
+        String pdfSha256;
+        File pdfFile = null;
+        boolean queued = false;
+        Edition edition;
         try { 
         
             // Currently only uploading one file at a time
@@ -285,33 +309,47 @@ public class EditionResource extends SecureResource {
             fileName = getFileName(header);
             author = "NO_AUTHOR"; // Placeholder
 
-            // convert the uploaded file to inputstream
-            InputStream inputStream = inputPart.getBody(InputStream.class, null);
-            byte[] bytes = IOUtils.toByteArray(inputStream);
-
-            // verify that the byte stream is a PDF file
-            PDFWrapper pdfWrapper = new PDFWrapper(bytes);
+            // upload the pdf to minIO in a single pass over the request body, which checks the
+            // header, hashes it and spools it to disk for the background rendering as it goes
+            log.info("Uploading files for `" + fileName + "`...");
+            pdfFile = File.createTempFile(minioId, "-pdf");
+            PDFUploadStream upload = new PDFUploadStream(inputPart.getBody(InputStream.class, null), pdfFile);
+            ObjectWriteResponse resp;
+            try (upload) {
+                resp = minio.uploadPdf(upload, minioId);
+            }
 
-            // constructs upload file path using the minioId
-            BufferedImage bufferedImage = pdfWrapper.generateThumbnail();
-            File tbnFile = new File(minioId + "-thumbnail");
-            ImageIO.write(bufferedImage, "jpeg", tbnFile);
-            File pdfFile = GeneralUtils.writeFile(bytes, minioId + "-pdf");
+            // the trailer is only known once the whole upload has been read
+            if (!upload.isPDF()) {
+                if (resp != null)
+                    minio.deletePdf(minioId);
+                throw new BadRequestException("File is not a valid PDF file!");
+            }
+            if (resp == null) {
+                throw new IOException("Could not upload " + fileName);
+            }
+            pdfSha256 = upload.getSha256();
 
-            // upload both files to minIO
-            log.info("Uploading files for `" + fileName + "`...");
-            log.info("Uploading: " + pdfFile.getName());
-            ObjectWriteResponse resp1 = minio.uploadPdf(pdfFile, minioId);
-            log.info("Uploading: " + tbnFile.getName());
-            ObjectWriteResponse resp2 = minio.uploadThumbnail(tbnFile, minioId);
-            log.info(
-                "Response: " + resp1.etag() + " : " + resp1.bucket() + " : " + resp1.object()
-            );
+            // the spooled copy saves the first reader downloading the pdf again
+            minio.writeThrough(MinIO.PDF_BUCKET, minioId, pdfFile, resp.etag());
             log.info(
-                "Response: " + resp2.etag() + " : " + resp2.bucket() + " : " + resp2.object()
+                "Response: " + resp.etag() + " : " + resp.bucket() + " : " + resp.object()
+                + " : " + upload.getLength() + " bytes"
             );
-            pdfFile.delete();
-            tbnFile.delete(); 
+
+            // create and persist new edition
+            edition = new Edition();
+            edition.setFileName(fileName);
+            edition.setMinioId(minioId);
+            edition.setAuthor(author);
+            edition.setPdfSha256(pdfSha256);
+            edition.setToDraft();
+            edition.persist();
+
+            // render the thumbnail once the edition is committed, from here on the thumbnail
+            // service deletes the spooled copy whether or not the edition commits
+            thumbnails.enqueue(edition, pdfFile);
+            queued = true;
         } 
         catch (IOException e) {
             log.error(e.getMessage());
@@ -322,19 +360,15 @@ public class EditionResource extends SecureResource {
                 ).build()
             ).build();
         }
- 
-        // create and persist new edition
-        Edition edition = new Edition();
-        edition.setFileName(fileName);
-        edition.setMinioId(minioId);
-        edition.setAuthor(author);
-        edition.setToDraft();
-        edition.persist();
+        finally {
+            if (!queued && pdfFile != null)
+                pdfFile.delete();
+        }
 
-        // generate keywords for new edition
+        // generate keywords for new edition, a busy server shouldn't lose the upload
         try {
             genKeywords(edition);
-        } catch(IOException | InterruptedException e) {
+        } catch(IOException | InterruptedException | ServiceUnavailableException e) {
             log.error(e.getMessage());
             log.error("Keywords failed to generate!");
         }
@@ -348,6 +382,8 @@ public class EditionResource extends SecureResource {
             .add("minioId",     edition.getMinioId())
             .add("author",      edition.getAuthor())
             .add("published",   edition.isPublished())
+            .add("thumbnail",   edition.getThumbnailStatus().name().toLowerCase())
+            .add("sha256",      edition.getPdfSha256())
             .build()
         ).build(); 
     }
@@ -384,15 +420,21 @@ public class EditionResource extends SecureResource {
      * */
     private void deleteEdition(Edition edition) {
 
+        // objects are deleted with one multi-object delete per bucket, sent in parallel
+        Map<String, List<String>> objects = new LinkedHashMap<>();
+        List<String> deltas = new ArrayList<>();
+        List<String> htmls = new ArrayList<>();
+        objects.put(MinIO.QUILL_DELTA_BUCKET, deltas);
+        objects.put(MinIO.HTML_BUCKET, htmls);
+
         // delete the minio files for each story
         List<Story> stories = Story.findByEdition(edition.id);
+        log.info(
+            "Deleting Files for " + stories.size() + " stories..."
+        );
         for (Story story : stories) {
-            log.info(
-                "Deleting Files for story `" + story.getTitle() + "`..."
-            );
-            log.info("Deleting Delta " + story.getMinioId());
-            minio.deleteHtml(story.getMinioId());
-            minio.deleteDelta(story.getMinioId()); 
+            deltas.add(story.getMinioId());
+            htmls.add(story.getMinioId());
         }
         log.info(
             "Deleting Files for edition `" + edition.getFileName() + "`..."
@@ -402,11 +444,26 @@ public class EditionResource extends SecureResource {
         Keyword.deleteByEdition(edition.id);
 
         // delete minio files for edition
-        log.info("Deleting PDF " + edition.getMinioId());
-        minio.deletePdf(edition.getMinioId()); 
-        log.info("Deleting Thumbnail " + edition.getMinioId());
-        minio.deleteThumbnail(edition.getMinioId());
+        workspace.invalidate(edition.getMinioId());
+        objects.put(MinIO.PDF_BUCKET, List.of(edition.getMinioId()));
+        objects.put(MinIO.THUMBNAIL_BUCKET, List.of(edition.getMinioId()));
+        List<CompletableFuture<?>> deletes = new ArrayList<>(minio.deleteObjectsAsync(objects));
+        deletes.add(previews.deleteAll(edition.getMinioId()));
+        deletes.add(layouts.delete(edition.getMinioId()));
+        selectionIndex.invalidate(edition.id);
         edition.delete();
+
+        // leftover objects don't stop the edition being deleted
+        try {
+            MinIO.join(deletes);
+        } catch (IOException e) {
+            log.error(e.getMessage());
+            for (Throwable batch : e.getSuppressed()) {
+                log.error(batch.getMessage());
+                for (Throwable key : batch.getSuppressed())
+                    log.error(key.getMessage());
+            }
+        }
     }
 
     /**
@@ -419,78 +476,30 @@ public class EditionResource extends SecureResource {
             if (edition == null)
                 return;
  
-            // construct stories array
-            JsonArrayBuilder storyArrayBuilder = Json.createArrayBuilder();
-
             // Will only generate keywords for stories if the edition is published
-            if (edition.isPublished()) {
-                List<Story> editionStories = edition.getStories();
-                for (Story story : editionStories) {
-                    storyArrayBuilder.add(
-                        Json.createObjectBuilder()
-                        .add("title",   story.getTitle())
-                        .add("author",  story.getAuthor())
-                        .add("text",    story.getText())
-                        .build()
-                    );
-                }
-            }
-
-            // build json object
-            JsonArray stories = storyArrayBuilder.build();
-            JsonObject input = Json.createObjectBuilder()
-            .add("id",      edition.id)
-            .add("title",   edition.getFileName())
-            .add("author",  edition.getAuthor())
-            .add("stories", stories)
-            .build();
-
-            PyScriptResult result = new PyScriptRunner("txt_tag/text_cleaner.py")
-            .setTimeout(10)
-            .setStdinData(GeneralUtils.JsonSerialise(input))
-            .run();
-
-            // script failed to run
-            if (result == null)
-                throw new InternalServerErrorException("Text tagging script timed out");
-
-            // script ran but encountered an error
-            if (result.getExitValue() != 0) {
-                log.error(new String(result.getStderrData()));
-                throw new InternalServerErrorException("Error occured during text tagging");
-            }
+            List<Story> stories = edition.isPublished() ? edition.getStories() : List.of();
 
+            List<Pair<String, Double>> rows = keywordTagging.tag(edition, stories);
             log.info("Keywords generated for edition: " + edition.getFileName());
-            log.info(result.toString());
-
-            // Since the keywords are generated we should delete the old keywords
-            Keyword.deleteByEdition(edition.id);
 
-            // Loop over CSV rows here
-            BufferedReader reader = new BufferedReader(
-                new InputStreamReader(result.getStdout())
-            );
-            while(reader.ready()) {
-                String line = reader.readLine();
-                String[] rowElems = line.split(",");
-                String word     = rowElems[0];
-                Double ratio    = Double.valueOf(rowElems[2]);
+            // merge rows that only differ by case before touching the db
+            Map<String, Double> ratios = new LinkedHashMap<>();
+            for (Pair<String, Double> row : rows) {
 
                 // NOTE: THIS IS TEMPORARY, GONNA MAKE NISH GO AND EDIT THE SCRIPT
-                if (ratio <= 0.3d)
-                    continue; 
-
-                log.info("Word: " + word);
-
-                word = word.toLowerCase();
-                Keyword keyword = Keyword.findByEditionAndWord(word, edition.id);
-                if (keyword == null) {
-                    keyword = new Keyword(word, edition, ratio);
-                } else {
-                    keyword.ratio += ratio;
-                }
-                keyword.persist();
+                if (row.getValue() <= 0.3d)
+                    continue;
+
+                ratios.merge(row.getKey().toLowerCase(), row.getValue(), Double::sum);
             }
+
+            // Since the keywords are generated we should delete the old keywords
+            Keyword.deleteByEdition(edition.id);
+
+            List<Keyword> keywords = new ArrayList<>(ratios.size());
+            for (Map.Entry<String, Double> ratio : ratios.entrySet())
+                keywords.add(new Keyword(ratio.getKey(), edition, ratio.getValue()));
+            Keyword.persist(keywords);
     }
 }
 
@@ -0,0 +1,60 @@
+package au.com.expressionless.nish.endpoints;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import au.com.expressionless.nish.service.DocumentWorkspace;
+import au.com.expressionless.nish.service.MinIO;
+import au.com.expressionless.nish.utils.python.PyScheduler;
+
+@Path("v2/metrics")
+@ApplicationScoped
+public class MetricsResource extends SecureResource {
+
+    @Inject
+    DocumentWorkspace workspace;
+
+    @Inject
+    MinIO minio;
+
+    /**
+     * Retrieves queue depth, wait time and rejection counts for python work.
+     * @return JsonObject of python scheduler metrics.
+     * */
+    @GET
+    @Path("/python")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getPythonMetrics() {
+        mustBeAuthenticated();
+        return Response.ok(PyScheduler.getInstance().getMetrics()).build();
+    }
+
+    /**
+     * Retrieves hit, miss and eviction counts for the edition PDF cache.
+     * @return JsonObject of PDF cache metrics.
+     * */
+    @GET
+    @Path("/documents")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getDocumentMetrics() {
+        mustBeAuthenticated();
+        return Response.ok(workspace.getMetrics()).build();
+    }
+
+    /**
+     * Retrieves hit and miss ratios and bytes saved for the local MinIO object cache.
+     * @return JsonObject of object cache metrics.
+     * */
+    @GET
+    @Path("/objects")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getObjectMetrics() {
+        mustBeAuthenticated();
+        return Response.ok(minio.getCacheMetrics()).build();
+    }
+}
@@ -1,27 +1,74 @@
 package au.com.expressionless.nish.endpoints;
 
+import static au.com.expressionless.nish.constants.Config.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+import java.util.Optional;
+
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
+import javax.json.Json;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
 
 import org.jboss.logging.Logger;
 
+import au.com.expressionless.nish.models.entity.edition.Edition;
+import au.com.expressionless.nish.models.entity.edition.ThumbnailStatus;
+import au.com.expressionless.nish.service.CachedObject;
 import au.com.expressionless.nish.service.MinIO;
-import io.minio.GetObjectResponse;
+import au.com.expressionless.nish.service.PreviewService;
+import au.com.expressionless.nish.utils.ByteRange;
+import au.com.expressionless.nish.utils.GeneralUtils;
+import io.minio.StatObjectResponse;
 import io.minio.errors.ErrorResponseException;
 
 @Path("v3/media/public")
 @ApplicationScoped
 public class MinioResource {
 
+    // seconds a client should wait before asking for a pending thumbnail again
+    private static final int THUMBNAIL_RETRY_AFTER = 2;
+
+    public static final String DELIVERY_PROXY = "proxy";
+    public static final String DELIVERY_REDIRECT = "redirect";
+
+    // not in javax.ws.rs.core.HttpHeaders
+    private static final String RANGE = "Range";
+    private static final String IF_RANGE = "If-Range";
+    private static final String CONTENT_RANGE = "Content-Range";
+    private static final String ACCEPT_RANGES = "Accept-Ranges";
+
+    // redirect pdf and thumbnail downloads to MinIO instead of proxying them
+    private static final boolean REDIRECT = DELIVERY_REDIRECT.equalsIgnoreCase(
+        GeneralUtils.getSystemEnv(ENV_MEDIA_DELIVERY, DELIVERY_PROXY)
+    );
+
     @Inject
     MinIO minio;
 
+    @Inject
+    PreviewService previews;
+
     static final Logger log = Logger.getLogger(MinioResource.class);
 
     private Response toJaxResponse(okhttp3.Response okhttpResp) {
@@ -33,46 +80,236 @@ public class MinioResource {
     /**
      * MinIO Endpoint for fetching and downloading thumbnail
      * @param minioId Id for the thumbnail that needs to be downloaded
-     * @return The thumbnail file linked to the minioID
+     * @return The thumbnail file linked to the minioID, or 202 Accepted while the thumbnail is
+     * still being rendered
      * */
     @GET
     @Path("/fetch/tbn/{minio-id}")
     @Produces("application/jpeg")
-    public Response downloadFile(@PathParam("minio-id") String minioId) {
-        log.info("Downloading thumbnail for id = " + minioId);
-        try {
-            GetObjectResponse resp = minio.downloadThumbnail(minioId);
-            if(resp == null) {
-                return Response.serverError().build();
+    public Response downloadFile(
+        @PathParam("minio-id") String minioId,
+        @Context Request request,
+        @Context HttpHeaders headers) {
+
+            log.info("Downloading thumbnail for id = " + minioId);
+
+            // thumbnails are rendered after upload, so may not exist yet
+            Optional<Edition> edition = Edition.findByMinioId(minioId);
+            ThumbnailStatus status = edition.map(Edition::getThumbnailStatus).orElse(ThumbnailStatus.READY);
+            if (status == ThumbnailStatus.PENDING) {
+                return Response.status(Status.ACCEPTED)
+                    .header("Retry-After", THUMBNAIL_RETRY_AFTER)
+                    .type(MediaType.APPLICATION_JSON)
+                    .entity(
+                        Json.createObjectBuilder()
+                        .add("status", "pending")
+                        .build()
+                    ).build();
             }
-            return Response.ok(resp)
-                .header("Content-Disposition", "attachment; filename=\"" + minioId + "\"")
-                .build();
-        } catch (ErrorResponseException e) {
-            return toJaxResponse(e.response());
-        }
+            if (status == ThumbnailStatus.FAILED) {
+                return Response.status(Status.NOT_FOUND)
+                    .type(MediaType.APPLICATION_JSON)
+                    .entity(
+                        Json.createObjectBuilder()
+                        .add("error", "Thumbnail for " + minioId + " could not be generated")
+                        .build()
+                    ).build();
+            }
+
+            return serveObject(request, headers, MinIO.THUMBNAIL_BUCKET, minioId);
     }
 
     /**
      * MinIO Endpoint for fetching and downloading pdf file
      * @param minioId Id for the pdf that needs to be downloaded
-     * @return The pdf file linked to the minioID
+     * @return The pdf file linked to the minioID, 206 Partial Content for a Range request or 304
+     * Not Modified if the client's copy is current
      * */
     @GET
     @Path("/fetch/pdf/{minio-id}")
     @Produces("multipart/form-data")
-    public Response downLoadPdf(final @PathParam("minio-id") String minioId) {
-        log.info("Downloading PDF with id = " + minioId);
+    public Response downLoadPdf(
+        final @PathParam("minio-id") String minioId,
+        @Context Request request,
+        @Context HttpHeaders headers) {
+
+            log.info("Downloading PDF with id = " + minioId);
+            return serveObject(request, headers, MinIO.PDF_BUCKET, minioId);
+    }
+
+    /**
+     * Serves an object as an attachment. In redirect mode clients are sent to a presigned MinIO
+     * url instead, falling back to proxying if one can't be signed. Proxied objects come from the
+     * local object cache where possible, and answer
+     * conditional requests against the object's ETag and modification time with 304 and a single
+     * byte range with 206, so viewers can load parts of an edition and revisits don't download
+     * it again.
+     * @param request Request whose preconditions are evaluated
+     * @param headers Headers holding Range and If-Range
+     * @param bucket Bucket holding the object
+     * @param minioId Name of the object
+     */
+    private Response serveObject(Request request, HttpHeaders headers, String bucket, String minioId) {
+        String disposition = "attachment; filename=\"" + minioId + "\"";
+        if (REDIRECT) {
+            String url = minio.presignedUrl(bucket, minioId, disposition);
+            if (url != null) {
+                return Response.temporaryRedirect(URI.create(url)).build();
+            }
+        }
+
         try {
-            GetObjectResponse resp = minio.downloadPdf(minioId);
-            if(resp == null) {
+
+            // a current local copy answers without asking MinIO about the object
+            CachedObject cached = minio.findCached(bucket, minioId);
+            String objectEtag;
+            ZonedDateTime modified;
+            long size;
+            if (cached != null) {
+                objectEtag = cached.getEtag();
+                modified = cached.getLastModified();
+                size = cached.getSize();
+            } else {
+                StatObjectResponse stat = minio.statObject(bucket, minioId);
+                if (stat == null) {
+                    return Response.serverError().build();
+                }
+                objectEtag = stat.etag();
+                modified = stat.lastModified();
+                size = stat.size();
+            }
+
+            // http dates are whole seconds, so compare at that precision
+            EntityTag etag = new EntityTag(objectEtag);
+            Date lastModified = Date.from(modified.toInstant().truncatedTo(ChronoUnit.SECONDS));
+            ResponseBuilder notModified = request.evaluatePreconditions(lastModified, etag);
+            if (notModified != null) {
+                return notModified
+                    .tag(etag)
+                    .lastModified(lastModified)
+                    .header(ACCEPT_RANGES, "bytes")
+                    .build();
+            }
+
+            // a stale If-Range means the client's copy changed, so send the whole object
+            ByteRange range = null;
+            String rangeHeader = headers.getHeaderString(RANGE);
+            if (rangeHeader != null && ifRangeMatches(headers.getHeaderString(IF_RANGE), etag, lastModified)) {
+                try {
+                    range = ByteRange.parse(rangeHeader, size);
+                } catch (IllegalArgumentException e) {
+                    return Response.status(Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+                        .header(CONTENT_RANGE, "bytes */" + size)
+                        .header(ACCEPT_RANGES, "bytes")
+                        .tag(etag)
+                        .build();
+                }
+            }
+
+            boolean whole = range == null || range.isWhole();
+            long offset = whole ? 0 : range.getOffset();
+            long length = whole ? size : range.getLength();
+
+            // local copies are sent straight from their file
+            FileChannel channel = cached == null ? null : cached.openChannel();
+            Object entity;
+            if (channel != null) {
+                entity = (StreamingOutput) out -> CachedObject.transfer(channel, offset, length, out);
+            } else if (whole) {
+                entity = minio.downloadObject(bucket, minioId);
+            } else {
+
+                // the etag stops a range of a newer version being sent after this stat
+                entity = minio.downloadObject(bucket, minioId, offset, length, objectEtag);
+            }
+            if (entity == null) {
                 return Response.serverError().build();
             }
-            return Response.ok(resp)
-                .header("Content-Disposition", "attachment; filename=\"" + minioId + "\"")
+
+            ResponseBuilder builder = whole
+                ? Response.ok(entity)
+                : Response.status(Status.PARTIAL_CONTENT).entity(entity).header(CONTENT_RANGE, range.toContentRange());
+            return builder
+                .header(HttpHeaders.CONTENT_LENGTH, length)
+                .tag(etag)
+                .lastModified(lastModified)
+                .header(ACCEPT_RANGES, "bytes")
+                .header("Content-Disposition", disposition)
                 .build();
         } catch (ErrorResponseException e) {
             return toJaxResponse(e.response());
+        } catch (IOException e) {
+            log.error(e.getMessage());
+            return Response.serverError().build();
         }
     }
+
+    /**
+     * Returns whether or not an If-Range header, if any, still matches the object. Only a strong
+     * ETag or the exact modification time match.
+     */
+    private static boolean ifRangeMatches(String ifRange, EntityTag etag, Date lastModified) {
+        if (ifRange == null)
+            return true;
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("W/"))
+            return false;
+        if (ifRange.startsWith("\""))
+            return ifRange.equals(etag.toString());
+        try {
+            return ZonedDateTime.parse(ifRange, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant()
+                .equals(lastModified.toInstant());
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    /**
+     * MinIO Endpoint for fetching a preview image of a page of an edition. Previews that don't
+     * exist yet are rendered before being returned.
+     * @param minioId Id of the edition's pdf
+     * @param pageIndex Index of the page (0 based)
+     * @param width Width of the preview in pixels, one of 300, 800 or 1600
+     * @return The jpeg preview of the page
+     * */
+    @GET
+    @Path("/fetch/preview/{minio-id}/{page-index}/{width}")
+    @Produces("image/jpeg")
+    public Response downloadPreview(
+        @PathParam("minio-id") String minioId,
+        @PathParam("page-index") int pageIndex,
+        @PathParam("width") int width) {
+
+            log.info("Downloading preview of page " + pageIndex + " at " + width + "px for id = " + minioId);
+            if (!PreviewService.isWidth(width)) {
+                return Response.status(Status.BAD_REQUEST)
+                    .type(MediaType.APPLICATION_JSON)
+                    .entity(
+                        Json.createObjectBuilder()
+                        .add("error", "Previews are not rendered at width " + width)
+                        .build()
+                    ).build();
+            }
+
+            try {
+                InputStream preview = previews.getPreview(minioId, pageIndex, width);
+                if (preview == null) {
+                    return Response.status(Status.NOT_FOUND)
+                        .type(MediaType.APPLICATION_JSON)
+                        .entity(
+                            Json.createObjectBuilder()
+                            .add("error", "Page " + pageIndex + " of " + minioId + " does not exist")
+                            .build()
+                        ).build();
+                }
+                return Response.ok(preview)
+                    .header("Content-Disposition", "inline; filename=\"" + minioId + "-" + pageIndex + "-" + width + ".jpg\"")
+                    .build();
+            } catch (ErrorResponseException e) {
+                return toJaxResponse(e.response());
+            } catch (IOException e) {
+                log.error(e.getMessage());
+                return Response.serverError().build();
+            }
+    }
 }
@@ -5,8 +5,10 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
-import java.io.File;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.io.IOException;
 
 import javax.enterprise.context.ApplicationScoped;
@@ -25,6 +27,7 @@ import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
@@ -37,11 +40,18 @@ import au.com.expressionless.nish.models.entity.edition.Edition;
 import au.com.expressionless.nish.models.entity.edition.story.Bounds;
 import au.com.expressionless.nish.models.entity.edition.story.Story;
 import au.com.expressionless.nish.models.entity.edition.story.StorySelection;
+import au.com.expressionless.nish.service.DocumentWorkspace;
+import au.com.expressionless.nish.service.LayoutService;
 import au.com.expressionless.nish.service.MinIO;
+import au.com.expressionless.nish.service.SelectionIndex;
+import au.com.expressionless.nish.service.TextExtractionService;
 import au.com.expressionless.nish.utils.ANSIColour;
 import au.com.expressionless.nish.utils.GeneralUtils;
+import au.com.expressionless.nish.utils.pdf.ExtractionJob;
+import au.com.expressionless.nish.utils.pdf.LayoutIndex;
 import au.com.expressionless.nish.utils.pdf.PDFWrapper;
 import io.minio.GetObjectResponse;
+import io.quarkus.narayana.jta.QuarkusTransaction;
 import io.minio.errors.ErrorResponseException;
 
 import javax.json.JsonArray;
@@ -56,6 +66,18 @@ public class StoryResource extends SecureResource {
     @Inject
     MinIO minio;
 
+    @Inject
+    TextExtractionService textExtraction;
+
+    @Inject
+    DocumentWorkspace workspace;
+
+    @Inject
+    LayoutService layouts;
+
+    @Inject
+    SelectionIndex selectionIndex;
+
     static final Logger log = Logger.getLogger(StoryResource.class);
 
     // default json file for delta data
@@ -144,6 +166,72 @@ public class StoryResource extends SecureResource {
         ).build();
     }
 
+    /**
+     * Provides the stories of an edition with a selection overlapping a region of a page.
+     * @param editionId Id of the edition to search.
+     * @param pageNum Page number of the region.
+     * @return JsonArray consisting of the overlapping stories, without their selections.
+     * */
+    @GET
+    @Path("/overlap/{edition-id}/{page-number}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getOverlappingStories(
+        @PathParam("edition-id") long editionId,
+        @PathParam("page-number") int pageNum,
+        @QueryParam("x") int x,
+        @QueryParam("y") int y,
+        @QueryParam("width") int width,
+        @QueryParam("height") int height) {
+
+            // find edition in db
+            Edition edition = Edition.findById(editionId);
+            if (edition == null) {
+                return Response.status(Status.NOT_FOUND).entity(
+                    Json.createObjectBuilder()
+                    .add(
+                        "error", "Edition with id = "  + editionId + " does not exist"
+                    )
+                    .build()
+                ).build();
+            }
+
+            if (width <= 0 || height <= 0) {
+                return Response.status(Status.BAD_REQUEST).entity(
+                    Json.createObjectBuilder()
+                    .add(
+                        "error", "Region must have a positive width and height"
+                    )
+                    .build()
+                ).build();
+            }
+
+            // add overlapping stories in the order their selections were made
+            Set<Long> storyIds = selectionIndex.findStories(edition, pageNum, x, y, width, height);
+            Map<Long, Story> stories = new HashMap<>();
+            for (Story story : edition.getStories())
+                stories.put(story.id, story);
+
+            JsonArrayBuilder responseArrayBuilder = Json.createArrayBuilder();
+            for (Long storyId : storyIds) {
+                Story story = stories.get(storyId);
+                if (story == null)
+                    continue;
+                responseArrayBuilder.add(
+                    Json.createObjectBuilder()
+                    .add("id",         story.id)
+                    .add("title",      story.getTitle())
+                    .add("author",     story.getAuthor())
+                    .build()
+                );
+            }
+
+            return Response.ok(
+                Json.createObjectBuilder()
+                .add("stories", responseArrayBuilder.build())
+                .build()
+            ).build();
+    }
+
     /**
      * Adds a story to the edition, generating any text detected by the provided story selections .
      * @param editionId Id of the edition to add the story to.
@@ -157,31 +245,31 @@ public class StoryResource extends SecureResource {
     @Path("/add/{edition-id}")
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
-    @Transactional
-    public Response addStory(JsonObject body, @PathParam("edition-id") long editionId) {
+    public CompletionStage<Response> addStory(JsonObject body, @PathParam("edition-id") long editionId) {
         mustBeAuthenticated();
 
-        // find edition in db
-        Edition edition = Edition.findById(editionId);
+        // find edition in db, in a transaction of its own as one around the method would hold
+        // a connection until the text is extracted
+        Edition edition = QuarkusTransaction.requiringNew().call(() -> Edition.findById(editionId));
         if (edition == null) {
-            return Response.status(Status.NOT_FOUND).entity(
+            return CompletableFuture.completedFuture(Response.status(Status.NOT_FOUND).entity(
                 Json.createObjectBuilder()
                 .add(
                     "error", "Edition with id = "  + editionId + " does not exist"
                 )
                 .build()
-            ).build();
+            ).build());
         } 
 
         // should not be able to add a story if the edition is published
         if (edition.isPublished()) {
-            return Response.status(Status.BAD_REQUEST).entity(
+            return CompletableFuture.completedFuture(Response.status(Status.BAD_REQUEST).entity(
                 Json.createObjectBuilder()
                 .add(
                     "error", "Cannot add story as `" + edition.getFileName() + "` is published"
                 )
                 .build()
-            ).build();
+            ).build());
         }
 
         // json fields in request body
@@ -198,56 +286,59 @@ public class StoryResource extends SecureResource {
             pageBoundsMap = parseSelections(selections);
         } catch (NullPointerException | ClassCastException e) {
             log.error(e.getMessage());
-            return Response.status(Status.BAD_REQUEST).entity(
+            return CompletableFuture.completedFuture(Response.status(Status.BAD_REQUEST).entity(
                 Json.createObjectBuilder()
                 .add(
                     "error", "Fields in request body not instantiated correctly"
                 )
                 .build()
-            ).build();
+            ).build());
         }
 
-        // wrap edition pdf for utilities
-        PDFWrapper pdfWrapper;
+        // selections are answered from the edition's layout index when it has one, otherwise
+        // the pdf is spooled to the shared workspace so python can read it by path, and stays
+        // cached there for the next request on this edition
+        LayoutIndex layout = layouts.find(edition.getMinioId());
+        DocumentWorkspace.Lease pdfLease = null;
         try {
 
             // fetch pdf file from minIO 
-            GetObjectResponse resp = minio.downloadPdf(edition.getMinioId());
+            if (layout == null)
+                pdfLease = workspace.open(edition.getMinioId());
 
             // pdf could not be fetched for some reason
-            if (resp == null) {
-                return Response.status(Status.INTERNAL_SERVER_ERROR).entity(
+            if (layout == null && pdfLease == null) {
+                return CompletableFuture.completedFuture(Response.status(Status.INTERNAL_SERVER_ERROR).entity(
                     Json.createObjectBuilder()
                     .add(
                         "error", "PDF for article `" + title + "` could not be fetched"
                     )
                     .build()
-                ).build();
+                ).build());
             }
-            pdfWrapper = new PDFWrapper(resp.readAllBytes());
 
         // pdf for story does not exist   
         // TODO: Go over scenarios where ErrorResponseException is thrown
         } catch (ErrorResponseException e) {
             log.error(ANSIColour.doRed(e.getMessage()));
-            return Response.status(Status.INTERNAL_SERVER_ERROR).entity(
+            return CompletableFuture.completedFuture(Response.status(Status.INTERNAL_SERVER_ERROR).entity(
                 Json.createObjectBuilder()
                 .add(
                     "error", "PDF for article `" + title + "` does not exist"
                 )
                 .build()
-            ).build();
+            ).build());
 
         // io issues with loading pdf into memory
         } catch (IOException e) {
             log.error(ANSIColour.doRed(e.getMessage()));
-            return Response.status(Status.INTERNAL_SERVER_ERROR).entity(
+            return CompletableFuture.completedFuture(Response.status(Status.INTERNAL_SERVER_ERROR).entity(
                 Json.createObjectBuilder()
                 .add(
                     "error", "PDF for article `" + title + "` could not be loaded on server"
                 )
                 .build()
-            ).build();
+            ).build());
         } 
 
         // create placeholder delta json file for this story
@@ -255,31 +346,18 @@ public class StoryResource extends SecureResource {
         try {
             minioId = UUID.randomUUID().toString();
 
-            // generate empty json for delta
-            File deltaFile = GeneralUtils.writeFile(
-                GeneralUtils.JsonSerialise(DEFAULT_DELTA_JSON),
-                minioId + "-delta"
-            );
-
-            // generate empty json for html
-            File htmlFile = GeneralUtils.writeFile(
-                GeneralUtils.JsonSerialise(DEFAULT_HTML_JSON),
-                minioId + "-html"
-            );
-
-            minio.uploadDelta(deltaFile, minioId);
-            minio.uploadHtml(htmlFile, minioId);
-
-            deltaFile.delete();
-            htmlFile.delete();
+            // upload empty json for delta and html
+            uploadDefaults(minioId);
         } catch (IOException e) {
-            return Response.status(Status.INTERNAL_SERVER_ERROR).entity(
+            if (pdfLease != null)
+                pdfLease.close();
+            return CompletableFuture.completedFuture(Response.status(Status.INTERNAL_SERVER_ERROR).entity(
                 Json.createObjectBuilder()
                 .add(
                     "error", "Could not generate default files for " + title
                 )
                 .build()
-            ).build();
+            ).build());
         }
 
         // ======= PERSIST STORY ========
@@ -291,11 +369,31 @@ public class StoryResource extends SecureResource {
         story.setText("");
         story.setMinioId(minioId);
         List<StorySelection> newSelections = story.addSelections(pageBoundsMap);
-        story.persist();
 
-        // add story to edition
-        edition.addStory(story);
-        edition.persist();
+        // add story to edition, unless it was deleted or published while the pdf was fetched
+        boolean added = QuarkusTransaction.requiringNew().call(() -> {
+            Edition current = Edition.findById(editionId);
+            if (current == null || current.isPublished())
+                return false;
+            story.persist();
+            current.addStory(story);
+            current.persist();
+            selectionIndex.invalidate(editionId);
+            return true;
+        });
+        if (!added) {
+            if (pdfLease != null)
+                pdfLease.close();
+            minio.deleteDeltaAsync(minioId);
+            minio.deleteHtmlAsync(minioId);
+            return CompletableFuture.completedFuture(Response.status(Status.CONFLICT).entity(
+                Json.createObjectBuilder()
+                .add(
+                    "error", "Edition with id = " + editionId + " was deleted or published while adding `" + title + "`"
+                )
+                .build()
+            ).build());
+        }
 
         // ======== BUILD SUCCESS RESPONSE ========
 
@@ -305,16 +403,17 @@ public class StoryResource extends SecureResource {
             selectionIdsBuilder.add(selection.id);
         }
 
-        // build response
+        // build response once text is extracted, releasing the worker thread in the meantime
         JsonArray selectionIds = selectionIdsBuilder.build();
-        JsonArray paragraphs = generateTextBySequence(pdfWrapper, pageBoundsMap);
-        return Response.ok(
+        Long id = story.id;
+        return generateTextBySequenceAsync(layout, pdfLease, pageBoundsMap)
+        .thenApply(paragraphs -> Response.ok(
             Json.createObjectBuilder()
-            .add("id",         story.id)
+            .add("id",         id)
             .add("selectionIds",    selectionIds)
             .add("paragraphs",      paragraphs)
             .build()
-        ).build();
+        ).build());
     }
 
     /**
@@ -329,32 +428,32 @@ public class StoryResource extends SecureResource {
     @PUT
     @Path("/selections/update/{story-id}")
     @Consumes(MediaType.APPLICATION_JSON)
-    @Transactional
-    public Response updateSelections(JsonObject body, @PathParam("story-id") Long storyId) {
+    public CompletionStage<Response> updateSelections(JsonObject body, @PathParam("story-id") Long storyId) {
         mustBeAuthenticated();
 
-        // find story in db
-        Story story = Story.findById(storyId);
+        // find story in db, in a transaction of its own as one around the method would hold
+        // a connection until the text is extracted
+        Story story = QuarkusTransaction.requiringNew().call(() -> Story.findById(storyId));
         if (story == null) {
-            return Response.status(Status.NOT_FOUND).entity(
+            return CompletableFuture.completedFuture(Response.status(Status.NOT_FOUND).entity(
                 Json.createObjectBuilder()
                 .add(
                     "error", "Story with id = "  + storyId + " does not exist"
                 )
                 .build()
-            ).build();
+            ).build());
         }
 
         // should not be able to update selections for a story where the edition is published
         Edition edition = story.getEdition();
         if (edition.isPublished()) {
-            return Response.status(Status.BAD_REQUEST).entity(
+            return CompletableFuture.completedFuture(Response.status(Status.BAD_REQUEST).entity(
                 Json.createObjectBuilder()
                 .add(
                     "error", "Cannot update story as `" + edition.getFileName() + "` is published"
                 )
                 .build()
-            ).build();
+            ).build());
         }
 
         // fetch fields from request body
@@ -365,95 +464,101 @@ public class StoryResource extends SecureResource {
             pageBoundsMap = parseSelections(selections);
         } catch (NullPointerException | ClassCastException e) {
             log.error(e.getMessage());
-            return Response.status(Status.BAD_REQUEST).entity(
+            return CompletableFuture.completedFuture(Response.status(Status.BAD_REQUEST).entity(
                 Json.createObjectBuilder()
                 .add(
                     "error", "Fields in request body not instantiated correctly"
                 )
                 .build()
-            ).build();
+            ).build());
         }
 
         // create placeholder delta json file for this story
         try {
 
-            // generate empty json for delta
-            File deltaFile = GeneralUtils.writeFile(
-                GeneralUtils.JsonSerialise(DEFAULT_DELTA_JSON),
-                story.getMinioId() + "-delta"
-            );
-
-            // generate empty json for html
-            File htmlFile = GeneralUtils.writeFile(
-                GeneralUtils.JsonSerialise(DEFAULT_HTML_JSON),
-                story.getMinioId() + "-html"
-            );
-
-            // upload files
-            minio.uploadDelta(deltaFile, story.getMinioId());
-            minio.uploadHtml(htmlFile, story.getMinioId());
-
-            deltaFile.delete();
-            htmlFile.delete();
+            // upload empty json for delta and html
+            uploadDefaults(story.getMinioId());
         } catch (IOException e) {
-            return Response.status(Status.INTERNAL_SERVER_ERROR).entity(
+            return CompletableFuture.completedFuture(Response.status(Status.INTERNAL_SERVER_ERROR).entity(
                 Json.createObjectBuilder()
                 .add(
                     "error", "Could not generate default files for " + story.getTitle()
                 )
                 .build()
-            ).build();
+            ).build());
         }
 
-        // wrap edition pdf for utilities
-        PDFWrapper pdfWrapper;
+        // selections are answered from the edition's layout index when it has one, otherwise
+        // the pdf is spooled to the shared workspace so python can read it by path, and stays
+        // cached there for the next request on this edition
+        LayoutIndex layout = layouts.find(edition.getMinioId());
+        DocumentWorkspace.Lease pdfLease = null;
         try {
 
             // fetch pdf file from minIO 
-            GetObjectResponse resp = minio.downloadPdf(edition.getMinioId());
+            if (layout == null)
+                pdfLease = workspace.open(edition.getMinioId());
 
             // pdf could not be fetched for some reason
-            if (resp == null) {
-                return Response.status(Status.INTERNAL_SERVER_ERROR).entity(
+            if (layout == null && pdfLease == null) {
+                return CompletableFuture.completedFuture(Response.status(Status.INTERNAL_SERVER_ERROR).entity(
                     Json.createObjectBuilder()
                     .add(
                         "error", "PDF for article `" + story.getTitle() + "` could not be fetched"
                     )
                     .build()
-                ).build();
+                ).build());
             }
-            pdfWrapper = new PDFWrapper(resp.readAllBytes());
 
         // pdf for story does not exist   
         // TODO: Go over scenarios where ErrorResponseException is thrown
         } catch (ErrorResponseException e) {
             log.error(ANSIColour.doRed(e.getMessage()));
-            return Response.status(Status.INTERNAL_SERVER_ERROR).entity(
+            return CompletableFuture.completedFuture(Response.status(Status.INTERNAL_SERVER_ERROR).entity(
                 Json.createObjectBuilder()
                 .add(
                     "error", "PDF for article `" + story.getTitle() + "` does not exist"
                 )
                 .build()
-            ).build();
+            ).build());
 
         // io issues with loading pdf into memory
         } catch (IOException e) {
             log.error(ANSIColour.doRed(e.getMessage()));
-            return Response.status(Status.INTERNAL_SERVER_ERROR).entity(
+            return CompletableFuture.completedFuture(Response.status(Status.INTERNAL_SERVER_ERROR).entity(
                 Json.createObjectBuilder()
                 .add(
                     "error", "PDF for article `" + story.getTitle() + "` could not be loaded on server"
                 )
                 .build()
-            ).build();
+            ).build());
         } 
 
         // Now that data relating to the selections is cleared, remove all the selections
-        // and add the new selections
-        story.setText("");
-        story.deleteSelections();
-        List<StorySelection> newSelections = story.addSelections(pageBoundsMap);
-        story.persist();
+        // and add the new selections, unless the story was deleted or its edition published
+        // while the pdf was fetched
+        List<StorySelection> newSelections = QuarkusTransaction.requiringNew().call(() -> {
+            Story current = Story.findById(storyId);
+            if (current == null || current.getEdition().isPublished())
+                return null;
+            current.setText("");
+            current.deleteSelections();
+            List<StorySelection> added = current.addSelections(pageBoundsMap);
+            current.persist();
+            selectionIndex.invalidate(edition.id);
+            return added;
+        });
+        if (newSelections == null) {
+            if (pdfLease != null)
+                pdfLease.close();
+            return CompletableFuture.completedFuture(Response.status(Status.CONFLICT).entity(
+                Json.createObjectBuilder()
+                .add(
+                    "error", "Story with id = " + storyId + " was deleted or published while updating its selections"
+                )
+                .build()
+            ).build());
+        }
 
         // generate list of selection ids in json format
         JsonArrayBuilder selectionIdsBuilder = Json.createArrayBuilder();
@@ -461,15 +566,15 @@ public class StoryResource extends SecureResource {
             selectionIdsBuilder.add(selection.id);
         } 
 
-        // build response
+        // build response once text is extracted, releasing the worker thread in the meantime
         JsonArray selectionIds = selectionIdsBuilder.build();
-        JsonArray paragraphs = generateTextBySequence(pdfWrapper, pageBoundsMap);
-        return Response.ok(
+        return generateTextBySequenceAsync(layout, pdfLease, pageBoundsMap)
+        .thenApply(paragraphs -> Response.ok(
             Json.createObjectBuilder()
             .add("selectionIds",    selectionIds)
             .add("paragraphs",      paragraphs)
             .build()
-        ).build();
+        ).build());
     }
 
     /**
@@ -509,9 +614,16 @@ public class StoryResource extends SecureResource {
         }
 
         // delete story and its minio data
-        minio.deleteDelta(story.getMinioId());
-        minio.deleteHtml(story.getMinioId());
+        try {
+            MinIO.join(List.of(
+                minio.deleteDeltaAsync(story.getMinioId()),
+                minio.deleteHtmlAsync(story.getMinioId())
+            ));
+        } catch (IOException e) {
+            log.error(e.getMessage());
+        }
         story.delete();
+        selectionIndex.invalidate(edition.id);
 
         return Response.status(Status.NO_CONTENT).build();
     }
@@ -586,45 +698,28 @@ public class StoryResource extends SecureResource {
             ).build();
         }
 
-        // write new delta json file to minio
+        // write new delta and html json files to minio in parallel
         try {
-            File deltaFile = GeneralUtils.writeFile(
-                GeneralUtils.JsonSerialise(
-                    Json.createObjectBuilder()
-                    .add("delta", delta)
-                    .build()
-                ), 
-                story.getMinioId()
+            byte[] deltaJson = GeneralUtils.JsonSerialise(
+                Json.createObjectBuilder()
+                .add("delta", delta)
+                .build()
             );
-            minio.uploadDelta(deltaFile, story.getMinioId());
-            deltaFile.delete();
-        } catch (IOException e) {
-            return Response.status(Status.INTERNAL_SERVER_ERROR).entity(
+            byte[] htmlJson = GeneralUtils.JsonSerialise(
                 Json.createObjectBuilder()
-                .add(
-                    "error", "Could not update delta for " + story.getTitle()
-                )
+                .add("html", html)
                 .build()
-            ).build();
-        }
-
-        // write new html json file to minio
-        try {
-            File htmlFile = GeneralUtils.writeFile(
-                GeneralUtils.JsonSerialise(
-                    Json.createObjectBuilder()
-                    .add("html", html)
-                    .build()
-                ),
-                story.getMinioId()
             );
-            minio.uploadHtml(htmlFile, story.getMinioId());
-            htmlFile.delete();
+            MinIO.join(List.of(
+                minio.uploadDeltaAsync(deltaJson, story.getMinioId()),
+                minio.uploadHtmlAsync(htmlJson, story.getMinioId())
+            ));
         } catch (IOException e) {
+            log.error(e.getMessage());
             return Response.status(Status.INTERNAL_SERVER_ERROR).entity(
                 Json.createObjectBuilder()
                 .add(
-                    "error", "Could not update html for " + story.getTitle()
+                    "error", "Could not update content for " + story.getTitle()
                 )
                 .build()
             ).build();
@@ -813,6 +908,18 @@ public class StoryResource extends SecureResource {
         ).build();
     }
 
+    /**
+     * Uploads the empty delta and html json of a story in parallel, straight from memory.
+     * @param minioId MinIO id of the story
+     * @throws IOException if either could not be uploaded
+     * */
+    private void uploadDefaults(String minioId) throws IOException {
+        MinIO.join(List.of(
+            minio.uploadDeltaAsync(GeneralUtils.JsonSerialise(DEFAULT_DELTA_JSON), minioId),
+            minio.uploadHtmlAsync(GeneralUtils.JsonSerialise(DEFAULT_HTML_JSON), minioId)
+        ));
+    }
+
     /**
      * Parses new selections into a mapping between page numbers and the selections
      * contained on each page.
@@ -846,49 +953,68 @@ public class StoryResource extends SecureResource {
     }
 
     /**
-     * Scans text from a pdf given a page number and a list of bounds
-     * @param pdfWrapper a pdf document wrapped in a PDFWrapper
-     * @param pageNum page of pdf file to scan text from
-     * @param bounds sections of the page to scan textfrom
-     * @return a JsonArray of strings, with each denoting a new paragraph, returning 
-     * an empty JsonArray when an error has occured. This should never be null.
+     * Generates text in order of the bounds' sequences number, attempting to group
+     * selections in order on the same page for text extraction. All groups are extracted
+     * in a single request, without blocking the calling thread.
+     * @param pdfWrapper pdf documnet wrapped in PDFWrapper
+     * @param pageBoundsMap a mapping of a page number to a list of bounds on that page
+     * @return a future JsonArray of strings, with each denoting a new paragraph and otherwise
+     * completing with an empty JsonArray when an error has occured. This should never be null.
      * */
-    public JsonArray generateText(PDFWrapper pdfWrapper, Integer pageNum, List<Bounds> bounds) {
-
-        // check if python script is extracting correctly
-        // null means the script failed to extract text from the pdf in an orderly fashion
-        JsonObject textChunk = pdfWrapper.getText(pageNum, bounds);
-        if (textChunk == null) {
-            log.info(
-                "Text on page " + pageNum + " failed to generate"
-            );
-            return Json.createArrayBuilder().build();
-        }
+    public CompletableFuture<JsonArray> generateTextBySequenceAsync(PDFWrapper pdfWrapper, Map<Integer, List<Bounds>> pageBoundsMap) {
 
-        try {
-            return textChunk.getJsonArray("paragraphs");
-        } catch (NullPointerException e) {
-            log.error(ANSIColour.doRed(e.getMessage()));
-            return Json.createArrayBuilder().build();
-        }
+        // no bounds means no text to extract
+        List<ExtractionJob> jobs = groupBySequence(pageBoundsMap);
+        if (jobs.isEmpty())
+            return CompletableFuture.completedFuture(Json.createArrayBuilder().build());
+
+        return textExtraction.getTextAsync(pdfWrapper, jobs)
+        .thenApply(results -> collectParagraphs(jobs, results));
     }
 
     /**
-     * Generates text in order of the bounds' sequences number, attempting to group
-     * selections in order on the same page for text extraction
-     * @param pdfWrapper pdf documnet wrapped in PDFWrapper
+     * Generates text like {@link #generateTextBySequenceAsync(PDFWrapper, Map)} from an edition's
+     * layout index, with no text extraction.
+     * @param layout layout index of the edition
      * @param pageBoundsMap a mapping of a page number to a list of bounds on that page
      * @return a JsonArray of strings, with each denoting a new paragraph and otherwise returns 
      * an empty JsonArray when an error has occured. This should never be null.
      * */
-    public JsonArray generateTextBySequence(PDFWrapper pdfWrapper, Map<Integer, List<Bounds>> pageBoundsMap) {
-
-        // output builder
-        JsonArrayBuilder paragraphBuilder = Json.createArrayBuilder();
+    public JsonArray generateTextBySequence(LayoutIndex layout, Map<Integer, List<Bounds>> pageBoundsMap) {
 
         // no bounds means no text to extract
+        List<ExtractionJob> jobs = groupBySequence(pageBoundsMap);
+        if (jobs.isEmpty())
+            return Json.createArrayBuilder().build();
+
+        return collectParagraphs(jobs, layout.getText(jobs));
+    }
+
+    /**
+     * Generates text from the layout index when there is one, otherwise from the leased pdf,
+     * closing the lease once the text is extracted.
+     * */
+    private CompletableFuture<JsonArray> generateTextBySequenceAsync(
+        LayoutIndex layout, DocumentWorkspace.Lease pdfLease, Map<Integer, List<Bounds>> pageBoundsMap) {
+
+            if (layout != null)
+                return CompletableFuture.completedFuture(generateTextBySequence(layout, pageBoundsMap));
+
+            return generateTextBySequenceAsync(pdfLease.getPdf(), pageBoundsMap)
+            .whenComplete((paragraphs, e) -> pdfLease.close());
+    }
+
+    /**
+     * Sorts bounds by sequence number and groups consecutive bounds on the same page into
+     * one extraction job each.
+     * @param pageBoundsMap a mapping of a page number to a list of bounds on that page
+     * @return extraction jobs in sequence order, with ids counting up from 0
+     * */
+    private List<ExtractionJob> groupBySequence(Map<Integer, List<Bounds>> pageBoundsMap) {
+
+        List<ExtractionJob> jobs = new ArrayList<>();
         if (pageBoundsMap.isEmpty())
-            return paragraphBuilder.build();
+            return jobs;
 
         // flatten pageBoundsMap to a list of tuples
         List<Pair<Bounds, Integer>> boundsPageNumberPairs = new ArrayList<>();
@@ -905,7 +1031,7 @@ public class StoryResource extends SecureResource {
             return Integer.compare(x.getKey().getSequenceNum(), y.getKey().getSequenceNum());
         });
 
-        // generate text in sequence by page
+        // group consecutive bounds on the same page into one extraction job
         List<Bounds> boundsOnCurrentPage = new ArrayList<>();
         Integer currentPage = null;
         for (Pair<Bounds, Integer> pair : boundsPageNumberPairs) {
@@ -913,34 +1039,46 @@ public class StoryResource extends SecureResource {
             Bounds bounds = pair.getKey();
             Integer pageNum = pair.getValue();
 
-            if (pageNum == currentPage) {
-                boundsOnCurrentPage.add(bounds);
-            } else if (currentPage == null) {
-                currentPage = pageNum;
-                boundsOnCurrentPage.add(bounds);
-            } else {
+            if (currentPage != null && !pageNum.equals(currentPage)) {
+                jobs.add(new ExtractionJob(
+                    jobs.size(), currentPage, boundsOnCurrentPage, boundsOnCurrentPage.get(0).getSequenceNum()
+                ));
+                boundsOnCurrentPage = new ArrayList<>();
+            }
+            currentPage = pageNum;
+            boundsOnCurrentPage.add(bounds);
+        }
 
-                // generate text
-                JsonArray paragraphs = generateText(pdfWrapper, currentPage, boundsOnCurrentPage);
+        // last grouping of bounds on the page
+        jobs.add(new ExtractionJob(
+            jobs.size(), currentPage, boundsOnCurrentPage, boundsOnCurrentPage.get(0).getSequenceNum()
+        ));
+        return jobs;
+    }
 
-                // add generated paragraphs to paragraphBuilder
-                for (JsonValue paragraph : paragraphs) {
-                    paragraphBuilder.add(paragraph);
-                }
+    /**
+     * Concatenates the paragraphs extracted for each job, in job order.
+     * @param jobs extraction jobs in sequence order
+     * @param results extracted text keyed by job id, null if extraction failed
+     * @return a JsonArray of strings, with each denoting a new paragraph. This should never be null.
+     * */
+    private JsonArray collectParagraphs(List<ExtractionJob> jobs, Map<Integer, JsonObject> results) {
 
-                // reset boundsOnPage and append the bounds for the new page
-                currentPage = pageNum;
-                boundsOnCurrentPage.clear();
-                boundsOnCurrentPage.add(bounds);
-            }
+        // output builder
+        JsonArrayBuilder paragraphBuilder = Json.createArrayBuilder();
+        if (results == null) {
+            log.info("Text for " + jobs.size() + " page run(s) failed to generate");
+            return paragraphBuilder.build();
         }
 
-        // last grouping of bounds on the page that didn't get scanned for text
-        if (!boundsOnCurrentPage.isEmpty()) {
-
-            // generate text
-            JsonArray paragraphs = generateText(pdfWrapper, currentPage, boundsOnCurrentPage);
-            for (JsonValue paragraph : paragraphs) {
+        // add generated paragraphs to paragraphBuilder in sequence
+        for (ExtractionJob job : jobs) {
+            JsonObject textChunk = results.get(job.getId());
+            if (textChunk == null || textChunk.getJsonArray("paragraphs") == null) {
+                log.info("Text on page " + job.getPageIndex() + " failed to generate");
+                continue;
+            }
+            for (JsonValue paragraph : textChunk.getJsonArray("paragraphs")) {
                 paragraphBuilder.add(paragraph);
             }
         }
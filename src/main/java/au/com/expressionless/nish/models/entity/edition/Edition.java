@@ -7,6 +7,8 @@ import java.util.Optional;
 import javax.persistence.CascadeType;
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
 import javax.persistence.JoinColumn;
 import javax.persistence.OneToMany;
 import javax.persistence.Table;
@@ -30,6 +32,13 @@ public class Edition extends MinioEntity {
     @Column(name = "is_published")
     private Boolean published;
 
+    @Enumerated(EnumType.STRING)
+    @Column(name = "thumbnail_status")
+    private ThumbnailStatus thumbnailStatus;
+
+    @Column(name = "pdf_sha256", length = 64)
+    private String pdfSha256;
+
     @OneToMany(cascade = CascadeType.ALL, orphanRemoval = true)
     @JoinColumn(name = "edition_id")
     private List<Story> stories;
@@ -85,6 +94,30 @@ public class Edition extends MinioEntity {
         setIsPublished(true);
     }
 
+    /**
+     * Returns the status of the edition's thumbnail. Editions uploaded before thumbnails were
+     * rendered in the background always have one.
+     */
+    public ThumbnailStatus getThumbnailStatus() {
+        return this.thumbnailStatus == null ? ThumbnailStatus.READY : this.thumbnailStatus;
+    }
+
+    public void setThumbnailStatus(ThumbnailStatus thumbnailStatus) {
+        this.thumbnailStatus = thumbnailStatus;
+    }
+
+    /**
+     * Returns the SHA-256 of the edition's PDF in hex, null for editions uploaded before it was
+     * recorded.
+     */
+    public String getPdfSha256() {
+        return this.pdfSha256;
+    }
+
+    public void setPdfSha256(String pdfSha256) {
+        this.pdfSha256 = pdfSha256;
+    }
+
     /**
      * Find an Edition by file name
      * @param fileName
@@ -94,6 +127,19 @@ public class Edition extends MinioEntity {
         return find("fileName", fileName).firstResultOptional();
     }
 
+    /**
+     * Find an Edition by minio id
+     * @param minioId
+     * @return an optional containing the edition matching the minio id (if exists)
+     */
+    public static Optional<Edition> findByMinioId(String minioId) {
+        return find("minioId", minioId).firstResultOptional();
+    }
+
+    public static List<Edition> findByThumbnailStatus(ThumbnailStatus status) {
+        return list("thumbnailStatus", status);
+    }
+
     public static List<Edition> findEditionsByIds(long[] ids) {
         StringBuilder sb = new StringBuilder();
         if(ids == null || ids.length == 0) {
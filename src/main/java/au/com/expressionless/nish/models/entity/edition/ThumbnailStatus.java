@@ -0,0 +1,10 @@
+package au.com.expressionless.nish.models.entity.edition;
+
+/**
+ * Progress of an edition's thumbnail, which is rendered in the background after upload.
+ */
+public enum ThumbnailStatus {
+    PENDING,
+    READY,
+    FAILED
+}
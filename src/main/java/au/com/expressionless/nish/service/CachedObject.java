@@ -0,0 +1,105 @@
+package au.com.expressionless.nish.service;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.time.ZonedDateTime;
+
+/**
+ * A local copy of a MinIO object held by the object cache, along with the ETag and modification
+ * time MinIO reported for it.
+ */
+public class CachedObject {
+
+    private final String bucket;
+    private final String name;
+    private final File file;
+    private final long size;
+    private final String etag;
+    private final ZonedDateTime lastModified;
+
+    // when MinIO last confirmed the etag, in millis
+    private volatile long validatedAt;
+
+    CachedObject(String bucket, String name, File file, long size, String etag, ZonedDateTime lastModified) {
+        this.bucket = bucket;
+        this.name = name;
+        this.file = file;
+        this.size = size;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.validatedAt = System.currentTimeMillis();
+    }
+
+    public String getBucket() {
+        return bucket;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public ZonedDateTime getLastModified() {
+        return lastModified;
+    }
+
+    boolean isValidatedWithin(long millis) {
+        return System.currentTimeMillis() - validatedAt < millis;
+    }
+
+    void validated() {
+        validatedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Opens the copy for reading, or returns null if it has been evicted since it was found. An
+     * open channel keeps reading the copy even if it's evicted or replaced meanwhile.
+     */
+    public FileChannel openChannel() throws IOException {
+        try {
+            return FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Sends part of a copy with {@link FileChannel#transferTo}, then closes the channel. The
+     * response is only an OutputStream, so the bytes still pass through a small heap buffer on
+     * the way to it, but the copy is read straight from disk rather than from MinIO.
+     * @param channel Channel from {@link #openChannel()}
+     * @param position First byte to send
+     * @param count Number of bytes to send
+     */
+    public static void transfer(FileChannel channel, long position, long count, OutputStream out) throws IOException {
+        try (channel) {
+            WritableByteChannel target = Channels.newChannel(out);
+            long end = position + count;
+            while (position < end) {
+                long sent = channel.transferTo(position, end - position, target);
+                if (sent <= 0)
+                    throw new EOFException("Cached object ended at " + position + " of " + end);
+                position += sent;
+            }
+            out.flush();
+        }
+    }
+}
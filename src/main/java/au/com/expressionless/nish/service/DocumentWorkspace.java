@@ -0,0 +1,289 @@
+package au.com.expressionless.nish.service;
+
+import static au.com.expressionless.nish.constants.Config.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.ws.rs.BadRequestException;
+
+import org.jboss.logging.Logger;
+
+import au.com.expressionless.nish.utils.ANSIColour;
+import au.com.expressionless.nish.utils.GeneralUtils;
+import au.com.expressionless.nish.utils.pdf.PDFWrapper;
+import io.minio.GetObjectResponse;
+import io.minio.errors.ErrorResponseException;
+import io.quarkus.runtime.StartupEvent;
+
+/**
+ * Spools edition PDFs from MinIO into a shared workspace directory, tmpfs backed where available,
+ * so python only ever needs the file's path. Each PDF is written and validated once per minioId
+ * and shared by every request using it. Once the last lease is closed the PDF stays cached, and
+ * the least recently used idle PDFs are evicted when the cache grows past PDF_CACHE_MB.
+ */
+@ApplicationScoped
+public class DocumentWorkspace {
+
+    static final Logger log = Logger.getLogger(DocumentWorkspace.class);
+
+    private static final String SHM_DIR = "/dev/shm";
+
+    @Inject
+    MinIO minio;
+
+    // access ordered, so iteration starts at the least recently opened entry
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private Path dir;
+    private long maxBytes;
+
+    // guarded by entries
+    private long cachedBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    void onStart(@Observes StartupEvent e) {
+        dir = Paths.get(GeneralUtils.getSystemEnv(ENV_PDF_WORKSPACE_DIR, defaultDir()));
+        maxBytes = Long.parseLong(GeneralUtils.getSystemEnv(ENV_PDF_CACHE_MB, "256")) * 1024 * 1024;
+        try {
+            Files.createDirectories(dir);
+
+            // PDFs left behind by a previous run are never leased again, the directory may be
+            // shared so nothing else is touched
+            try (Stream<Path> leftovers = Files.list(dir)) {
+                leftovers.filter(DocumentWorkspace::isSpooled).forEach(path -> path.toFile().delete());
+            }
+            log.info("PDF workspace at " + dir);
+        } catch (IOException ex) {
+            log.error(ANSIColour.doRed("Could not prepare PDF workspace " + dir + ": " + ex.getMessage()));
+        }
+    }
+
+    /**
+     * Returns whether or not a file is one the workspace spools, a PDF or one being written.
+     */
+    private static boolean isSpooled(Path path) {
+        String name = path.getFileName().toString();
+        return Files.isRegularFile(path) && (name.endsWith(".pdf") || name.endsWith(".part"));
+    }
+
+    /**
+     * Returns a lease on the spooled PDF for an edition, downloading it from MinIO if it isn't
+     * cached. Returns null if MinIO could not provide the PDF. The lease must be closed once
+     * python is done with the file.
+     * @param minioId MinIO id of the edition's PDF
+     * @throws BadRequestException if the stored file is not a valid PDF
+     */
+    public Lease open(String minioId) throws IOException, ErrorResponseException, BadRequestException {
+        if (!minioId.matches("[A-Za-z0-9_.-]+") || minioId.startsWith("."))
+            throw new IOException("Invalid minio id `" + minioId + "`");
+
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.computeIfAbsent(minioId, Entry::new);
+            entry.refs++;
+        }
+
+        try {
+            if (!entry.spool()) {
+                release(entry);
+                return null;
+            }
+        } catch (IOException | ErrorResponseException | RuntimeException e) {
+            release(entry);
+            throw e;
+        }
+        return new Lease(entry);
+    }
+
+    /**
+     * Drops the cached PDF for an edition. A PDF that is still leased is removed once its last
+     * lease is closed.
+     * @param minioId MinIO id of the edition's PDF
+     */
+    public void invalidate(String minioId) {
+        synchronized (entries) {
+            Entry entry = entries.get(minioId);
+            if (entry == null)
+                return;
+            entry.stale = true;
+            if (entry.refs == 0)
+                remove(entry);
+        }
+    }
+
+    /**
+     * Returns hit, miss and eviction counts along with the current size of the cache.
+     */
+    public JsonObject getMetrics() {
+        synchronized (entries) {
+            return Json.createObjectBuilder()
+            .add("entries",     entries.size())
+            .add("bytes",       cachedBytes)
+            .add("maxBytes",    maxBytes)
+            .add("hits",        hits)
+            .add("misses",      misses)
+            .add("evictions",   evictions)
+            .build();
+        }
+    }
+
+    private void release(Entry entry) {
+        synchronized (entries) {
+            if (--entry.refs > 0)
+                return;
+
+            // failed and invalidated entries are never reused
+            if (entry.pdf == null || entry.stale)
+                remove(entry);
+            evict();
+        }
+    }
+
+    /**
+     * Evicts idle entries, least recently opened first, until the cache fits. Must hold entries.
+     */
+    private void evict() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (cachedBytes > maxBytes && it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.refs > 0)
+                continue;
+            it.remove();
+            deleteFile(entry);
+            evictions++;
+        }
+    }
+
+    /**
+     * Removes an idle entry and its file. Must hold entries.
+     */
+    private void remove(Entry entry) {
+        if (entries.get(entry.minioId) == entry)
+            entries.remove(entry.minioId);
+        deleteFile(entry);
+    }
+
+    private void deleteFile(Entry entry) {
+        if (entry.file == null)
+            return;
+        cachedBytes -= entry.size;
+        if (!entry.file.delete())
+            log.warn("Could not remove spooled PDF " + entry.file);
+        entry.file = null;
+        entry.pdf = null;
+    }
+
+    private static String defaultDir() {
+        File shm = new File(SHM_DIR);
+        File parent = shm.isDirectory() && shm.canWrite() ? shm : new File(System.getProperty("java.io.tmpdir"));
+        return new File(parent, "nish-pdf").getAbsolutePath();
+    }
+
+    private class Entry {
+        private final String minioId;
+        private int refs;
+        private boolean stale;
+        private File file;
+        private PDFWrapper pdf;
+        private long size;
+
+        private Entry(String minioId) {
+            this.minioId = minioId;
+        }
+
+        /**
+         * Downloads and validates the PDF unless a previous holder already has. Returns false if
+         * MinIO could not provide the PDF.
+         */
+        private synchronized boolean spool() throws IOException, ErrorResponseException, BadRequestException {
+            if (pdf != null) {
+                synchronized (entries) {
+                    hits++;
+                }
+                return true;
+            }
+            synchronized (entries) {
+                misses++;
+            }
+
+            GetObjectResponse resp = minio.downloadPdf(minioId);
+            if (resp == null)
+                return false;
+
+            // stream straight to disk, the rename means python never sees a partial file
+            Path tmp = Files.createTempFile(dir, minioId, ".part");
+            try (InputStream in = resp) {
+                Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+                Path target = dir.resolve(minioId + ".pdf");
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                synchronized (entries) {
+                    file = target.toFile();
+
+                    size = file.length();
+                    cachedBytes += size;
+                }
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+
+            // validated once here rather than by every request
+            try {
+                pdf = new PDFWrapper(file);
+            } catch (IOException | RuntimeException e) {
+                synchronized (entries) {
+                    deleteFile(this);
+                }
+                throw e;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A hold on a spooled PDF. The file stays in the workspace at least until every lease on it is
+     * closed.
+     */
+    public class Lease implements AutoCloseable {
+        private final Entry entry;
+        private boolean closed;
+
+        private Lease(Entry entry) {
+            this.entry = entry;
+        }
+
+        public File getFile() {
+            return entry.file;
+        }
+
+        /**
+         * Returns the PDF wrapped for utilities. The wrapper is shared, so it must not be closed.
+         */
+        public PDFWrapper getPdf() {
+            return entry.pdf;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (closed)
+                return;
+            closed = true;
+            release(entry);
+        }
+    }
+}
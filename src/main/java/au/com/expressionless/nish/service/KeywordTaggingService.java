@@ -0,0 +1,204 @@
+package au.com.expressionless.nish.service;
+
+import static au.com.expressionless.nish.constants.Config.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeoutException;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+import javax.ws.rs.InternalServerErrorException;
+import javax.ws.rs.ServiceUnavailableException;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+import org.jboss.logging.Logger;
+
+import au.com.expressionless.nish.models.entity.edition.Edition;
+import au.com.expressionless.nish.models.entity.edition.story.Story;
+import au.com.expressionless.nish.utils.ANSIColour;
+import au.com.expressionless.nish.utils.GeneralUtils;
+import au.com.expressionless.nish.utils.python.PyScriptResult;
+import au.com.expressionless.nish.utils.python.PyScriptRunner;
+import au.com.expressionless.nish.utils.python.PyScheduler;
+import au.com.expressionless.nish.utils.python.PyWorkerPool;
+import au.com.expressionless.nish.utils.text.KeywordExtractor;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+
+/**
+ * Tags editions with keywords. By default this uses the resident text_cleaner workers, which load
+ * the NLTK models once at boot, falling back to running text_cleaner.py directly when the pool is
+ * disabled or could not be started. Setting KEYWORD_ENGINE to java runs {@link KeywordExtractor}
+ * in the JVM instead, which only approximates NLTK's proper noun tagging.
+ */
+@ApplicationScoped
+public class KeywordTaggingService {
+
+    static final Logger log = Logger.getLogger(KeywordTaggingService.class);
+
+    private static final String SCRIPT = "txt_tag/text_cleaner.py";
+    private static final String WORKER_SCRIPT = "txt_tag/text_cleaner_worker.py";
+    private static final long TIMEOUT = 10;
+
+    private boolean python;
+    private PyWorkerPool pool;
+
+    void onStart(@Observes StartupEvent e) {
+        String engine = GeneralUtils.getSystemEnv(ENV_KEYWORD_ENGINE, "python");
+        python = !"java".equalsIgnoreCase(engine);
+        log.info("Using " + (python ? "python" : "java") + " keyword engine");
+        if (!python)
+            return;
+
+        int size = Integer.parseInt(GeneralUtils.getSystemEnv(ENV_TXT_TAG_WORKERS, "1"));
+        long healthCheck = Long.parseLong(GeneralUtils.getSystemEnv(ENV_PY_WORKER_HEALTH_CHECK, "30"));
+        if (size <= 0) {
+            log.info("text_cleaner worker pool disabled");
+            return;
+        }
+
+        try {
+            pool = new PyWorkerPool(WORKER_SCRIPT, size, PyScheduler.Lane.BACKGROUND).start(healthCheck);
+        } catch (IOException ex) {
+            log.error(ANSIColour.doRed("Could not start text_cleaner workers: " + ex.getMessage()));
+            if (pool != null)
+                pool.close();
+            pool = null;
+        }
+    }
+
+    void onStop(@Observes ShutdownEvent e) {
+        if (pool != null)
+            pool.close();
+    }
+
+    /**
+     * Tags an edition, returning (word, ratio) pairs in the order text_cleaner found them.
+     * @param edition Edition to tag
+     * @param stories Stories to tag the edition with, may be empty
+     * @throws InternalServerErrorException if tagging timed out or the script failed
+     * @throws ServiceUnavailableException if the server is too busy to tag the edition
+     */
+    public List<Pair<String, Double>> tag(Edition edition, List<Story> stories)
+        throws IOException, InterruptedException, InternalServerErrorException {
+
+            if (!python)
+                return tagWithExtractor(edition, stories);
+
+            JsonObject input = toJson(edition, stories);
+            if (pool == null)
+                return tagWithScript(input);
+
+            JsonObject result;
+            try {
+                result = pool.submit(
+                    Json.createObjectBuilder()
+                    .add("type",    "tag")
+                    .add("edition", input)
+                    .build(),
+                    TIMEOUT
+                );
+            } catch (TimeoutException e) {
+                throw new InternalServerErrorException("Text tagging timed out");
+            } catch (IOException e) {
+                log.error(e.getMessage());
+                throw new InternalServerErrorException("Error occured during text tagging");
+            }
+
+            // rows are sent as [word, ratio]
+            List<Pair<String, Double>> rows = new ArrayList<>();
+            for (JsonValue value : result.getJsonArray("rows")) {
+                JsonArray row = value.asJsonArray();
+                rows.add(new ImmutablePair<>(
+                    row.getString(0),
+                    row.getJsonNumber(1).doubleValue()
+                ));
+            }
+            return rows;
+    }
+
+    /**
+     * Tags an edition in the JVM. Extractors keep a scratch buffer, so each call gets its own.
+     */
+    private List<Pair<String, Double>> tagWithExtractor(Edition edition, List<Story> stories) {
+        List<String> titles = new ArrayList<>(stories.size() + 1);
+        List<String> authors = new ArrayList<>(stories.size());
+        List<String> texts = new ArrayList<>(stories.size());
+        titles.add(edition.getFileName());
+        for (Story story : stories) {
+            titles.add(Objects.toString(story.getTitle(), ""));
+            authors.add(Objects.toString(story.getAuthor(), ""));
+            texts.add(story.getText());
+        }
+        return new KeywordExtractor().extract(titles, authors, texts);
+    }
+
+    /**
+     * Builds the json object text_cleaner expects.
+     */
+    private JsonObject toJson(Edition edition, List<Story> stories) {
+        JsonArrayBuilder storyArrayBuilder = Json.createArrayBuilder();
+        for (Story story : stories) {
+            storyArrayBuilder.add(
+                Json.createObjectBuilder()
+                .add("title",   story.getTitle())
+                .add("author",  story.getAuthor())
+                .add("text",    story.getText())
+                .build()
+            );
+        }
+
+        return Json.createObjectBuilder()
+        .add("id",      edition.id)
+        .add("title",   edition.getFileName())
+        .add("author",  edition.getAuthor())
+        .add("stories", storyArrayBuilder.build())
+        .build();
+    }
+
+    /**
+     * Tags an edition by spawning text_cleaner.py, which prints word,edition_id,ratio rows.
+     */
+    private List<Pair<String, Double>> tagWithScript(JsonObject edition)
+        throws IOException, InterruptedException, InternalServerErrorException {
+
+            PyScriptResult result = new PyScriptRunner(SCRIPT)
+            .setTimeout(TIMEOUT)
+            .setStdinData(GeneralUtils.JsonSerialise(edition))
+            .run();
+
+            // script failed to run
+            if (result == null)
+                throw new InternalServerErrorException("Text tagging script timed out");
+
+            // script ran but encountered an error
+            if (result.getExitValue() != 0) {
+                log.error(new String(result.getStderrData()));
+                throw new InternalServerErrorException("Error occured during text tagging");
+            }
+            log.info(result.toString());
+
+            // Loop over CSV rows here
+            List<Pair<String, Double>> rows = new ArrayList<>();
+            BufferedReader reader = new BufferedReader(
+                new InputStreamReader(result.getStdout())
+            );
+            while(reader.ready()) {
+                String line = reader.readLine();
+                String[] rowElems = line.split(",");
+                rows.add(new ImmutablePair<>(rowElems[0], Double.valueOf(rowElems[2])));
+            }
+            return rows;
+    }
+}
@@ -0,0 +1,188 @@
+package au.com.expressionless.nish.service;
+
+import static au.com.expressionless.nish.constants.Config.*;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.JsonReader;
+
+import org.jboss.logging.Logger;
+
+import au.com.expressionless.nish.utils.ANSIColour;
+import au.com.expressionless.nish.utils.GeneralUtils;
+import au.com.expressionless.nish.utils.pdf.LayoutIndex;
+import au.com.expressionless.nish.utils.python.PyScheduler;
+import au.com.expressionless.nish.utils.python.PyScriptResult;
+import au.com.expressionless.nish.utils.python.PyScriptRunner;
+import io.minio.GetObjectResponse;
+import io.minio.errors.ErrorResponseException;
+
+/**
+ * Builds and serves the {@link LayoutIndex} of each edition. The index is extracted once when an
+ * edition is uploaded, stored gzipped in MinIO's layout bucket and kept in a small LRU of
+ * recently used editions, so selections don't need a pdf_ext process or the PDF itself.
+ * Editions uploaded before layout indexes existed have none, and callers fall back to text
+ * extraction.
+ */
+@ApplicationScoped
+public class LayoutService {
+
+    static final Logger log = Logger.getLogger(LayoutService.class);
+
+    private static final String SCRIPT = "pdf_ext/pdf_ext.py";
+
+    // every page is laid out, so allow far longer than a selection
+    private static final long TIMEOUT = 120;
+
+    private static final String NO_SUCH_KEY = "NoSuchKey";
+
+    @Inject
+    MinIO minio;
+
+    private final int cacheSize = Integer.parseInt(GeneralUtils.getSystemEnv(ENV_LAYOUT_CACHE_SIZE, "32"));
+
+    // guarded by itself, along with missing
+    private final Map<String, LayoutIndex> cache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, LayoutIndex> eldest) {
+            return size() > cacheSize;
+        }
+    };
+
+    // editions known to have no index, so MinIO isn't asked on every selection
+    private final Set<String> missing = new HashSet<>();
+
+    /**
+     * Extracts the layout of every page of an edition, then stores and caches it.
+     * @param minioId MinIO id of the edition's PDF
+     * @param pdfFile The edition's PDF
+     * @throws IOException if the layout could not be extracted or stored
+     */
+    public LayoutIndex index(String minioId, File pdfFile) throws IOException {
+        long start = System.nanoTime();
+        byte[] gzipped = extract(pdfFile);
+        LayoutIndex layout = read(new ByteArrayInputStream(gzipped));
+        if (minio.uploadLayout(gzipped, minioId) == null)
+            throw new IOException("Could not upload layout of " + minioId);
+
+        synchronized (cache) {
+            cache.put(minioId, layout);
+            missing.remove(minioId);
+        }
+        log.info(
+            "Indexed layout of " + layout.getPageCount() + " pages for " + minioId + " in "
+            + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms"
+        );
+        return layout;
+    }
+
+    /**
+     * Returns the layout index of an edition, or null if it has none or it could not be loaded.
+     * @param minioId MinIO id of the edition's PDF
+     */
+    public LayoutIndex find(String minioId) {
+        synchronized (cache) {
+            LayoutIndex layout = cache.get(minioId);
+            if (layout != null || missing.contains(minioId))
+                return layout;
+        }
+
+        LayoutIndex layout;
+        try {
+            GetObjectResponse resp = minio.downloadLayout(minioId);
+            if (resp == null)
+                return null;
+            layout = read(resp);
+        } catch (ErrorResponseException e) {
+            if (e.errorResponse() != null && NO_SUCH_KEY.equals(e.errorResponse().code())) {
+                synchronized (cache) {
+                    missing.add(minioId);
+                }
+            } else {
+                log.error(ANSIColour.doRed("Could not fetch layout of " + minioId + ": " + e.getMessage()));
+            }
+            return null;
+        } catch (IOException e) {
+            log.error(ANSIColour.doRed("Could not load layout of " + minioId + ": " + e.getMessage()));
+            return null;
+        }
+
+        synchronized (cache) {
+            cache.put(minioId, layout);
+        }
+        return layout;
+    }
+
+    /**
+     * Deletes the layout index of an edition, removing it from MinIO on the MinIO executor.
+     * @param minioId MinIO id of the edition's PDF
+     */
+    public CompletableFuture<Void> delete(String minioId) {
+        synchronized (cache) {
+            cache.remove(minioId);
+            missing.remove(minioId);
+        }
+        return minio.deleteLayoutAsync(minioId);
+    }
+
+    /**
+     * Runs pdf_ext over the whole PDF, returning the layout it prints gzipped.
+     */
+    private byte[] extract(File pdfFile) throws IOException {
+        try {
+            PyScriptResult result = new PyScriptRunner(SCRIPT)
+            .setArgs("-f", pdfFile.getAbsolutePath(), "--layout")
+            .setTimeout(TIMEOUT)
+            .setLane(PyScheduler.Lane.BACKGROUND)
+            .stream();
+
+            ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+            try (InputStream in = result.getStdout();
+                OutputStream out = new GZIPOutputStream(gzipped)) {
+                    in.transferTo(out);
+            }
+            int exitValue = result.waitFor();
+
+            // script timed out
+            if (result.hasTimedOut())
+                throw new IOException("Layout extraction timed out");
+
+            // script ran but there was an error in the script
+            if (exitValue != 0)
+                throw new IOException("Layout extraction failed: " + new String(result.getStderrData()));
+            return gzipped.toByteArray();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Layout extraction interrupted");
+        }
+    }
+
+    /**
+     * Reads a gzipped layout index, closing the stream.
+     */
+    private static LayoutIndex read(InputStream gzipped) throws IOException {
+        try (JsonReader reader = Json.createReader(new GZIPInputStream(new BufferedInputStream(gzipped)))) {
+            return LayoutIndex.fromJson(reader.readObject());
+        } catch (JsonException | ClassCastException | NullPointerException e) {
+            throw new IOException("Malformed layout: " + e.getMessage());
+        }
+    }
+}
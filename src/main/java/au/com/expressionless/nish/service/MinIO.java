@@ -1,6 +1,9 @@
 package au.com.expressionless.nish.service;
 
 import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.json.Json;
+import javax.json.JsonObject;
 
 import org.jboss.logging.Logger;
 
@@ -9,43 +12,128 @@ import au.com.expressionless.nish.utils.GeneralUtils;
 import io.minio.BucketExistsArgs;
 import io.minio.GetObjectArgs;
 import io.minio.GetObjectResponse;
+import io.minio.GetPresignedObjectUrlArgs;
 import io.minio.ListObjectsArgs;
 import io.minio.MakeBucketArgs;
 import io.minio.MinioClient;
 import io.minio.ObjectWriteResponse;
+import io.minio.PutObjectArgs;
 import io.minio.RemoveObjectArgs;
+import io.minio.RemoveObjectsArgs;
 import io.minio.Result;
-import io.minio.UploadObjectArgs;
+import io.minio.StatObjectArgs;
+import io.minio.StatObjectResponse;
 import io.minio.errors.ErrorResponseException;
 import io.minio.errors.InsufficientDataException;
 import io.minio.errors.InternalException;
 import io.minio.errors.InvalidResponseException;
 import io.minio.errors.ServerException;
 import io.minio.errors.XmlParserException;
+import io.minio.http.Method;
+import io.minio.messages.DeleteError;
+import io.minio.messages.DeleteObject;
 import io.minio.messages.Item;
+import io.quarkus.runtime.ShutdownEvent;
+import okhttp3.Headers;
 
 import static au.com.expressionless.nish.constants.Config.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Paths;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 @ApplicationScoped
 public class MinIO {
     public static final String PDF_BUCKET = "pdf";
     public static final String THUMBNAIL_BUCKET = "thumbnail";
+    public static final String PREVIEW_BUCKET = "preview";
+    public static final String LAYOUT_BUCKET = "layout";
     public static final String QUILL_DELTA_BUCKET = "quill-delta";
     public static final String HTML_BUCKET = "html";
+
+    // part size of streamed uploads, the smallest MinIO allows
+    private static final long PART_SIZE = 5L * 1024 * 1024;
+
+    // most keys a single listing request returns
+    private static final int MAX_LIST_KEYS = 1000;
+
+    // most keys a single multi-object delete accepts
+    public static final int MAX_DELETE_KEYS = 1000;
+
+    // objects read far more than they're written, kept on local disk
+    private static final Set<String> CACHED_BUCKETS = Set.of(PDF_BUCKET, THUMBNAIL_BUCKET, QUILL_DELTA_BUCKET, HTML_BUCKET);
+
+    // largest object a download shared by concurrent callers is buffered in memory for
+    private static final long MAX_SHARED_BYTES = 8L * 1024 * 1024;
+
+    // presigned urls are reused until this fraction of their lifetime remains
+    private static final int URL_REUSE_DIVISOR = 5;
+
     Logger log  = Logger.getLogger(MinIO.class);
 
     MinioClient minioClient;
 
+    // signs urls for the endpoint clients reach MinIO on, which may differ from ours
+    MinioClient publicClient;
+
+    // runs independent object operations in parallel, see the *Async methods
+    private final ExecutorService executor;
+
+    private final ObjectCache cache;
+
+    // downloads in progress by bucket/object, guarded by itself
+    private final Map<String, Flight> inFlight = new HashMap<>();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    // how long a cached copy is served before MinIO is asked whether it's current
+    private final long cacheTtl = TimeUnit.SECONDS.toMillis(Long.parseLong(GeneralUtils.getSystemEnv(ENV_MINIO_CACHE_TTL, "30")));
+
+    private final int urlExpiry = Integer.parseInt(GeneralUtils.getSystemEnv(ENV_MINIO_URL_EXPIRY, "300"));
+    private final int urlCacheSize = Integer.parseInt(GeneralUtils.getSystemEnv(ENV_MINIO_URL_CACHE_SIZE, "1024"));
+
+    // presigned urls by bucket/object, guarded by itself
+    private final Map<String, PresignedUrl> urls = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PresignedUrl> eldest) {
+            return size() > urlCacheSize;
+        }
+    };
+
+    private static class PresignedUrl {
+        private final String url;
+        private final long reuseUntil;
+
+        private PresignedUrl(String url, long reuseUntil) {
+            this.url = url;
+            this.reuseUntil = reuseUntil;
+        }
+    }
+
 
     public MinIO() {
         String minioUrl = GeneralUtils.getSystemEnv(ENV_MINIO_URL, "http://localhost:9000");
@@ -57,11 +145,37 @@ public class MinIO {
                 .endpoint(minioUrl)
                 .credentials(minioUser, minioPass)
                 .build();
+
+        // a region stops presigning asking the server for it, which the public url may not reach
+        publicClient = MinioClient.builder()
+                .endpoint(GeneralUtils.getSystemEnv(ENV_MINIO_PUBLIC_URL, minioUrl))
+                .credentials(minioUser, minioPass)
+                .region(GeneralUtils.getSystemEnv(ENV_MINIO_REGION, "us-east-1"))
+                .build();
         makeBucket(PDF_BUCKET);
         makeBucket(THUMBNAIL_BUCKET);
+        makeBucket(PREVIEW_BUCKET);
+        makeBucket(LAYOUT_BUCKET);
         makeBucket(QUILL_DELTA_BUCKET);
         makeBucket(HTML_BUCKET);
         log.info(ANSIColour.doPurple("Created connection to minio client at: " + minioUrl + " successful!"));
+
+        int concurrency = Integer.parseInt(GeneralUtils.getSystemEnv(ENV_MINIO_CONCURRENCY, "16"));
+        executor = Executors.newFixedThreadPool(Math.max(1, concurrency), r -> {
+            Thread t = new Thread(r, "minio");
+            t.setDaemon(true);
+            return t;
+        });
+
+        cache = new ObjectCache(
+            Paths.get(GeneralUtils.getSystemEnv(ENV_MINIO_CACHE_DIR, new File(System.getProperty("java.io.tmpdir"), "nish-objects").getAbsolutePath())),
+            Long.parseLong(GeneralUtils.getSystemEnv(ENV_MINIO_CACHE_MB, "512")) * 1024 * 1024,
+            CACHED_BUCKETS
+        );
+    }
+
+    void onStop(@Observes ShutdownEvent e) {
+        executor.shutdown();
     }
 
     public boolean bucketExists(String bucketName) {
@@ -76,34 +190,50 @@ public class MinIO {
                 }
     }
 
-    public Map<String, Object> listObjectsInBucket(String bucketName, long limit) {
-                // Lists objects information.
-        Iterable<Result<Item>> results = minioClient.listObjects(
-            ListObjectsArgs.builder().bucket(bucketName).build());
-        List<Item> res = new ArrayList<>();
-        long total = 0;
-        for(Result<Item> result : results) {
-            if(++total > limit && limit > 0) {
-                log.info("Skipping. Limit reached");
-                continue;
-            }
-            try {
-                res.add(result.get());
-            } catch (InvalidKeyException | ErrorResponseException | IllegalArgumentException | InsufficientDataException
-                    | InternalException | InvalidResponseException | NoSuchAlgorithmException | ServerException
-                    | XmlParserException | IOException e) {
-                log.error("Error during fetch of results: " + e.getMessage());
+    /**
+     * Lists a page of the objects in a bucket in key order, handing each to action as it arrives
+     * from MinIO rather than holding the page, and stops as soon as the page is full.
+     * @param prefix Only list objects whose names start with this, or null for all
+     * @param startAfter Only list objects after this name, or null to start at the beginning
+     * @param limit Most objects to list
+     * @return Name of the last object listed if more may follow, to list the next page after,
+     * otherwise null
+     * @throws IOException if MinIO failed part way, once action has seen the objects before it
+     */
+    public String listObjects(String bucket, String prefix, String startAfter, int limit, Consumer<Item> action) throws IOException {
+        ListObjectsArgs.Builder args = ListObjectsArgs.builder()
+            .bucket(bucket)
+            .recursive(true)
+
+            // one more than the page when that fits in one request, so whether there are more is
+            // known without another request
+            .maxKeys(Math.min(limit + 1, MAX_LIST_KEYS));
+        if (prefix != null && !prefix.isEmpty())
+            args.prefix(prefix);
+        if (startAfter != null && !startAfter.isEmpty())
+            args.startAfter(startAfter);
+
+        Iterator<Result<Item>> results = minioClient.listObjects(args.build()).iterator();
+        String last = null;
+        int count = 0;
+        try {
+            while (count < limit && results.hasNext()) {
+                Item item = results.next().get();
+                action.accept(item);
+                last = item.objectName();
+                count++;
             }
+        } catch (InvalidKeyException | ErrorResponseException | IllegalArgumentException | InsufficientDataException
+                | InternalException | InvalidResponseException | NoSuchAlgorithmException | ServerException
+                | XmlParserException | IOException e) {
+            throw new IOException("Could not list " + bucket + ": " + e.getMessage(), e);
         }
-        String line = "Found " + total + " items. Sending " + (limit > 0 ? limit : "all") + " items from bucket: " + bucketName;
-        log.info(ANSIColour.doGreen(line));
-
-        Map<String, Object> resMap = new HashMap<>();
-        resMap.put("total", total);
-        resMap.put("limit", limit);
-        resMap.put("items", res);
 
-        return resMap;
+        // a full page ending on a request boundary would cost a whole request to see whether
+        // there are more, so it's left to the next page, which may then be empty
+        if (count == limit && limit % MAX_LIST_KEYS == 0)
+            return last;
+        return results.hasNext() ? last : null;
     }
 
     public void makeBucket(String bucketName) {
@@ -128,59 +258,103 @@ public class MinIO {
         }
     }
 
-    private ObjectWriteResponse uploadToBucket(
-        String bucketName, 
-        String contentType, 
-        File f, 
+    /**
+     * Uploads a stream. Streams of unknown length, size -1, are sent as a multipart put holding
+     * one part in memory at a time.
+     */
+    private ObjectWriteResponse putToBucket(
+        String bucketName,
+        String contentType,
+        InputStream stream,
+        long size,
         String fileName) {
-            log.info("Path: " + f.getAbsolutePath());
-            UploadObjectArgs args;
+
+            // the bytes aren't kept, so a copy of what this replaces can't be served
+            written(bucketName, fileName);
+            cache.remove(bucketName, fileName);
             try {
-                args = UploadObjectArgs.builder()
+                return minioClient.putObject(PutObjectArgs.builder()
                     .bucket(bucketName)
                     .object(fileName)
-                    .filename(f.getAbsolutePath())
+                    .stream(stream, size, size < 0 ? PART_SIZE : -1)
                     .contentType(contentType)
-                    .build();
-            } catch (IllegalArgumentException | IOException e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
+                    .build());
+            } catch (InvalidKeyException | ErrorResponseException | InsufficientDataException | 
+                    InternalException | InvalidResponseException | NoSuchAlgorithmException | 
+                    ServerException | XmlParserException | IllegalArgumentException | IOException e) {
+                log.error("Error occurred during upload of: " + fileName + ": " + e.getMessage());
                 return null;
             }
+    }
 
+    private ObjectWriteResponse putToBucket(String bucketName, String contentType, byte[] data, String fileName) {
+        ObjectWriteResponse resp = putToBucket(bucketName, contentType, new ByteArrayInputStream(data), data.length, fileName);
+        if (resp != null && isCached(bucketName, fileName, data.length)) {
             try {
-                return minioClient.uploadObject(args);
-            } catch (InvalidKeyException | ErrorResponseException | InsufficientDataException | 
-                    InternalException | InvalidResponseException | NoSuchAlgorithmException | 
-                    ServerException | XmlParserException| IOException e) {
-                log.error("Error occurred during upload of: " + fileName);
-                log.error("Upload details: ");
-                log.error("File: " + f.getAbsolutePath());
-                e.printStackTrace();
-                return null;
+                cache.put(bucketName, fileName, new ByteArrayInputStream(data), resp.etag(), ZonedDateTime.now());
+            } catch (IOException e) {
+                log.warn("Could not cache " + bucketName + "/" + fileName + ": " + e.getMessage());
             }
+        }
+        return resp;
+    }
+
+    public ObjectWriteResponse uploadPdf(InputStream stream, String fileName) {
+        return putToBucket(PDF_BUCKET, "application/pdf", stream, -1, fileName);
     }
 
-    public ObjectWriteResponse uploadPdf(File f, String fileName) {
-        return uploadToBucket(PDF_BUCKET, "application/pdf", f, fileName);
+    public ObjectWriteResponse uploadThumbnail(byte[] jpeg, String fileName) {
+        return putToBucket(THUMBNAIL_BUCKET, "application/jpeg", jpeg, fileName);
     }
 
-    public ObjectWriteResponse uploadThumbnail(File f, String fileName) {
-        return uploadToBucket(THUMBNAIL_BUCKET, "application/jpeg", f, fileName);
+    public ObjectWriteResponse uploadPreview(byte[] jpeg, String fileName) {
+        return putToBucket(PREVIEW_BUCKET, "image/jpeg", jpeg, fileName);
     }
 
-    public ObjectWriteResponse uploadDelta(File f, String fileName) {
-        return uploadToBucket(QUILL_DELTA_BUCKET, "application/json", f, fileName);
+    public ObjectWriteResponse uploadLayout(byte[] gzipped, String fileName) {
+        return putToBucket(LAYOUT_BUCKET, "application/gzip", gzipped, fileName);
     }
 
-    public ObjectWriteResponse uploadHtml(File f, String fileName) {
-        return uploadToBucket(HTML_BUCKET, "application/json", f, fileName);
+    public ObjectWriteResponse uploadDelta(byte[] json, String fileName) {
+        return putToBucket(QUILL_DELTA_BUCKET, "application/json", json, fileName);
+    }
+
+    public ObjectWriteResponse uploadHtml(byte[] json, String fileName) {
+        return putToBucket(HTML_BUCKET, "application/json", json, fileName);
+    }
+
+    public CompletableFuture<ObjectWriteResponse> uploadDeltaAsync(byte[] json, String fileName) {
+        return putAsync(QUILL_DELTA_BUCKET, "application/json", json, fileName);
+    }
+
+    public CompletableFuture<ObjectWriteResponse> uploadHtmlAsync(byte[] json, String fileName) {
+        return putAsync(HTML_BUCKET, "application/json", json, fileName);
+    }
+
+    /**
+     * Uploads on the MinIO executor, failing the future if the upload did not succeed.
+     */
+    private CompletableFuture<ObjectWriteResponse> putAsync(String bucketName, String contentType, byte[] data, String fileName) {
+        return CompletableFuture.supplyAsync(() -> {
+            ObjectWriteResponse resp = putToBucket(bucketName, contentType, data, fileName);
+            if (resp == null)
+                throw new CompletionException(new IOException("Could not upload " + bucketName + "/" + fileName));
+            return resp;
+        }, executor);
     }
 
     public GetObjectResponse downloadThumbnail(String name) throws ErrorResponseException {
         return downloadObject(THUMBNAIL_BUCKET, name);
     }
 
+    public GetObjectResponse downloadPreview(String name) throws ErrorResponseException {
+        return downloadObject(PREVIEW_BUCKET, name);
+    }
+
+    public GetObjectResponse downloadLayout(String name) throws ErrorResponseException {
+        return downloadObject(LAYOUT_BUCKET, name);
+    }
+
     public GetObjectResponse downloadPdf(String name) throws ErrorResponseException {
         return downloadObject(PDF_BUCKET, name);
     }
@@ -193,7 +367,254 @@ public class MinIO {
         return downloadObject(HTML_BUCKET, name);
     }
 
+    /**
+     * Downloads an object, from the local object cache where its bucket is cached. A copy is
+     * served as is for MINIO_CACHE_TTL seconds, after which MinIO is asked whether its ETag is
+     * still current. Objects that aren't held are downloaded into the cache first. Concurrent
+     * downloads of the same object share one fetch from MinIO, each reading its own stream over
+     * the cached copy, or an in-memory buffer for objects the cache won't hold.
+     */
     public GetObjectResponse downloadObject(String bucket, String name) throws ErrorResponseException {
+        CachedObject cached = findCached(bucket, name);
+        if (cached != null) {
+            GetObjectResponse resp = open(cached);
+            if (resp != null)
+                return resp;
+        }
+
+        // concurrent downloads of the same object share one fetch
+        String key = bucket + "/" + name;
+        Flight flight;
+        boolean leader = false;
+        synchronized (inFlight) {
+            flight = inFlight.get(key);
+            if (flight == null) {
+                flight = new Flight();
+                inFlight.put(key, flight);
+                leader = true;
+            }
+        }
+
+        Fetched fetched;
+        if (leader) {
+            try {
+                fetched = fetch(bucket, name, flight);
+                flight.result.complete(fetched);
+            } catch (ErrorResponseException | RuntimeException | Error e) {
+
+                // followers must never be left waiting
+                flight.result.completeExceptionally(e);
+                throw e;
+            } finally {
+
+                // a write may have replaced it with a fetch of the new content already
+                synchronized (inFlight) {
+                    inFlight.remove(key, flight);
+                }
+            }
+        } else {
+            coalesced.incrementAndGet();
+            try {
+                fetched = flight.result.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof ErrorResponseException)
+                    throw (ErrorResponseException) e.getCause();
+                throw e;
+            }
+        }
+        return fetched == null ? null : fetched.open(leader);
+    }
+
+    /**
+     * A download in progress, shared by every caller of the object meanwhile.
+     */
+    private static class Flight {
+        private final CompletableFuture<Fetched> result = new CompletableFuture<>();
+
+        // write generation of the object since the download started, bumped by puts and deletes
+        private volatile long generation;
+    }
+
+    /**
+     * Bumps the write generation of an object being downloaded, so that download doesn't cache
+     * what may be the content the write replaced, and lets later downloads start their own.
+     * Called before every put or delete of an object.
+     */
+    private void written(String bucket, String name) {
+        synchronized (inFlight) {
+            Flight flight = inFlight.remove(bucket + "/" + name);
+            if (flight != null)
+                flight.generation++;
+        }
+    }
+
+    /**
+     * The result of one download shared by every concurrent caller.
+     */
+    private class Fetched {
+        private final String bucket;
+        private final String name;
+
+        // spooled into the object cache
+        private final CachedObject cached;
+
+        // buffered, as the object cache won't hold it
+        private final Headers headers;
+        private final byte[] data;
+
+        // too big to share, so only read by the caller that fetched it
+        private final GetObjectResponse unshared;
+
+        private Fetched(String bucket, String name, CachedObject cached, Headers headers, byte[] data, GetObjectResponse unshared) {
+            this.bucket = bucket;
+            this.name = name;
+            this.cached = cached;
+            this.headers = headers;
+            this.data = data;
+            this.unshared = unshared;
+        }
+
+        /**
+         * Returns a stream of its own over the result for one caller.
+         */
+        private GetObjectResponse open(boolean leader) throws ErrorResponseException {
+            if (cached != null) {
+                GetObjectResponse resp = MinIO.this.open(cached);
+                return resp != null ? resp : getObject(bucket, name);
+            }
+            if (data != null)
+                return new GetObjectResponse(headers, bucket, null, name, new ByteArrayInputStream(data));
+            return leader ? unshared : getObject(bucket, name);
+        }
+    }
+
+    /**
+     * Downloads an object for every caller waiting on it, spooling it into the object cache or
+     * buffering it if it can be shared. Returns null if it could not be downloaded. Nothing is
+     * cached if the object is written meanwhile, the caller reading it again instead.
+     */
+    private Fetched fetch(String bucket, String name, Flight flight) throws ErrorResponseException {
+        GetObjectResponse resp = getObject(bucket, name);
+        if (resp == null)
+            return null;
+
+        String header = resp.headers().get("Content-Length");
+        long length = header == null ? -1 : Long.parseLong(header);
+        if (length >= 0 && isCached(bucket, name, length)) {
+            cache.miss();
+            try (resp) {
+                CachedObject cached = cache.put(bucket, name, resp, etag(resp), lastModified(resp),
+                    () -> flight.generation == 0);
+                if (cached != null)
+                    return new Fetched(bucket, name, cached, null, null, null);
+            } catch (IOException e) {
+                log.warn("Could not cache " + bucket + "/" + name + ": " + e.getMessage());
+            }
+            return new Fetched(bucket, name, null, null, null, getObject(bucket, name));
+        }
+
+        if (length >= 0 && length <= MAX_SHARED_BYTES) {
+            try (resp) {
+                return new Fetched(bucket, name, null, resp.headers(), resp.readAllBytes(), null);
+            } catch (IOException e) {
+                log.warn("Could not buffer " + bucket + "/" + name + ": " + e.getMessage());
+                return new Fetched(bucket, name, null, null, null, getObject(bucket, name));
+            }
+        }
+        return new Fetched(bucket, name, null, null, null, resp);
+    }
+
+    /**
+     * Returns the current local copy of an object, or null if none is held. Copies not confirmed
+     * within MINIO_CACHE_TTL seconds are checked against MinIO's ETag first. Never downloads.
+     */
+    public CachedObject findCached(String bucket, String name) throws ErrorResponseException {
+        if (!isCached(bucket, name, 0))
+            return null;
+        CachedObject cached = cache.get(bucket, name);
+        if (cached == null)
+            return null;
+
+        if (!cached.isValidatedWithin(cacheTtl)) {
+            StatObjectResponse stat;
+            try {
+                stat = statObject(bucket, name);
+            } catch (ErrorResponseException e) {
+                cache.removeStale(cached);
+                throw e;
+            }
+            if (stat == null)
+                return null;
+            if (!cached.getEtag().equals(stat.etag())) {
+                cache.removeStale(cached);
+                return null;
+            }
+            cached.validated();
+        }
+        cache.hit(cached);
+        return cached;
+    }
+
+    /**
+     * Copies a file just uploaded as an object into the object cache, if its bucket is cached.
+     * @param etag ETag MinIO returned for the upload
+     */
+    public void writeThrough(String bucket, String name, File file, String etag) {
+        if (!isCached(bucket, name, file.length()))
+            return;
+        written(bucket, name);
+        try {
+            cache.put(bucket, name, file, etag, ZonedDateTime.now());
+        } catch (IOException e) {
+            log.warn("Could not cache " + bucket + "/" + name + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns hit and miss counts, bytes saved and the size of the local object cache, along with
+     * the number of downloads that waited on another's fetch.
+     */
+    public JsonObject getCacheMetrics() {
+        return Json.createObjectBuilder(cache.getMetrics())
+        .add("coalesced", coalesced.get())
+        .build();
+    }
+
+    private boolean isCached(String bucket, String name, long size) {
+        return CACHED_BUCKETS.contains(bucket) && cache.accepts(name, size);
+    }
+
+    /**
+     * Opens a cached copy as a download, or returns null if it was evicted since it was found.
+     */
+    private GetObjectResponse open(CachedObject cached) {
+        try {
+            Headers headers = new Headers.Builder()
+                .add("ETag", "\"" + cached.getEtag() + "\"")
+                .add("Content-Length", String.valueOf(cached.getSize()))
+                .add("Last-Modified", DateTimeFormatter.RFC_1123_DATE_TIME.format(cached.getLastModified()))
+                .build();
+            return new GetObjectResponse(headers, cached.getBucket(), null, cached.getName(), new FileInputStream(cached.getFile()));
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    private static String etag(GetObjectResponse resp) {
+        String header = resp.headers().get("ETag");
+        return header == null ? "" : header.replace("\"", "");
+    }
+
+    private static ZonedDateTime lastModified(GetObjectResponse resp) {
+        String header = resp.headers().get("Last-Modified");
+        try {
+            return header == null ? ZonedDateTime.now() : ZonedDateTime.parse(header, DateTimeFormatter.RFC_1123_DATE_TIME);
+        } catch (DateTimeParseException e) {
+            return ZonedDateTime.now();
+        }
+    }
+
+    private GetObjectResponse getObject(String bucket, String name) throws ErrorResponseException {
         try {
             return minioClient.getObject(GetObjectArgs.builder()
             .bucket(bucket)
@@ -208,10 +629,109 @@ public class MinIO {
         return null;
     }
 
+    /**
+     * Downloads part of an object, failing with a PreconditionFailed ErrorResponseException if the
+     * object no longer has the given etag, so ranges of different versions are never mixed.
+     * @param offset First byte to download
+     * @param length Number of bytes to download
+     * @param etag ETag the object must still have, or null
+     */
+    public GetObjectResponse downloadObject(String bucket, String name, long offset, long length, String etag) throws ErrorResponseException {
+        try {
+            GetObjectArgs.Builder args = GetObjectArgs.builder()
+            .bucket(bucket)
+            .object(name)
+            .offset(offset)
+            .length(length);
+            if (etag != null)
+                args.matchETag(etag);
+            return minioClient.getObject(args.build());
+        } catch (InvalidKeyException | InsufficientDataException | InternalException
+                | InvalidResponseException | NoSuchAlgorithmException | ServerException | XmlParserException
+                | IllegalArgumentException | IOException e) {
+            log.error("Could not download " + bucket + "/" + name + ": " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Returns a short lived url clients can download an object from directly, or null if it could
+     * not be signed. Urls are cached and handed out again until most of their lifetime has passed.
+     * @param bucket Bucket holding the object
+     * @param name Name of the object
+     * @param disposition Content-Disposition MinIO should respond with, or null
+     */
+    public String presignedUrl(String bucket, String name, String disposition) {
+        String key = bucket + "/" + name;
+        long now = System.currentTimeMillis();
+        synchronized (urls) {
+            PresignedUrl cached = urls.get(key);
+            if (cached != null && now < cached.reuseUntil)
+                return cached.url;
+        }
+
+        Map<String, String> params = new HashMap<>();
+        if (disposition != null)
+            params.put("response-content-disposition", disposition);
+        String url;
+        try {
+            url = publicClient.getPresignedObjectUrl(GetPresignedObjectUrlArgs.builder()
+            .method(Method.GET)
+            .bucket(bucket)
+            .object(name)
+            .expiry(urlExpiry, TimeUnit.SECONDS)
+            .extraQueryParams(params)
+            .build());
+        } catch (InvalidKeyException | ErrorResponseException | InsufficientDataException | InternalException
+                | InvalidResponseException | NoSuchAlgorithmException | ServerException | XmlParserException
+                | IllegalArgumentException | IOException e) {
+            log.error("Could not presign " + key + ": " + e.getMessage());
+            return null;
+        }
+
+        if (urlCacheSize > 0) {
+            long lifetime = TimeUnit.SECONDS.toMillis(urlExpiry);
+            synchronized (urls) {
+                urls.put(key, new PresignedUrl(url, now + lifetime - lifetime / URL_REUSE_DIVISOR));
+            }
+        }
+        return url;
+    }
+
+    /**
+     * Returns the size, ETag and modification time of an object, or null if it could not be
+     * fetched.
+     */
+    public StatObjectResponse statObject(String bucket, String name) throws ErrorResponseException {
+        try {
+            return minioClient.statObject(StatObjectArgs.builder()
+            .bucket(bucket)
+            .object(name)
+            .build());
+        } catch (InvalidKeyException | InsufficientDataException | InternalException
+                | InvalidResponseException | NoSuchAlgorithmException | ServerException | XmlParserException
+                | IllegalArgumentException | IOException e) {
+            log.error("Could not stat " + bucket + "/" + name + ": " + e.getMessage());
+        }
+        return null;
+    }
+
     public void deletePdf(String name) {
         deleteObject(PDF_BUCKET, name);
     }
 
+    public CompletableFuture<Void> deleteDeltaAsync(String name) {
+        return deleteAsync(QUILL_DELTA_BUCKET, name);
+    }
+
+    public CompletableFuture<Void> deleteHtmlAsync(String name) {
+        return deleteAsync(HTML_BUCKET, name);
+    }
+
+    public CompletableFuture<Void> deleteLayoutAsync(String name) {
+        return deleteAsync(LAYOUT_BUCKET, name);
+    }
+
     public void deleteDelta(String name) {
         deleteObject(QUILL_DELTA_BUCKET, name);
     }
@@ -224,7 +744,145 @@ public class MinIO {
         deleteObject(HTML_BUCKET, name);
     }
 
+    /**
+     * Deletes every preview whose name starts with prefix.
+     */
+    public CompletableFuture<Void> deletePreviewsAsync(String prefix) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                removePreviews(prefix);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    private void removePreviews(String prefix) throws IOException {
+        Iterable<Result<Item>> results = minioClient.listObjects(
+            ListObjectsArgs.builder().bucket(PREVIEW_BUCKET).prefix(prefix).recursive(true).build());
+        List<String> names = new ArrayList<>();
+        for (Result<Item> result : results) {
+            try {
+                names.add(result.get().objectName());
+            } catch (InvalidKeyException | ErrorResponseException | IllegalArgumentException | InsufficientDataException
+                    | InternalException | InvalidResponseException | NoSuchAlgorithmException | ServerException
+                    | XmlParserException | IOException e) {
+                throw new IOException("Error during fetch of previews: " + e.getMessage(), e);
+            }
+        }
+
+        // already on the executor, so chunks are removed one after another
+        for (int from = 0; from < names.size(); from += MAX_DELETE_KEYS)
+            removeObjects(PREVIEW_BUCKET, names.subList(from, Math.min(from + MAX_DELETE_KEYS, names.size())));
+    }
+
+    /**
+     * Deletes objects from a bucket with multi-object deletes of up to {@link #MAX_DELETE_KEYS}
+     * keys each, sent in parallel on the MinIO executor. The future fails with an IOException
+     * holding one suppressed exception per key that could not be deleted.
+     */
+    public CompletableFuture<Void> deleteObjectsAsync(String bucket, Collection<String> names) {
+        List<String> keys = new ArrayList<>(names);
+        List<CompletableFuture<Void>> chunks = new ArrayList<>();
+        for (int from = 0; from < keys.size(); from += MAX_DELETE_KEYS) {
+            List<String> chunk = keys.subList(from, Math.min(from + MAX_DELETE_KEYS, keys.size()));
+            chunks.add(CompletableFuture.runAsync(() -> {
+                try {
+                    removeObjects(bucket, chunk);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, executor));
+        }
+
+        return CompletableFuture.allOf(chunks.toArray(new CompletableFuture[0])).handle((v, e) -> {
+            if (e == null)
+                return null;
+
+            // flatten the chunks' failures into one per key
+            IOException failure = new IOException("Could not delete objects from " + bucket);
+            for (CompletableFuture<Void> chunk : chunks) {
+                try {
+                    chunk.join();
+                } catch (CompletionException | CancellationException ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    if (cause.getSuppressed().length == 0)
+                        failure.addSuppressed(cause);
+                    for (Throwable key : cause.getSuppressed())
+                        failure.addSuppressed(key);
+                }
+            }
+            throw new CompletionException(failure);
+        });
+    }
+
+    /**
+     * Deletes objects from several buckets, one batch per bucket.
+     * @param namesByBucket Object names to delete keyed by bucket
+     */
+    public List<CompletableFuture<Void>> deleteObjectsAsync(Map<String, ? extends Collection<String>> namesByBucket) {
+        List<CompletableFuture<Void>> batches = new ArrayList<>();
+        for (Map.Entry<String, ? extends Collection<String>> entry : namesByBucket.entrySet())
+            batches.add(deleteObjectsAsync(entry.getKey(), entry.getValue()));
+        return batches;
+    }
+
+    /**
+     * Removes up to {@link #MAX_DELETE_KEYS} objects in a single request.
+     * @throws IOException holding one suppressed exception per key that could not be deleted
+     */
+    private void removeObjects(String bucket, List<String> names) throws IOException {
+        List<DeleteObject> objects = new ArrayList<>(names.size());
+        for (String name : names) {
+            written(bucket, name);
+            cache.remove(bucket, name);
+            objects.add(new DeleteObject(name));
+        }
+
+        // results are lazy, only errors are returned and the request is sent while iterating
+        Iterable<Result<DeleteError>> results = minioClient.removeObjects(
+            RemoveObjectsArgs.builder().bucket(bucket).objects(objects).build());
+        List<IOException> failures = new ArrayList<>();
+        for (Result<DeleteError> result : results) {
+            try {
+                DeleteError error = result.get();
+                failures.add(new IOException(bucket + "/" + error.objectName() + ": " + error.code() + " " + error.message()));
+            } catch (InvalidKeyException | ErrorResponseException | IllegalArgumentException | InsufficientDataException
+                    | InternalException | InvalidResponseException | NoSuchAlgorithmException | ServerException
+                    | XmlParserException | IOException e) {
+                failures.add(new IOException("Could not delete from " + bucket + ": " + e.getMessage(), e));
+            }
+        }
+        if (failures.isEmpty())
+            return;
+
+        IOException e = new IOException("Could not delete " + failures.size() + " of " + names.size() + " objects from " + bucket);
+        for (IOException failure : failures)
+            e.addSuppressed(failure);
+        throw e;
+    }
+
     private void deleteObject(String bucket, String name) {
+        try {
+            removeObject(bucket, name);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private CompletableFuture<Void> deleteAsync(String bucket, String name) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                removeObject(bucket, name);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    private void removeObject(String bucket, String name) throws IOException {
+        written(bucket, name);
+        cache.remove(bucket, name);
         try {
             minioClient.removeObject(RemoveObjectArgs.builder()
             .bucket(bucket)
@@ -234,9 +892,32 @@ public class MinIO {
 
         } catch (InvalidKeyException | InsufficientDataException | InternalException
                 | InvalidResponseException | NoSuchAlgorithmException | ServerException | XmlParserException
-                | IllegalArgumentException | IOException | ErrorResponseException e) {
-            e.printStackTrace();
+                | IllegalArgumentException | ErrorResponseException e) {
+            throw new IOException("Could not delete " + bucket + "/" + name + ": " + e.getMessage(), e);
         }
     }
 
+    /**
+     * Waits for a batch of object operations, throwing a single exception holding every failure
+     * once all of them have finished.
+     * @throws IOException if any operation failed, with each failure added as suppressed
+     */
+    public static void join(Collection<? extends CompletableFuture<?>> futures) throws IOException {
+        List<Throwable> failures = new ArrayList<>();
+        for (CompletableFuture<?> future : futures) {
+            try {
+                future.join();
+            } catch (CompletionException | CancellationException e) {
+                failures.add(e.getCause() != null ? e.getCause() : e);
+            }
+        }
+        if (failures.isEmpty())
+            return;
+
+        IOException e = new IOException(failures.size() + " of " + futures.size() + " object operations failed");
+        for (Throwable failure : failures)
+            e.addSuppressed(failure);
+        throw e;
+    }
+
 }
@@ -0,0 +1,228 @@
+package au.com.expressionless.nish.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+
+import org.jboss.logging.Logger;
+
+import au.com.expressionless.nish.utils.ANSIColour;
+
+/**
+ * Local disk copies of MinIO objects, keyed by bucket and object, with the least recently used
+ * evicted once their total size passes a limit. Copies are replaced by rename and removed by
+ * unlinking, so a reader that opened one keeps reading it whatever happens to the cache. Whether a
+ * copy is still current is up to {@link MinIO}, which checks its ETag.
+ */
+class ObjectCache {
+
+    static final Logger log = Logger.getLogger(ObjectCache.class);
+
+    private final Path dir;
+    private final long maxBytes;
+
+    // access ordered, so iteration starts at the least recently used copy
+    private final Map<String, CachedObject> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    // guarded by entries
+    private long cachedBytes;
+    private long hits;
+    private long misses;
+    private long stale;
+    private long evictions;
+    private long bytesSaved;
+
+    /**
+     * ObjectCache constructor. Copies left in the buckets' directories by a previous run are
+     * removed, as nothing says whether they are current. Nothing else in dir is touched.
+     * @param dir Directory holding the copies, one subdirectory per bucket
+     * @param maxBytes Most bytes to hold, 0 to disable the cache
+     * @param buckets Buckets that may be cached
+     */
+    ObjectCache(Path dir, long maxBytes, Collection<String> buckets) {
+        this.dir = dir;
+        long max = maxBytes;
+        if (max > 0) {
+            try {
+                for (String bucket : buckets) {
+                    Path bucketDir = dir.resolve(bucket);
+                    if (!Files.isDirectory(bucketDir))
+                        continue;
+                    try (Stream<Path> leftovers = Files.list(bucketDir)) {
+                        leftovers.filter(Files::isRegularFile).forEach(path -> path.toFile().delete());
+                    }
+                }
+                Files.createDirectories(dir);
+                log.info("Object cache of " + (max / (1024 * 1024)) + "MB at " + dir);
+            } catch (IOException e) {
+                log.error(ANSIColour.doRed("Could not prepare object cache " + dir + ": " + e.getMessage()));
+                max = 0;
+            }
+        }
+        this.maxBytes = max;
+    }
+
+    boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * Returns whether or not an object can be held, its name being used as a file name.
+     */
+    boolean accepts(String name, long size) {
+        return isEnabled() && size <= maxBytes && name.matches("[A-Za-z0-9_.-]+") && !name.startsWith(".");
+    }
+
+    CachedObject get(String bucket, String name) {
+        synchronized (entries) {
+            return entries.get(key(bucket, name));
+        }
+    }
+
+    /**
+     * Stores a copy of an object, replacing any held, and returns it. Returns null if the object
+     * turned out bigger than the whole cache. The stream is read to the end but not closed.
+     */
+    CachedObject put(String bucket, String name, InputStream in, String etag, ZonedDateTime lastModified) throws IOException {
+        return put(bucket, name, in, etag, lastModified, () -> true);
+    }
+
+    /**
+     * Stores a copy of an object unless current no longer holds once it's read, in which case
+     * null is returned and the copy held, if any, is kept.
+     */
+    CachedObject put(String bucket, String name, InputStream in, String etag, ZonedDateTime lastModified,
+        BooleanSupplier current) throws IOException {
+
+        Path bucketDir = dir.resolve(bucket);
+        Files.createDirectories(bucketDir);
+        Path tmp = Files.createTempFile(bucketDir, name, ".part");
+        try {
+            long size = Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+            if (size > maxBytes) {
+                remove(bucket, name);
+                return null;
+            }
+
+            Path target = bucketDir.resolve(name);
+            synchronized (entries) {
+                if (!current.getAsBoolean())
+                    return null;
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                CachedObject cached = new CachedObject(bucket, name, target.toFile(), size, etag, lastModified);
+                CachedObject replaced = entries.put(key(bucket, name), cached);
+                if (replaced != null)
+                    cachedBytes -= replaced.getSize();
+                cachedBytes += size;
+                evict();
+                return cached;
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Stores a copy of an object from a file, which is left in place.
+     */
+    CachedObject put(String bucket, String name, File file, String etag, ZonedDateTime lastModified) throws IOException {
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            return put(bucket, name, in, etag, lastModified);
+        }
+    }
+
+    void remove(String bucket, String name) {
+        synchronized (entries) {
+            CachedObject cached = entries.remove(key(bucket, name));
+            if (cached != null)
+                deleteFile(cached);
+        }
+    }
+
+    /**
+     * Drops a copy MinIO no longer has the ETag of.
+     */
+    void removeStale(CachedObject cached) {
+        synchronized (entries) {
+            stale++;
+            if (entries.get(key(cached.getBucket(), cached.getName())) == cached) {
+                entries.remove(key(cached.getBucket(), cached.getName()));
+                deleteFile(cached);
+            }
+        }
+    }
+
+    void hit(CachedObject cached) {
+        synchronized (entries) {
+            hits++;
+            bytesSaved += cached.getSize();
+        }
+    }
+
+    void miss() {
+        synchronized (entries) {
+            misses++;
+        }
+    }
+
+    /**
+     * Returns hit and miss counts, their ratio and the bytes not downloaded thanks to hits, along
+     * with the current size of the cache.
+     */
+    JsonObject getMetrics() {
+        synchronized (entries) {
+            long lookups = hits + misses;
+            return Json.createObjectBuilder()
+            .add("entries",     entries.size())
+            .add("bytes",       cachedBytes)
+            .add("maxBytes",    maxBytes)
+            .add("hits",        hits)
+            .add("misses",      misses)
+            .add("hitRatio",    lookups == 0 ? 0 : (double) hits / lookups)
+            .add("missRatio",   lookups == 0 ? 0 : (double) misses / lookups)
+            .add("stale",       stale)
+            .add("evictions",   evictions)
+            .add("bytesSaved",  bytesSaved)
+            .build();
+        }
+    }
+
+    /**
+     * Evicts copies, least recently used first, until the cache fits. Must hold entries.
+     */
+    private void evict() {
+        Iterator<CachedObject> it = entries.values().iterator();
+        while (cachedBytes > maxBytes && it.hasNext()) {
+            CachedObject cached = it.next();
+            it.remove();
+            deleteFile(cached);
+            evictions++;
+        }
+    }
+
+    /**
+     * Must hold entries.
+     */
+    private void deleteFile(CachedObject cached) {
+        cachedBytes -= cached.getSize();
+        if (!cached.getFile().delete())
+            log.warn("Could not remove cached object " + cached.getFile());
+    }
+
+    private static String key(String bucket, String name) {
+        return bucket + "/" + name;
+    }
+}
@@ -0,0 +1,186 @@
+package au.com.expressionless.nish.service;
+
+import static au.com.expressionless.nish.constants.Config.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+
+import org.jboss.logging.Logger;
+
+import au.com.expressionless.nish.utils.GeneralUtils;
+import au.com.expressionless.nish.utils.pdf.PDFPreviewRenderer;
+import io.minio.GetObjectResponse;
+import io.minio.errors.ErrorResponseException;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+
+/**
+ * Renders a preview of every page of an edition at each of {@link #WIDTHS} and stores them in
+ * MinIO's preview bucket. Pages are rendered in parallel on a fork join pool, and previews that
+ * are missing, i.e. for editions uploaded before previews existed, are rendered on demand.
+ */
+@ApplicationScoped
+public class PreviewService {
+
+    static final Logger log = Logger.getLogger(PreviewService.class);
+
+    /**
+     * Widths in pixels each page is rendered at.
+     */
+    public static final int[] WIDTHS = { 300, 800, 1600 };
+
+    // pages a single task renders, each task loads the document once
+    private static final int PAGES_PER_TASK = 4;
+
+    private static final String NO_SUCH_KEY = "NoSuchKey";
+
+    @Inject
+    MinIO minio;
+
+    @Inject
+    DocumentWorkspace workspace;
+
+    private ForkJoinPool pool;
+
+    void onStart(@Observes StartupEvent e) {
+        int parallelism = Integer.parseInt(GeneralUtils.getSystemEnv(
+            ENV_PREVIEW_PARALLELISM,
+            String.valueOf(Math.max(1, Runtime.getRuntime().availableProcessors() / 2))
+        ));
+        pool = new ForkJoinPool(Math.max(1, parallelism));
+    }
+
+    void onStop(@Observes ShutdownEvent e) {
+        if (pool != null)
+            pool.shutdownNow();
+    }
+
+    /**
+     * Returns whether or not previews are rendered at a width.
+     */
+    public static boolean isWidth(int width) {
+        for (int w : WIDTHS) {
+            if (w == width)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Renders and uploads previews of every page of an edition. Blocks until every page is done.
+     * @param minioId MinIO id of the edition's PDF
+     * @param pdfFile The edition's PDF
+     */
+    public void renderAll(String minioId, File pdfFile) throws IOException {
+        PDFPreviewRenderer renderer = new PDFPreviewRenderer(pdfFile, WIDTHS);
+        int pages = renderer.getPageCount();
+        try {
+            pool.invoke(new RenderTask(minioId, renderer, 0, pages));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        log.info("Rendered previews of " + pages + " pages for " + minioId);
+    }
+
+    /**
+     * Returns the preview of a page, rendering it first if it is missing. Returns null if the
+     * edition's PDF could not be fetched or has no such page.
+     * @param minioId MinIO id of the edition's PDF
+     * @param pageIndex Index of the page (0 based)
+     * @param width One of {@link #WIDTHS}
+     */
+    public InputStream getPreview(String minioId, int pageIndex, int width)
+        throws IOException, ErrorResponseException {
+
+            try {
+                GetObjectResponse resp = minio.downloadPreview(objectName(minioId, pageIndex, width));
+                if (resp != null)
+                    return resp;
+            } catch (ErrorResponseException e) {
+                if (e.errorResponse() == null || !NO_SUCH_KEY.equals(e.errorResponse().code()))
+                    throw e;
+            }
+
+            // render every width of the page while it is loaded, not just the one asked for
+            log.info("Rendering missing preview " + objectName(minioId, pageIndex, width));
+            try (DocumentWorkspace.Lease lease = workspace.open(minioId)) {
+                if (lease == null)
+                    return null;
+
+                PDFPreviewRenderer renderer = new PDFPreviewRenderer(lease.getFile(), WIDTHS);
+                if (pageIndex < 0 || pageIndex >= renderer.getPageCount())
+                    return null;
+
+                byte[][] preview = new byte[1][];
+                renderer.render(pageIndex, pageIndex + 1, (page, w, jpeg) -> {
+                    upload(minioId, page, w, jpeg);
+                    if (w == width)
+                        preview[0] = jpeg;
+                });
+                return new ByteArrayInputStream(preview[0]);
+            }
+    }
+
+    /**
+     * Deletes every preview of an edition on the MinIO executor.
+     * @param minioId MinIO id of the edition's PDF
+     */
+    public CompletableFuture<Void> deleteAll(String minioId) {
+        return minio.deletePreviewsAsync(minioId + "/");
+    }
+
+    private void upload(String minioId, int pageIndex, int width, byte[] jpeg) throws IOException {
+        String name = objectName(minioId, pageIndex, width);
+        if (minio.uploadPreview(jpeg, name) == null)
+            throw new IOException("Could not upload preview " + name);
+    }
+
+    private static String objectName(String minioId, int pageIndex, int width) {
+        return minioId + "/" + pageIndex + "-" + width;
+    }
+
+    /**
+     * Renders a range of pages, splitting it in half until each task holds a few pages.
+     */
+    private class RenderTask extends RecursiveAction {
+        private final String minioId;
+        private final PDFPreviewRenderer renderer;
+        private final int from;
+        private final int to;
+
+        private RenderTask(String minioId, PDFPreviewRenderer renderer, int from, int to) {
+            this.minioId = minioId;
+            this.renderer = renderer;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > PAGES_PER_TASK) {
+                int mid = (from + to) >>> 1;
+                invokeAll(
+                    new RenderTask(minioId, renderer, from, mid),
+                    new RenderTask(minioId, renderer, mid, to)
+                );
+                return;
+            }
+
+            try {
+                renderer.render(from, to, (page, width, jpeg) -> upload(minioId, page, width, jpeg));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
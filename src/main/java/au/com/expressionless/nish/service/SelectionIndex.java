@@ -0,0 +1,157 @@
+package au.com.expressionless.nish.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Event;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
+import javax.inject.Inject;
+
+import au.com.expressionless.nish.models.entity.edition.Edition;
+import au.com.expressionless.nish.models.entity.edition.story.Bounds;
+import au.com.expressionless.nish.models.entity.edition.story.Story;
+import au.com.expressionless.nish.models.entity.edition.story.StorySelection;
+import au.com.expressionless.nish.utils.pdf.PackedRTree;
+
+/**
+ * Spatial index of the story selections on each page of recently viewed editions, answering
+ * which stories overlap a region of a page. An edition's index is built on first use and must be
+ * invalidated whenever its stories or selections change.
+ */
+@ApplicationScoped
+public class SelectionIndex {
+
+    private static final int MAX_EDITIONS = 64;
+
+    @Inject
+    Event<Invalidation> invalidations;
+
+    // bumped whenever an edition is invalidated, guarded by editions
+    private final Map<Long, Long> generations = new HashMap<>();
+
+    // guarded by itself
+    private final Map<Long, Map<Integer, Page>> editions = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Map<Integer, Page>> eldest) {
+            return size() > MAX_EDITIONS;
+        }
+    };
+
+    /**
+     * The selections of one page, with the story each belongs to.
+     */
+    private static class Page {
+        private final int[] rects;
+        private final long[] storyIds;
+        private final PackedRTree tree;
+
+        private Page(List<int[]> rects, List<Long> storyIds) {
+            this.rects = new int[rects.size() * 4];
+            this.storyIds = new long[storyIds.size()];
+            for (int i = 0; i < storyIds.size(); i++) {
+                System.arraycopy(rects.get(i), 0, this.rects, i * 4, 4);
+                this.storyIds[i] = storyIds.get(i);
+            }
+            this.tree = PackedRTree.build(this.rects);
+        }
+    }
+
+    /**
+     * An edition whose index is dropped once the current transaction commits.
+     */
+    static class Invalidation {
+        private final Long editionId;
+
+        private Invalidation(Long editionId) {
+            this.editionId = editionId;
+        }
+    }
+
+    /**
+     * Returns the ids of stories with a selection overlapping a region of a page, in the order
+     * their selections were added.
+     * @param edition Edition to search
+     * @param pageNum Page number of the region, as stored on selections
+     */
+    public Set<Long> findStories(Edition edition, int pageNum, int x, int y, int width, int height) {
+        Set<Long> storyIds = new LinkedHashSet<>();
+        Page page = pages(edition).get(pageNum);
+        if (page == null)
+            return storyIds;
+
+        int x1 = x + width;
+        int y1 = y + height;
+        for (int i : page.tree.search(x, y, x1, y1)) {
+
+            // only count selections sharing some area with the region, not just an edge
+            int r = i * 4;
+            if (page.rects[r] < x1 && x < page.rects[r + 2] && page.rects[r + 1] < y1 && y < page.rects[r + 3])
+                storyIds.add(page.storyIds[i]);
+        }
+        return storyIds;
+    }
+
+    /**
+     * Drops the index of an edition now, and again once the current transaction commits. Both
+     * bump the edition's generation, so an index built from stories read before the commit is
+     * never stored.
+     * @param editionId Id of the edition whose stories or selections changed
+     */
+    public void invalidate(Long editionId) {
+        drop(editionId);
+        invalidations.fire(new Invalidation(editionId));
+    }
+
+    void onCommit(@Observes(during = TransactionPhase.AFTER_SUCCESS) Invalidation invalidation) {
+        drop(invalidation.editionId);
+    }
+
+    private void drop(Long editionId) {
+        synchronized (editions) {
+            editions.remove(editionId);
+            generations.merge(editionId, 1L, Long::sum);
+        }
+    }
+
+    private Map<Integer, Page> pages(Edition edition) {
+        long generation;
+        synchronized (editions) {
+            Map<Integer, Page> pages = editions.get(edition.id);
+            if (pages != null)
+                return pages;
+            generation = generations.getOrDefault(edition.id, 0L);
+        }
+
+        // group selections by page
+        Map<Integer, List<int[]>> rects = new HashMap<>();
+        Map<Integer, List<Long>> storyIds = new HashMap<>();
+        for (Story story : edition.getStories()) {
+            for (StorySelection selection : story.getSelections()) {
+                Bounds b = selection.getBounds();
+                rects.computeIfAbsent(selection.getPageNum(), k -> new ArrayList<>())
+                .add(new int[] { b.getX(), b.getY(), b.getMaxX(), b.getMaxY() });
+                storyIds.computeIfAbsent(selection.getPageNum(), k -> new ArrayList<>())
+                .add(story.id);
+            }
+        }
+
+        Map<Integer, Page> pages = new HashMap<>();
+        for (Map.Entry<Integer, List<int[]>> entry : rects.entrySet())
+            pages.put(entry.getKey(), new Page(entry.getValue(), storyIds.get(entry.getKey())));
+
+        // an invalidation since the stories were read means they may be stale, so only use them
+        // for this request
+        synchronized (editions) {
+            if (generations.getOrDefault(edition.id, 0L) == generation)
+                editions.put(edition.id, pages);
+        }
+        return pages;
+    }
+}
@@ -0,0 +1,114 @@
+package au.com.expressionless.nish.service;
+
+import static au.com.expressionless.nish.constants.Config.*;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.json.JsonObject;
+import javax.ws.rs.ServiceUnavailableException;
+
+import org.jboss.logging.Logger;
+
+import au.com.expressionless.nish.models.entity.edition.story.Bounds;
+import au.com.expressionless.nish.utils.ANSIColour;
+import au.com.expressionless.nish.utils.GeneralUtils;
+import au.com.expressionless.nish.utils.pdf.ExtractionJob;
+import au.com.expressionless.nish.utils.pdf.PDFBoxTextExtractor;
+import au.com.expressionless.nish.utils.pdf.PDFWrapper;
+import au.com.expressionless.nish.utils.pdf.TextExtractor;
+import au.com.expressionless.nish.utils.python.PyScheduler;
+import au.com.expressionless.nish.utils.python.PyTextExtractor;
+import au.com.expressionless.nish.utils.python.PyWorkerPool;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+
+/**
+ * Extracts text from PDFs with the {@link TextExtractor} chosen by the TEXT_EXTRACTOR environment
+ * variable. "python" (the default) uses a pool of long lived pdf_ext workers, so that selections
+ * don't pay for python interpreter startup and PyMuPDF imports on every request, and falls back
+ * to running pdf_ext.py directly when the pool is disabled or could not be started. "pdfbox"
+ * extracts text inside the JVM with no python process at all.
+ */
+@ApplicationScoped
+public class TextExtractionService {
+
+    static final Logger log = Logger.getLogger(TextExtractionService.class);
+
+    public static final String ENGINE_PYTHON = "python";
+    public static final String ENGINE_PDFBOX = "pdfbox";
+
+    private static final String WORKER_SCRIPT = "pdf_ext/pdf_ext_worker.py";
+    private static final long TIMEOUT = 10;
+
+    private PyWorkerPool pool;
+    private TextExtractor extractor = new PyTextExtractor(null, TIMEOUT);
+
+    void onStart(@Observes StartupEvent e) {
+        String engine = GeneralUtils.getSystemEnv(ENV_TEXT_EXTRACTOR, ENGINE_PYTHON);
+        if (ENGINE_PDFBOX.equalsIgnoreCase(engine)) {
+            extractor = new PDFBoxTextExtractor(Runtime.getRuntime().availableProcessors());
+            log.info("Extracting text with PDFBox");
+            return;
+        }
+        if (!ENGINE_PYTHON.equalsIgnoreCase(engine))
+            log.warn("Unknown text extractor `" + engine + "`, using " + ENGINE_PYTHON);
+
+        int size = Integer.parseInt(GeneralUtils.getSystemEnv(ENV_PDF_EXT_WORKERS, "2"));
+        long healthCheck = Long.parseLong(GeneralUtils.getSystemEnv(ENV_PY_WORKER_HEALTH_CHECK, "30"));
+        if (size <= 0) {
+            log.info("pdf_ext worker pool disabled");
+            return;
+        }
+
+        try {
+            pool = new PyWorkerPool(WORKER_SCRIPT, size, PyScheduler.Lane.INTERACTIVE).start(healthCheck);
+            extractor = new PyTextExtractor(pool, TIMEOUT);
+        } catch (IOException ex) {
+            log.error(ANSIColour.doRed("Could not start pdf_ext workers: " + ex.getMessage()));
+            if (pool != null)
+                pool.close();
+            pool = null;
+        }
+    }
+
+    void onStop(@Observes ShutdownEvent e) {
+        if (pool != null)
+            pool.close();
+    }
+
+    /**
+     * Extracts text from a rectangular section of a page in the PDF. Returns null if the text
+     * extraction is unsuccessful.
+     * @throws ServiceUnavailableException if the server is too busy to extract text
+     * @see TextExtractor#getText(PDFWrapper, int, Collection)
+     */
+    public JsonObject getText(PDFWrapper pdfWrapper, int pageIndex, Collection<Bounds> bounds) {
+        return extractor.getText(pdfWrapper, pageIndex, bounds);
+    }
+
+    /**
+     * Extracts text for a batch of jobs in a single request, returning each job's result keyed by
+     * job id. Returns null if the text extraction is unsuccessful.
+     * @throws ServiceUnavailableException if the server is too busy to extract text
+     * @see TextExtractor#getText(PDFWrapper, List)
+     */
+    public Map<Integer, JsonObject> getText(PDFWrapper pdfWrapper, List<ExtractionJob> jobs) {
+        return extractor.getText(pdfWrapper, jobs);
+    }
+
+    /**
+     * Extracts text for a batch of jobs without blocking the calling thread. The future completes
+     * with null if the text extraction is unsuccessful, or fails with a
+     * {@link ServiceUnavailableException} if the server is too busy to extract text.
+     * @see TextExtractor#getTextAsync(PDFWrapper, List)
+     */
+    public CompletableFuture<Map<Integer, JsonObject>> getTextAsync(PDFWrapper pdfWrapper, List<ExtractionJob> jobs) {
+        return extractor.getTextAsync(pdfWrapper, jobs);
+    }
+}
@@ -0,0 +1,276 @@
+package au.com.expressionless.nish.service;
+
+import static au.com.expressionless.nish.constants.Config.*;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Event;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
+import javax.imageio.ImageIO;
+import javax.inject.Inject;
+import javax.transaction.Transactional;
+
+import org.jboss.logging.Logger;
+
+import au.com.expressionless.nish.models.entity.edition.Edition;
+import au.com.expressionless.nish.models.entity.edition.ThumbnailStatus;
+import au.com.expressionless.nish.utils.ANSIColour;
+import au.com.expressionless.nish.utils.GeneralUtils;
+import au.com.expressionless.nish.utils.pdf.PDFThumbnailBuilder;
+import io.minio.GetObjectResponse;
+import io.minio.errors.ErrorResponseException;
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+
+/**
+ * Renders and uploads edition thumbnails on a background pool, so uploads don't wait on rendering.
+ * Page previews and the layout index follow on a pool of their own, so a large edition's pages
+ * don't hold up the thumbnails of editions uploaded after it. Work is only queued once the transaction
+ * that created the edition commits, and the edition's {@link ThumbnailStatus} tracks it from
+ * PENDING to READY or FAILED.
+ */
+@ApplicationScoped
+public class ThumbnailService {
+
+    static final Logger log = Logger.getLogger(ThumbnailService.class);
+
+    private static final int THUMBNAIL_SIZE = 600;
+    private static final int THUMBNAIL_DPI = 300;
+
+    @Inject
+    MinIO minio;
+
+    @Inject
+    PreviewService previews;
+
+    @Inject
+    LayoutService layouts;
+
+    @Inject
+    Event<Job> jobs;
+
+    private ExecutorService executor;
+
+    // previews and layouts, PreviewService already renders each edition's pages in parallel
+    private ExecutorService pages;
+
+    /**
+     * A thumbnail waiting on its edition's transaction.
+     */
+    static class Job {
+        private final Long editionId;
+        private final String minioId;
+        private final File pdfFile;
+
+        private Job(Long editionId, String minioId, File pdfFile) {
+            this.editionId = editionId;
+            this.minioId = minioId;
+            this.pdfFile = pdfFile;
+        }
+    }
+
+    @Transactional
+    void onStart(@Observes StartupEvent e) {
+        int workers = Integer.parseInt(GeneralUtils.getSystemEnv(ENV_THUMBNAIL_WORKERS, "2"));
+        executor = Executors.newFixedThreadPool(Math.max(1, workers), r -> {
+            Thread t = new Thread(r, "thumbnail");
+            t.setDaemon(true);
+            return t;
+        });
+        pages = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "thumbnail-pages");
+            t.setDaemon(true);
+            return t;
+        });
+
+        // thumbnails still pending were lost with the previous run
+        List<Edition> pending = Edition.findByThumbnailStatus(ThumbnailStatus.PENDING);
+        for (Edition edition : pending) {
+            log.info("Requeueing thumbnail for `" + edition.getFileName() + "`");
+            Job job = new Job(edition.id, edition.getMinioId(), null);
+            executor.execute(() -> run(job));
+        }
+    }
+
+    void onStop(@Observes ShutdownEvent e) {
+        if (executor != null)
+            executor.shutdownNow();
+        if (pages != null)
+            pages.shutdownNow();
+    }
+
+    /**
+     * Marks an edition's thumbnail as pending and queues it to be rendered once the current
+     * transaction commits. The pdf file is handed over to this service and deleted once rendered.
+     * @param edition Persisted edition to render a thumbnail for
+     * @param pdfFile The edition's PDF, or null to download it from MinIO
+     */
+    public void enqueue(Edition edition, File pdfFile) {
+        edition.setThumbnailStatus(ThumbnailStatus.PENDING);
+        jobs.fire(new Job(edition.id, edition.getMinioId(), pdfFile));
+    }
+
+    void onCommit(@Observes(during = TransactionPhase.AFTER_SUCCESS) Job job) {
+        executor.execute(() -> run(job));
+    }
+
+    void onRollback(@Observes(during = TransactionPhase.AFTER_FAILURE) Job job) {
+        if (job.pdfFile != null)
+            job.pdfFile.delete();
+    }
+
+    /**
+     * The edition may be deleted while its job is queued or running, and deleting it removes its
+     * objects from MinIO, so it is looked up before each upload and whatever was uploaded after
+     * it was deleted is removed again.
+     */
+    private void run(Job job) {
+        File pdfFile = job.pdfFile;
+        try {
+            if (!exists(job.editionId))
+                return;
+            try {
+                if (pdfFile == null)
+                    pdfFile = download(job.minioId);
+            } catch (IOException | ErrorResponseException | RuntimeException e) {
+                log.error(ANSIColour.doRed("Thumbnail for " + job.minioId + " failed: " + e.getMessage()));
+                setStatus(job.editionId, ThumbnailStatus.FAILED);
+                return;
+            }
+
+            if (!setStatus(job.editionId, renderThumbnail(job.minioId, pdfFile))) {
+                discard(job.minioId);
+                return;
+            }
+
+            // page previews are rendered from the same spooled file once the thumbnail is ready,
+            // which is then theirs to delete
+            File spooled = pdfFile;
+            pages.execute(() -> renderPages(job, spooled));
+            pdfFile = null;
+        } catch (RejectedExecutionException e) {
+            log.warn("Shutting down, previews and layout for " + job.minioId + " not rendered");
+        } finally {
+            if (pdfFile != null)
+                pdfFile.delete();
+        }
+    }
+
+    private void renderPages(Job job, File pdfFile) {
+        try {
+            try {
+                if (!exists(job.editionId)) {
+                    discard(job.minioId);
+                    return;
+                }
+                previews.renderAll(job.minioId, pdfFile);
+            } catch (IOException | RuntimeException e) {
+                log.error(ANSIColour.doRed("Previews for " + job.minioId + " failed: " + e.getMessage()));
+            }
+
+            try {
+                if (!exists(job.editionId)) {
+                    discard(job.minioId);
+                    return;
+                }
+                layouts.index(job.minioId, pdfFile);
+            } catch (IOException | RuntimeException e) {
+                log.error(ANSIColour.doRed("Layout for " + job.minioId + " failed: " + e.getMessage()));
+            }
+            if (!exists(job.editionId))
+                discard(job.minioId);
+        } finally {
+            pdfFile.delete();
+        }
+    }
+
+    private boolean exists(Long editionId) {
+        return QuarkusTransaction.requiringNew().call(() -> Edition.findById(editionId) != null);
+    }
+
+    /**
+     * Removes everything uploaded for an edition that was deleted meanwhile.
+     */
+    private void discard(String minioId) {
+        log.info("Edition " + minioId + " was deleted while rendering, removing its thumbnail, previews and layout");
+        minio.deleteThumbnail(minioId);
+        try {
+            MinIO.join(List.of(previews.deleteAll(minioId), layouts.delete(minioId)));
+        } catch (IOException e) {
+            log.error(ANSIColour.doRed("Could not remove objects of deleted edition " + minioId + ": " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Renders and uploads a thumbnail, returning READY if it was uploaded and FAILED otherwise.
+     */
+    private ThumbnailStatus renderThumbnail(String minioId, File pdfFile) {
+        ThumbnailStatus status = ThumbnailStatus.FAILED;
+        try {
+            long start = System.nanoTime();
+            BufferedImage bufferedImage = PDFThumbnailBuilder
+            .builder(pdfFile)
+            .fromPage(0)
+            .setSize(THUMBNAIL_SIZE)
+            .setDPI(THUMBNAIL_DPI)
+            .build();
+
+            ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+            ImageIO.write(bufferedImage, "jpeg", jpeg);
+            if (minio.uploadThumbnail(jpeg.toByteArray(), minioId) != null)
+                status = ThumbnailStatus.READY;
+            log.info(
+                "Thumbnail for " + minioId + " " + status.name().toLowerCase() + " in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms"
+            );
+        } catch (IOException | RuntimeException e) {
+            log.error(ANSIColour.doRed("Thumbnail for " + minioId + " failed: " + e.getMessage()));
+        }
+        return status;
+    }
+
+    /**
+     * Returns false if the edition no longer exists.
+     */
+    private boolean setStatus(Long editionId, ThumbnailStatus status) {
+        return QuarkusTransaction.requiringNew().call(() -> {
+            Edition edition = Edition.findById(editionId);
+            if (edition == null)
+                return false;
+            edition.setThumbnailStatus(status);
+            return true;
+        });
+    }
+
+    /**
+     * Downloads an edition's PDF from MinIO to a temporary file.
+     */
+    private File download(String minioId) throws IOException, ErrorResponseException {
+        GetObjectResponse resp = minio.downloadPdf(minioId);
+        if (resp == null)
+            throw new IOException("PDF " + minioId + " could not be fetched");
+
+        File pdfFile = File.createTempFile(minioId, "-pdf");
+        try (InputStream in = resp) {
+            Files.copy(in, pdfFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            pdfFile.delete();
+            throw e;
+        }
+        return pdfFile;
+    }
+}
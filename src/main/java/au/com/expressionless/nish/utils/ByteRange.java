@@ -0,0 +1,88 @@
+package au.com.expressionless.nish.utils;
+
+/**
+ * A single satisfiable range of bytes from an HTTP {@code Range} header, resolved against the
+ * size of the object being served.
+ */
+public final class ByteRange {
+
+    private static final String UNIT = "bytes=";
+
+    private final long first;
+    private final long last;
+    private final long size;
+
+    private ByteRange(long first, long last, long size) {
+        this.first = first;
+        this.last = last;
+        this.size = size;
+    }
+
+    /**
+     * Parses a {@code Range} header. Returns null if the header is missing, malformed or asks for
+     * more than one range, in which case the whole object should be served.
+     * @param header Value of the Range header
+     * @param size Size of the object in bytes
+     * @throws IllegalArgumentException if the range can't be satisfied, so 416 should be returned
+     */
+    public static ByteRange parse(String header, long size) {
+        if (header == null || !header.regionMatches(true, 0, UNIT, 0, UNIT.length()))
+            return null;
+
+        String spec = header.substring(UNIT.length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0 || spec.indexOf(',') >= 0)
+            return null;
+
+        String from = spec.substring(0, dash).trim();
+        String to = spec.substring(dash + 1).trim();
+        long first;
+        long last;
+        try {
+            if (from.isEmpty()) {
+
+                // suffix range, the last n bytes
+                long suffix = Long.parseLong(to);
+                if (suffix < 0)
+                    return null;
+                if (suffix == 0 || size == 0)
+                    throw new IllegalArgumentException("Range " + header + " not satisfiable");
+                first = Math.max(0, size - suffix);
+                last = size - 1;
+            } else {
+                first = Long.parseLong(from);
+                last = to.isEmpty() ? Long.MAX_VALUE : Long.parseLong(to);
+                if (first < 0 || last < first)
+                    return null;
+                if (first >= size)
+                    throw new IllegalArgumentException("Range " + header + " not satisfiable");
+                last = Math.min(last, size - 1);
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return new ByteRange(first, last, size);
+    }
+
+    public long getOffset() {
+        return first;
+    }
+
+    public long getLength() {
+        return last - first + 1;
+    }
+
+    /**
+     * Returns whether or not the range covers the whole object.
+     */
+    public boolean isWhole() {
+        return first == 0 && last == size - 1;
+    }
+
+    /**
+     * Returns the value of the Content-Range header for this range.
+     */
+    public String toContentRange() {
+        return "bytes " + first + "-" + last + "/" + size;
+    }
+}
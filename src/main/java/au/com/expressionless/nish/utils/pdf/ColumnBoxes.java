@@ -0,0 +1,230 @@
+package au.com.expressionless.nish.utils.pdf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Port of pyscripts/pdf_ext/column_boxes_rect.py that works on a {@link PageLayout} instead of a
+ * live fitz page. Finds the boxes wrapping each column of text inside a clip.
+ */
+final class ColumnBoxes {
+
+    // bottoms closer than this are treated as the same row when ordering boxes
+    private static final int SAME_BOTTOM = 10;
+
+    private final PageLayout page;
+
+    // bboxes of non-horizontal text, avoided when extending horizontal text boxes
+    private final List<IRect> vertical = new ArrayList<>();
+
+    private ColumnBoxes(PageLayout page) {
+        this.page = page;
+    }
+
+    /**
+     * Returns the boxes wrapping each column of text in clip.
+     */
+    static List<IRect> find(PageLayout page, IRect clip) {
+        return new ColumnBoxes(page).find(clip);
+    }
+
+    private List<IRect> find(IRect clip) {
+        List<IRect> bboxes = textBoxes(clip);
+        if (bboxes.isEmpty())
+            return bboxes;
+
+        // sort text bboxes by ascending background, top, then left coordinates
+        bboxes.sort(Comparator.<IRect>comparingInt(b -> inBBox(b, page.paths))
+            .thenComparingInt(b -> b.y0)
+            .thenComparingInt(b -> b.x0));
+
+        // join bboxes to establish some column structure, removed bboxes are left as null
+        List<IRect> nblocks = new ArrayList<>();
+        nblocks.add(bboxes.get(0));
+        List<IRect> remaining = new ArrayList<>(bboxes.subList(1, bboxes.size()));
+
+        for (int i = 0; i < remaining.size(); i++) {
+            IRect bb = remaining.get(i);
+            boolean check = false;
+            int blockIndex = 0;
+            IRect temp = null;
+
+            // check if bb can extend one of the new blocks
+            for (int j = 0; j < nblocks.size(); j++) {
+                blockIndex = j;
+                IRect nbb = nblocks.get(j);
+
+                // never join across columns
+                if (nbb.x1 < bb.x0 || bb.x1 < nbb.x0)
+                    continue;
+
+                // never join across different background colors
+                if (inBBox(nbb, page.paths) != inBBox(bb, page.paths))
+                    continue;
+
+                temp = bb.or(nbb);
+                check = canExtend(temp, nbb, nblocks);
+                if (check)
+                    break;
+            }
+
+            // bb cannot be used to extend any of the new bboxes
+            if (!check) {
+                nblocks.add(bb);
+                blockIndex = nblocks.size() - 1;
+                temp = nblocks.get(blockIndex);
+            }
+
+            // check if some remaining bbox is contained in temp
+            if (!canExtend(temp, bb, remaining))
+                nblocks.add(bb);
+            else
+                nblocks.set(blockIndex, temp);
+            remaining.set(i, null);
+        }
+        return clean(nblocks);
+    }
+
+    /**
+     * Returns the box around the horizontal lines of each text block in clip, skipping blocks
+     * written on images.
+     */
+    private List<IRect> textBoxes(IRect clip) {
+
+        // clip words into their lines
+        int lineCount = page.lineBlocks.length;
+        float[] lineRects = new float[lineCount * 4];
+        int[] lineLengths = new int[lineCount];
+        boolean[] present = new boolean[lineCount];
+        page.wordTree.search(clip.x0, clip.y0, clip.x1, clip.y1, w -> {
+            if (!page.wordInside(w, clip))
+                return;
+            int line = page.wordLines[w];
+            addWord(lineRects, line, w, present[line]);
+            present[line] = true;
+            lineLengths[line] += page.wordTexts[w].length();
+        });
+
+        // lines of the same dict block are consecutive
+        List<IRect> bboxes = new ArrayList<>();
+        for (int start = 0, end; start < lineCount; start = end) {
+            end = start;
+            while (end < lineCount && page.lineBlocks[end] == page.lineBlocks[start])
+                end++;
+
+            IRect bbox = IRect.EMPTY;
+            int first = -1;
+            for (int line = start; line < end; line++) {
+                if (!present[line])
+                    continue;
+                if (first < 0)
+                    first = line;
+                bbox = bbox.or(lineRect(lineRects, line));
+            }
+
+            // block has no text in the clip, or is text written upon an image
+            if (first < 0 || inBBox(bbox, page.images) > 0)
+                continue;
+
+            // only accept horizontal text
+            if (!page.lineHorizontal[first]) {
+                vertical.add(bbox);
+                continue;
+            }
+
+            IRect srect = IRect.EMPTY;
+            for (int line = first; line < end; line++) {
+                if (present[line] && lineLengths[line] > 1)
+                    srect = srect.or(lineRect(lineRects, line));
+            }
+            if (!srect.isEmpty())
+                bboxes.add(srect);
+        }
+        return bboxes;
+    }
+
+    private void addWord(float[] lineRects, int line, int w, boolean extend) {
+        for (int c = 0; c < 4; c++) {
+            float v = page.wordRects[w * 4 + c];
+            int i = line * 4 + c;
+            if (!extend)
+                lineRects[i] = v;
+            else
+                lineRects[i] = c < 2 ? Math.min(lineRects[i], v) : Math.max(lineRects[i], v);
+        }
+    }
+
+    private static IRect lineRect(float[] lineRects, int line) {
+        int i = line * 4;
+        return IRect.containing(lineRects[i], lineRects[i + 1], lineRects[i + 2], lineRects[i + 3]);
+    }
+
+    /**
+     * Returns whether temp can be extended by bb without intersecting any other box in bboxes.
+     * Entries of bboxes may be null if they have been removed.
+     */
+    private boolean canExtend(IRect temp, IRect bb, List<IRect> bboxes) {
+        for (IRect b : bboxes) {
+            if (!intersectsAny(temp, vertical) && (b == null || b.equals(bb) || temp.and(b).isEmpty()))
+                continue;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the 1 based index of the first box containing bb, 0 if none do.
+     */
+    private static int inBBox(IRect bb, IRect[] bboxes) {
+        for (int i = 0; i < bboxes.length; i++) {
+            if (bboxes[i].contains(bb))
+                return i + 1;
+        }
+        return 0;
+    }
+
+    private static boolean intersectsAny(IRect bb, List<IRect> bboxes) {
+        for (IRect b : bboxes) {
+            if (!bb.and(b).isEmpty())
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Removes duplicate boxes, then sorts runs of boxes with about the same bottom left to right.
+     */
+    private static List<IRect> clean(List<IRect> nblocks) {
+        if (nblocks.size() < 2)
+            return nblocks;
+
+        // compares against the previous box, wrapping round to the last box as python does
+        for (int i = nblocks.size() - 1; i >= 0; i--) {
+            int prev = i > 0 ? i - 1 : nblocks.size() - 1;
+            if (nblocks.get(prev).equals(nblocks.get(i)))
+                nblocks.remove(i);
+        }
+        if (nblocks.isEmpty())
+            return nblocks;
+
+        IRect[] blocks = nblocks.toArray(new IRect[0]);
+        Comparator<IRect> byLeft = Comparator.comparingInt(b -> b.x0);
+        int y1 = blocks[0].y1;
+        int i0 = 0;
+        int i1 = -1;
+        for (int i = 1; i < blocks.length; i++) {
+            if (Math.abs(blocks[i].y1 - y1) > SAME_BOTTOM) {
+                if (i1 > i0)
+                    Arrays.sort(blocks, i0, i1 + 1, byLeft);
+                y1 = blocks[i].y1;
+                i0 = i;
+            }
+            i1 = i;
+        }
+        if (i1 > i0)
+            Arrays.sort(blocks, i0, i1 + 1, byLeft);
+        return new ArrayList<>(Arrays.asList(blocks));
+    }
+}
@@ -0,0 +1,76 @@
+package au.com.expressionless.nish.utils.pdf;
+
+import java.util.List;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+
+import au.com.expressionless.nish.models.entity.edition.story.Bounds;
+
+/**
+ * One run of selections on a single page, extracted as part of a batch. See
+ * {@link PDFWrapper#getText(List)}.
+ */
+public class ExtractionJob {
+
+    private final int id;
+    private final int pageIndex;
+    private final List<Bounds> bounds;
+    private final int sequenceNum;
+
+    /**
+     * ExtractionJob constructor.
+     * @param id Key the job's result is returned under
+     * @param pageIndex Index of the page (0 based) to retrieve text from
+     * @param bounds Sections of the page to extract text from, in order
+     * @param sequenceNum Position of the job in the story
+     */
+    public ExtractionJob(int id, int pageIndex, List<Bounds> bounds, int sequenceNum) {
+        this.id = id;
+        this.pageIndex = pageIndex;
+        this.bounds = bounds;
+        this.sequenceNum = sequenceNum;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getPageIndex() {
+        return pageIndex;
+    }
+
+    public List<Bounds> getBounds() {
+        return bounds;
+    }
+
+    public int getSequenceNum() {
+        return sequenceNum;
+    }
+
+    /**
+     * Returns the job in the form pdf_ext expects, with clips sent as [x0, y0, x1, y1].
+     */
+    public JsonObject toJson() {
+        JsonArrayBuilder clips = Json.createArrayBuilder();
+        if (bounds != null) {
+            for (Bounds bound : bounds) {
+                clips.add(
+                    Json.createArrayBuilder()
+                    .add(bound.getX())
+                    .add(bound.getY())
+                    .add(bound.getMaxX())
+                    .add(bound.getMaxY())
+                );
+            }
+        }
+
+        return Json.createObjectBuilder()
+        .add("id",          id)
+        .add("page",        pageIndex)
+        .add("clips",       clips)
+        .add("sequence",    sequenceNum)
+        .build();
+    }
+}
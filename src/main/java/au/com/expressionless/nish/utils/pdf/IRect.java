@@ -0,0 +1,84 @@
+package au.com.expressionless.nish.utils.pdf;
+
+/**
+ * Integer rectangle with the semantics of fitz.IRect, so layout queries match what pdf_ext.py
+ * computes. A rectangle is empty when it has no area.
+ */
+final class IRect {
+
+    static final IRect EMPTY = new IRect(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE);
+
+    final int x0;
+    final int y0;
+    final int x1;
+    final int y1;
+
+    IRect(int x0, int y0, int x1, int y1) {
+        this.x0 = x0;
+        this.y0 = y0;
+        this.x1 = x1;
+        this.y1 = y1;
+    }
+
+    /**
+     * Returns the smallest integer rectangle holding the given float rectangle.
+     */
+    static IRect containing(float x0, float y0, float x1, float y1) {
+        return new IRect((int) Math.floor(x0), (int) Math.floor(y0), (int) Math.ceil(x1), (int) Math.ceil(y1));
+    }
+
+    int width() {
+        return Math.max(0, x1 - x0);
+    }
+
+    int height() {
+        return Math.max(0, y1 - y0);
+    }
+
+    boolean isEmpty() {
+        return x0 >= x1 || y0 >= y1;
+    }
+
+    /**
+     * Returns the overlap of both rectangles, as fitz's {@code a & b}.
+     */
+    IRect and(IRect r) {
+        return new IRect(Math.max(x0, r.x0), Math.max(y0, r.y0), Math.min(x1, r.x1), Math.min(y1, r.y1));
+    }
+
+    /**
+     * Returns the smallest rectangle holding both rectangles, as fitz's {@code a | b}. Empty
+     * rectangles are ignored.
+     */
+    IRect or(IRect r) {
+        if (r.isEmpty())
+            return this;
+        if (isEmpty())
+            return r;
+        return new IRect(Math.min(x0, r.x0), Math.min(y0, r.y0), Math.max(x1, r.x1), Math.max(y1, r.y1));
+    }
+
+    boolean intersects(IRect r) {
+        return !isEmpty() && !r.isEmpty() && !and(r).isEmpty();
+    }
+
+    /**
+     * Returns whether or not r lies inside this rectangle, as fitz's {@code r in self}.
+     */
+    boolean contains(IRect r) {
+        return x0 <= r.x0 && y0 <= r.y0 && r.x1 <= x1 && r.y1 <= y1;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof IRect))
+            return false;
+        IRect r = (IRect) o;
+        return x0 == r.x0 && y0 == r.y0 && x1 == r.x1 && y1 == r.y1;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((x0 * 31 + y0) * 31 + x1) * 31 + y1;
+    }
+}
@@ -0,0 +1,224 @@
+package au.com.expressionless.nish.utils.pdf;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+
+import au.com.expressionless.nish.models.entity.edition.story.Bounds;
+
+/**
+ * LayoutIndex is the text layout of every page of an edition, extracted once by
+ * {@code pdf_ext.py --layout}. Selections are answered from the index by the same block and
+ * column rules extract.py applies to a live page, so text extraction needs no subprocess.
+ * <p>
+ * The index only keeps words, not characters, so a word counts as inside a selection when its
+ * centre is. Instances are immutable and safe to share between threads.
+ */
+public class LayoutIndex {
+
+    // header and footer ignored when no clip is given, as extract.py does
+    private static final int PAGE_MARGIN = 50;
+
+    // outlier rule for column boxes, as extract.py
+    private static final double OUTLIER_WIDTH_RATIO = 1.5;
+    private static final double OUTLIER_ASPECT = 0.6;
+
+    private final PageLayout[] pages;
+
+    private LayoutIndex(PageLayout[] pages) {
+        this.pages = pages;
+    }
+
+    /**
+     * Reads an index from the json printed by {@code pdf_ext.py --layout}.
+     */
+    public static LayoutIndex fromJson(JsonObject layout) {
+        JsonArray pageArray = layout.getJsonArray("pages");
+        PageLayout[] pages = new PageLayout[pageArray.size()];
+        for (int i = 0; i < pages.length; i++)
+            pages[i] = PageLayout.fromJson(pageArray.getJsonObject(i));
+        return new LayoutIndex(pages);
+    }
+
+    public int getPageCount() {
+        return pages.length;
+    }
+
+    /**
+     * Extracts text for a batch of jobs, returning each job's result keyed by job id in the
+     * format of pdf_ext.py. Returns null if a job refers to a page that doesn't exist.
+     * @param jobs Runs of selections to extract text from
+     */
+    public Map<Integer, JsonObject> getText(List<ExtractionJob> jobs) {
+        Map<Integer, JsonObject> results = new HashMap<>();
+        for (ExtractionJob job : jobs) {
+            JsonObject text = getText(job.getPageIndex(), job.getBounds());
+            if (text == null)
+                return null;
+            results.put(job.getId(), text);
+        }
+        return results;
+    }
+
+    /**
+     * Extracts text from sections of a page in the format of pdf_ext.py. Returns null if the page
+     * doesn't exist.
+     * @param pageIndex Index of the page (0 based) to retrieve text from
+     * @param bounds Sections of the page to extract text from, null or empty for the whole page
+     */
+    public JsonObject getText(int pageIndex, Collection<Bounds> bounds) {
+        if (pageIndex < 0 || pageIndex >= pages.length)
+            return null;
+        PageLayout page = pages[pageIndex];
+
+        // if no clip was specified, scan the whole page
+        List<IRect> clips = new ArrayList<>();
+        if (bounds == null || bounds.isEmpty()) {
+            clips.add(new IRect(page.rect.x0, page.rect.y0 + PAGE_MARGIN, page.rect.x1, page.rect.y1 - PAGE_MARGIN));
+        } else {
+            for (Bounds b : bounds)
+                clips.add(new IRect(b.getX(), b.getY(), b.getMaxX(), b.getMaxY()));
+        }
+
+        JsonArrayBuilder paragraphs = Json.createArrayBuilder();
+        JsonArrayBuilder other = Json.createArrayBuilder();
+        JsonArrayBuilder images = Json.createArrayBuilder();
+
+        // text blocks already used, and those used by earlier clips, which are no longer
+        // candidates for image text
+        BitSet used = new BitSet(page.blockCount());
+        BitSet extracted = new BitSet(page.blockCount());
+        Set<Integer> usedImages = new HashSet<>();
+        Comparator<Integer> byTop = Comparator.comparingInt(tb -> page.block(tb).y0);
+
+        for (IRect clip : clips) {
+
+            // if there are no text blocks to extract, we are done
+            if (extracted.cardinality() == page.blockCount())
+                break;
+
+            // generate columns in the given rect
+            List<IRect> bboxes = ColumnBoxes.find(page, clip);
+            if (bboxes.isEmpty())
+                continue;
+
+            // filters out wider or thinner boxes, using the middle box as python does, unsorted
+            double medianWidth = bboxes.get(bboxes.size() / 2).width();
+            List<IRect> main = new ArrayList<>();
+            List<IRect> outliers = new ArrayList<>();
+            for (IRect b : bboxes) {
+                if (b.width() / medianWidth < OUTLIER_WIDTH_RATIO || (double) b.height() / b.width() > OUTLIER_ASPECT)
+                    main.add(b);
+            }
+            for (IRect b : bboxes) {
+                if (!main.contains(b))
+                    outliers.add(b);
+            }
+            main.sort(Comparator.comparingInt(b -> b.x0));
+
+            // extract text from outlier bboxes
+            for (IRect outlier : outliers) {
+                for (int tb : intersecting(page, used, outlier, byTop)) {
+                    used.set(tb);
+                    other.add(normalise(page.blockTexts[tb]));
+                }
+            }
+
+            // go through each column and extract the text blocks
+            for (IRect column : main) {
+                List<Integer> columnBlocks = intersecting(page, used, column, byTop);
+                while (!columnBlocks.isEmpty()) {
+
+                    // blocks intersecting the next block in the column form one paragraph
+                    IRect head = page.block(columnBlocks.get(0));
+                    StringBuilder paragraph = new StringBuilder();
+                    List<Integer> rest = new ArrayList<>();
+                    for (int k = 0; k < columnBlocks.size(); k++) {
+                        int tb = columnBlocks.get(k);
+                        if (k == 0 || head.intersects(page.block(tb))) {
+                            used.set(tb);
+                            paragraph.append(normalise(page.blockTexts[tb]));
+                        } else {
+                            rest.add(tb);
+                        }
+                    }
+                    paragraphs.add(paragraph.toString());
+                    columnBlocks = rest;
+                }
+            }
+
+            // extract images
+            for (int i = 0; i < page.images.length; i++) {
+                int xref = page.imageXrefs[i];
+                if (usedImages.contains(xref) || !page.images[i].intersects(clip))
+                    continue;
+
+                JsonArrayBuilder imgText = Json.createArrayBuilder();
+                for (int tb : page.blocksNear(page.images[i])) {
+                    if (!extracted.get(tb) && page.images[i].contains(page.block(tb)))
+                        imgText.add(normalise(page.blockTexts[tb]));
+                }
+                images.add(
+                    Json.createObjectBuilder()
+                    .add("xref",    xref)
+                    .add("text",    imgText)
+                    .build()
+                );
+                usedImages.add(xref);
+            }
+
+            // filter text blocks to get the remaining text blocks
+            extracted.or(used);
+        }
+
+        return Json.createObjectBuilder()
+        .add("paragraphs",  paragraphs)
+        .add("other",       other)
+        .add("images",      images)
+        .build();
+    }
+
+    /**
+     * Returns the unused text blocks intersecting box, sorted by their top.
+     */
+    private static List<Integer> intersecting(PageLayout page, BitSet used, IRect box, Comparator<Integer> byTop) {
+        List<Integer> found = new ArrayList<>();
+        for (int tb : page.blocksNear(box)) {
+            if (!used.get(tb) && page.block(tb).intersects(box))
+                found.add(tb);
+        }
+        found.sort(byTop);
+        return found;
+    }
+
+    /**
+     * Collapses runs of whitespace into single spaces, as python's {@code ' '.join(s.split())}.
+     */
+    static String normalise(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        boolean space = false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = sb.length() > 0;
+                continue;
+            }
+            if (space)
+                sb.append(' ');
+            space = false;
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,401 @@
+package au.com.expressionless.nish.utils.pdf;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.io.RandomAccessReadBufferedFile;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.apache.pdfbox.text.TextPosition;
+import org.jboss.logging.Logger;
+
+import au.com.expressionless.nish.models.entity.edition.story.Bounds;
+
+/**
+ * Extracts text inside the JVM with PDFBox, following the paragraph and clip rules of pdf_ext.py.
+ * Words are grouped into lines, lines into blocks, and blocks into columns; within each clip the
+ * columns are read left to right and their blocks top to bottom, unusually wide blocks are
+ * reported as "other" text, and text already taken by an earlier clip is not repeated.
+ * Images are not located by this engine, so "images" is always empty.
+ */
+public class PDFBoxTextExtractor implements TextExtractor {
+
+    static final Logger log = Logger.getLogger(PDFBoxTextExtractor.class.getCanonicalName());
+
+    // header and footer ignored when no clip is given, same as pdf_ext.py
+    private static final float PAGE_MARGIN = 50;
+
+    // blocks this much wider than the median block are outliers unless they are tall and thin
+    private static final float OUTLIER_WIDTH_RATIO = 1.5f;
+    private static final float OUTLIER_ASPECT_RATIO = 0.6f;
+
+    // lines whose heights differ by more than this belong to different blocks, i.e. headlines
+    private static final float SAME_SIZE_RATIO = 1.3f;
+
+    private final ExecutorService executor;
+
+    /**
+     * PDFBoxTextExtractor constructor.
+     * @param threads Number of threads extracting text for {@link #getTextAsync(PDFWrapper, List)}
+     */
+    public PDFBoxTextExtractor(int threads) {
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, "pdfbox-text");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @Override
+    public JsonObject getText(PDFWrapper pdfWrapper, int pageIndex, Collection<Bounds> bounds) {
+        List<Bounds> clips = bounds == null ? null : new ArrayList<>(bounds);
+        Map<Integer, JsonObject> results = getText(
+            pdfWrapper, Collections.singletonList(new ExtractionJob(0, pageIndex, clips, 0))
+        );
+        return results == null ? null : results.get(0);
+    }
+
+    @Override
+    public Map<Integer, JsonObject> getText(PDFWrapper pdfWrapper, List<ExtractionJob> jobs) {
+        log.info("Extracting text from pdf...");
+        try (PDDocument doc = Loader.loadPDF(new RandomAccessReadBufferedFile(pdfWrapper.getFile()))) {
+
+            // each page is only read once per batch
+            List<ExtractionJob> ordered = new ArrayList<>(jobs);
+            ordered.sort(Comparator.comparingInt(ExtractionJob::getSequenceNum));
+            Map<Integer, List<Word>> pageWords = new HashMap<>();
+            Map<Integer, JsonObject> results = new HashMap<>();
+            for (ExtractionJob job : ordered) {
+                int pageIndex = job.getPageIndex();
+                if (pageIndex < 0 || pageIndex >= doc.getNumberOfPages())
+                    throw new IOException("Page number " + pageIndex + " does not exist");
+
+                List<Word> words = pageWords.get(pageIndex);
+                if (words == null) {
+                    words = readWords(doc, pageIndex);
+                    pageWords.put(pageIndex, words);
+                }
+                PDRectangle page = doc.getPage(pageIndex).getCropBox();
+                results.put(job.getId(), extractPage(words, page, job.getBounds()));
+            }
+
+            log.info("Text extraction was successful!");
+            return results;
+        } catch (IOException | RuntimeException e) {
+            log.error("Error occured during text extraction!");
+            log.error(e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public CompletableFuture<Map<Integer, JsonObject>> getTextAsync(PDFWrapper pdfWrapper, List<ExtractionJob> jobs) {
+        return CompletableFuture.supplyAsync(() -> getText(pdfWrapper, jobs), executor);
+    }
+
+    /**
+     * Reads every word on a page along with its position, in top-left page coordinates.
+     */
+    private static List<Word> readWords(PDDocument doc, int pageIndex) throws IOException {
+        List<Word> words = new ArrayList<>();
+        PDFTextStripper stripper = new PDFTextStripper() {
+            @Override
+            protected void writeString(String text, List<TextPosition> positions) {
+                Word word = Word.of(text, positions);
+                if (word != null)
+                    words.add(word);
+            }
+        };
+        stripper.setSortByPosition(true);
+        stripper.setStartPage(pageIndex + 1);
+        stripper.setEndPage(pageIndex + 1);
+        stripper.getText(doc);
+        return words;
+    }
+
+    /**
+     * Extracts the paragraphs and outlier text in each clip of a page, in the json format of
+     * pdf_ext.py.
+     */
+    private static JsonObject extractPage(List<Word> words, PDRectangle page, List<Bounds> bounds) {
+        JsonArrayBuilder paragraphs = Json.createArrayBuilder();
+        JsonArrayBuilder other = Json.createArrayBuilder();
+
+        // if no clip was specified, scan the whole page minus the header and footer
+        List<float[]> clips = new ArrayList<>();
+        if (bounds == null || bounds.isEmpty()) {
+            clips.add(new float[] { 0, PAGE_MARGIN, page.getWidth(), page.getHeight() - PAGE_MARGIN });
+        } else {
+            for (Bounds bound : bounds)
+                clips.add(new float[] { bound.getX(), bound.getY(), bound.getMaxX(), bound.getMaxY() });
+        }
+
+        Set<Word> used = new HashSet<>();
+        for (float[] clip : clips) {
+            List<Word> inClip = new ArrayList<>();
+            for (Word word : words) {
+                if (!used.contains(word) && word.centredIn(clip))
+                    inClip.add(word);
+            }
+            if (inClip.isEmpty())
+                continue;
+            used.addAll(inClip);
+
+            // split blocks into columns and outliers
+            List<Box> blocks = toBlocks(toLines(inClip));
+            List<Float> widths = new ArrayList<>();
+            for (Box block : blocks)
+                widths.add(block.width());
+            Collections.sort(widths);
+            float medianWidth = Math.max(1, widths.get(widths.size() / 2));
+
+            List<Box> main = new ArrayList<>();
+            List<Box> outliers = new ArrayList<>();
+            for (Box block : blocks) {
+                if (block.width() / medianWidth < OUTLIER_WIDTH_RATIO
+                    || block.height() / Math.max(1, block.width()) > OUTLIER_ASPECT_RATIO)
+                        main.add(block);
+                else
+                    outliers.add(block);
+            }
+
+            // outlier text top to bottom
+            outliers.sort(Comparator.comparingDouble(b -> b.y0));
+            for (Box block : outliers)
+                other.add(block.text());
+
+            // columns left to right, each column's paragraphs top to bottom
+            for (List<Box> column : toColumns(main)) {
+                column.sort(Comparator.comparingDouble(b -> b.y0));
+                for (Box block : column)
+                    paragraphs.add(block.text());
+            }
+        }
+
+        return Json.createObjectBuilder()
+        .add("paragraphs",  paragraphs)
+        .add("other",       other)
+        .add("images",      Json.createArrayBuilder())
+        .build();
+    }
+
+    /**
+     * Groups words sharing a baseline into lines, splitting a line wherever the gap between two
+     * words is wide enough to be a column gutter.
+     */
+    private static List<Box> toLines(List<Word> words) {
+        List<Word> sorted = new ArrayList<>(words);
+        sorted.sort(Comparator.<Word>comparingDouble(w -> w.y1).thenComparingDouble(w -> w.x0));
+
+        List<Box> lines = new ArrayList<>();
+        List<Word> row = new ArrayList<>();
+        for (Word word : sorted) {
+            if (!row.isEmpty()) {
+                Word first = row.get(0);
+                if (Math.abs(word.y1 - first.y1) > 0.5f * Math.min(word.height(), first.height())) {
+                    splitRow(row, lines);
+                    row.clear();
+                }
+            }
+            row.add(word);
+        }
+        if (!row.isEmpty())
+            splitRow(row, lines);
+        return lines;
+    }
+
+    private static void splitRow(List<Word> row, List<Box> lines) {
+        row.sort(Comparator.comparingDouble(w -> w.x0));
+        Box line = null;
+        Word previous = null;
+        for (Word word : row) {
+            if (line == null || word.x0 - previous.x1 > Math.max(word.height(), previous.height())) {
+                line = new Box();
+                lines.add(line);
+            }
+            line.add(word.x0, word.y0, word.x1, word.y1, word.text);
+            previous = word;
+        }
+    }
+
+    /**
+     * Groups lines into blocks. A line continues the block above it when the two are set in a
+     * similar size, overlap horizontally, and the line starts within a line's height of the
+     * block's last line.
+     */
+    private static List<Box> toBlocks(List<Box> lines) {
+        lines.sort(Comparator.<Box>comparingDouble(l -> l.y0).thenComparingDouble(l -> l.x0));
+
+        List<Box> blocks = new ArrayList<>();
+        List<Box> lastLines = new ArrayList<>();
+        for (Box line : lines) {
+            int match = -1;
+            for (int i = 0; i < blocks.size(); i++) {
+                Box last = lastLines.get(i);
+                float gap = line.y0 - last.y1;
+                float lineHeight = Math.min(line.height(), last.height());
+                boolean sameSize = Math.max(line.height(), last.height()) <= SAME_SIZE_RATIO * lineHeight;
+                if (sameSize && last.overlapX(line) >= 0.5f * Math.min(last.width(), line.width())
+                    && gap > -0.5f * lineHeight && gap < 0.8f * lineHeight) {
+                        match = i;
+                        break;
+                }
+            }
+
+            if (match < 0) {
+                Box block = new Box();
+                block.add(line);
+                blocks.add(block);
+                lastLines.add(line);
+            } else {
+                blocks.get(match).add(line);
+                lastLines.set(match, line);
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * Groups blocks into columns of horizontally overlapping blocks, ordered left to right.
+     */
+    private static List<List<Box>> toColumns(List<Box> blocks) {
+        List<Box> sorted = new ArrayList<>(blocks);
+        sorted.sort(Comparator.comparingDouble(b -> b.x0));
+
+        List<List<Box>> columns = new ArrayList<>();
+        List<Box> extents = new ArrayList<>();
+        for (Box block : sorted) {
+            int match = -1;
+            for (int i = 0; i < extents.size(); i++) {
+                if (extents.get(i).overlapX(block) >= 0.5f * block.width()) {
+                    match = i;
+                    break;
+                }
+            }
+
+            if (match < 0) {
+                List<Box> column = new ArrayList<>();
+                column.add(block);
+                columns.add(column);
+                Box extent = new Box();
+                extent.add(block.x0, block.y0, block.x1, block.y1, "");
+                extents.add(extent);
+            } else {
+                columns.get(match).add(block);
+                extents.get(match).add(block.x0, block.y0, block.x1, block.y1, "");
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * A word on the page, in top-left page coordinates.
+     */
+    private static class Word {
+        private final float x0;
+        private final float y0;
+        private final float x1;
+        private final float y1;
+        private final String text;
+
+        private Word(float x0, float y0, float x1, float y1, String text) {
+            this.x0 = x0;
+            this.y0 = y0;
+            this.x1 = x1;
+            this.y1 = y1;
+            this.text = text;
+        }
+
+        private static Word of(String text, List<TextPosition> positions) {
+            if (text == null || text.isBlank() || positions == null || positions.isEmpty())
+                return null;
+
+            float x0 = Float.MAX_VALUE;
+            float x1 = -Float.MAX_VALUE;
+            float baseline = -Float.MAX_VALUE;
+            float height = 0;
+            for (TextPosition position : positions) {
+                x0 = Math.min(x0, position.getXDirAdj());
+                x1 = Math.max(x1, position.getXDirAdj() + position.getWidthDirAdj());
+                baseline = Math.max(baseline, position.getYDirAdj());
+                height = Math.max(height, position.getHeightDir());
+            }
+
+            // some fonts report no glyph height
+            if (height <= 0)
+                height = positions.get(0).getFontSizeInPt();
+            return new Word(x0, baseline - height, x1, baseline, text.trim());
+        }
+
+        private float height() {
+            return Math.max(1, y1 - y0);
+        }
+
+        private boolean centredIn(float[] clip) {
+            float cx = (x0 + x1) / 2;
+            float cy = (y0 + y1) / 2;
+            return cx >= clip[0] && cx <= clip[2] && cy >= clip[1] && cy <= clip[3];
+        }
+    }
+
+    /**
+     * A line or block of text, with the bounding box of everything added to it.
+     */
+    private static class Box {
+        private float x0 = Float.MAX_VALUE;
+        private float y0 = Float.MAX_VALUE;
+        private float x1 = -Float.MAX_VALUE;
+        private float y1 = -Float.MAX_VALUE;
+        private final StringBuilder text = new StringBuilder();
+
+        private void add(float x0, float y0, float x1, float y1, String text) {
+            this.x0 = Math.min(this.x0, x0);
+            this.y0 = Math.min(this.y0, y0);
+            this.x1 = Math.max(this.x1, x1);
+            this.y1 = Math.max(this.y1, y1);
+            if (!text.isEmpty()) {
+                if (this.text.length() > 0)
+                    this.text.append(' ');
+                this.text.append(text);
+            }
+        }
+
+        private void add(Box box) {
+            add(box.x0, box.y0, box.x1, box.y1, box.text.toString());
+        }
+
+        private float width() {
+            return x1 - x0;
+        }
+
+        private float height() {
+            return Math.max(1, y1 - y0);
+        }
+
+        private float overlapX(Box other) {
+            return Math.min(x1, other.x1) - Math.max(x0, other.x0);
+        }
+
+        // whitespace is collapsed, same as pdf_ext.py
+        private String text() {
+            return String.join(" ", text.toString().trim().split("\\s+"));
+        }
+    }
+}
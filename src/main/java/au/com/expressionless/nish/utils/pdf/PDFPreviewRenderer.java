@@ -0,0 +1,102 @@
+package au.com.expressionless.nish.utils.pdf;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.imgscalr.Scalr;
+
+/**
+ * PDFPreviewRenderer renders pages of a PDF file at a set of widths. Each page is rendered once,
+ * straight at the largest width, and every smaller width is scaled down from that raster. A
+ * PDDocument can't be shared between threads, so each call loads its own.
+ */
+public class PDFPreviewRenderer {
+
+    private final File file;
+    private final int[] widths;
+
+    /**
+     * Consumes the jpeg previews of a page once they are rendered.
+     */
+    @FunctionalInterface
+    public interface PreviewConsumer {
+        void accept(int pageIndex, int width, byte[] jpeg) throws IOException;
+    }
+
+    /**
+     * PDFPreviewRenderer constructor.
+     * @param file A PDF file.
+     * @param widths Widths in pixels to render each page at.
+     */
+    public PDFPreviewRenderer(File file, int... widths) {
+        this.file = file;
+        this.widths = widths.clone();
+        Arrays.sort(this.widths);
+    }
+
+    /**
+     * Returns the number of pages in the PDF.
+     */
+    public int getPageCount() throws IOException {
+        try (PDDocument document = Loader.loadPDF(file)) {
+            return document.getNumberOfPages();
+        }
+    }
+
+    /**
+     * Renders pages from (inclusive) to to (exclusive), passing each preview to the consumer.
+     * @param from Index of the first page (0 based) to render.
+     * @param to Index after the last page to render.
+     * @param consumer Consumer of the rendered previews.
+     */
+    public void render(int from, int to, PreviewConsumer consumer) throws IOException {
+        try (PDDocument document = Loader.loadPDF(file)) {
+            PDFRenderer renderer = new PDFRenderer(document);
+            renderer.setSubsamplingAllowed(true);
+            for (int pageIndex = from; pageIndex < to; pageIndex++)
+                render(document, renderer, pageIndex, consumer);
+        }
+    }
+
+    private void render(PDDocument document, PDFRenderer renderer, int pageIndex, PreviewConsumer consumer)
+        throws IOException {
+
+            // widths are sorted, so each smaller width scales down from the one before it
+            int largest = widths[widths.length - 1];
+            float dpi = PDFThumbnailBuilder.targetDPI(document.getPage(pageIndex), largest);
+
+            // counts against the same limit as thumbnails while the rasters are held, the jpegs are
+            // only handed over once it's released so consumers uploading them don't hold it
+            byte[][] jpegs = new byte[widths.length][];
+            PDFThumbnailBuilder.acquireRender();
+            try {
+                BufferedImage image = renderer.renderImageWithDPI(pageIndex, dpi, ImageType.RGB);
+                jpegs[widths.length - 1] = jpeg(image);
+
+                for (int i = widths.length - 2; i >= 0; i--) {
+                    image = Scalr.resize(image, Scalr.Method.BALANCED, Scalr.Mode.FIT_TO_WIDTH, widths[i]);
+                    jpegs[i] = jpeg(image);
+                }
+            } finally {
+                PDFThumbnailBuilder.releaseRender();
+            }
+
+            for (int i = widths.length - 1; i >= 0; i--)
+                consumer.accept(pageIndex, widths[i], jpegs[i]);
+    }
+
+    private static byte[] jpeg(BufferedImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpeg", out);
+        return out.toByteArray();
+    }
+}
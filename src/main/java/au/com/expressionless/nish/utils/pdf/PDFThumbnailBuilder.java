@@ -1,31 +1,72 @@
 package au.com.expressionless.nish.utils.pdf;
 
+import static au.com.expressionless.nish.constants.Config.*;
+
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.awt.image.BufferedImage;
 
 import org.apache.pdfbox.Loader;
 import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
 import org.apache.pdfbox.rendering.ImageType;
 import org.apache.pdfbox.rendering.PDFRenderer;
 import org.imgscalr.Scalr;
+import org.jboss.logging.Logger;
+
+import au.com.expressionless.nish.utils.GeneralUtils;
 
 /**
- * PDFThumbnailBuilder is a builder that generates PDF thumbnails
+ * PDFThumbnailBuilder is a builder that generates PDF thumbnails. Only a bounded number of
+ * thumbnails and previews are rendered at once across the server, since each render holds a full
+ * page raster.
  */
 public class PDFThumbnailBuilder {
 
+    static final Logger log = Logger.getLogger(PDFThumbnailBuilder.class.getCanonicalName());
+
+    /**
+     * Trade off between render time and thumbnail quality.
+     */
+    public enum Mode {
+        // renders straight at the thumbnail's width, no downscale
+        FAST,
+        // renders at twice the thumbnail's width, then downscales once
+        BALANCED,
+        // renders at the builder's DPI, then downscales with ULTRA_QUALITY
+        QUALITY
+    }
+
+    // times the thumbnail width BALANCED renders at
+    private static final int BALANCED_OVERSAMPLE = 2;
+
+    // pdf user space units per inch
+    private static final float POINTS_PER_INCH = 72f;
+
     // default arguments
     private static final int DEFAULT_PAGE_INDEX = 0;
     private static final int DEFAULT_PAGE_SIZE = 600;
     private static final int DEFAULT_DPI = 300;
+    private static final Mode DEFAULT_MODE = parseMode(GeneralUtils.getSystemEnv(ENV_THUMBNAIL_MODE, Mode.BALANCED.name()));
 
-    // fields
+    // shared with PDFPreviewRenderer, as both hold a full page raster while rendering
+    private static final Semaphore RENDERS = new Semaphore(Integer.parseInt(GeneralUtils.getSystemEnv(
+        ENV_THUMBNAIL_MAX_RENDERS,
+        String.valueOf(Math.max(1, Runtime.getRuntime().availableProcessors() / 2))
+    )), true);
+
+    // fields, the PDF is read from file when there is one
+    private final File file;
     private final byte[] pdfData;
     private int pageIndex;
     private int size;
     private int dpi;
+    private Mode mode;
 
     /**
      * PDFThumbnailBuilder constructor. File must be a proper PDF or else builder().build() will 
@@ -33,10 +74,14 @@ public class PDFThumbnailBuilder {
      * @param file A PDF file.
      */
     private PDFThumbnailBuilder(File file) throws IOException {
-        pdfData = Files.readAllBytes(file.toPath());
+        if (!file.isFile())
+            throw new FileNotFoundException(file.getPath());
+        this.file = file;
+        pdfData = null;
         pageIndex = DEFAULT_PAGE_INDEX;
         size = DEFAULT_PAGE_SIZE;
         dpi = DEFAULT_DPI;
+        mode = DEFAULT_MODE;
     }
 
     /**
@@ -45,10 +90,12 @@ public class PDFThumbnailBuilder {
      * @param bytes Byte array holding PDF data.
      * */
     private PDFThumbnailBuilder(byte[] bytes) {
+        file = null;
         pdfData = bytes;
         pageIndex = DEFAULT_PAGE_INDEX;
         size = DEFAULT_PAGE_SIZE;
         dpi = DEFAULT_DPI;
+        mode = DEFAULT_MODE;
     }
 
     /**
@@ -89,7 +136,8 @@ public class PDFThumbnailBuilder {
 
     /**
      * Sets the dpi of the PDF thumbnail. The higher the dpi, the more time  needed to generate 
-     * the thumbnail.
+     * the thumbnail. Only used by {@link Mode#QUALITY}, the other modes work out the dpi from
+     * the page size.
      * @param dpi DPI of the PDF thumbnail
      */
     public PDFThumbnailBuilder setDPI(int dpi) {
@@ -97,22 +145,99 @@ public class PDFThumbnailBuilder {
         return this;
     }
 
+    /**
+     * Sets how the PDF thumbnail is rendered. Defaults to THUMBNAIL_MODE, or BALANCED if unset.
+     * @param mode Render mode of the PDF thumbnail
+     */
+    public PDFThumbnailBuilder setMode(Mode mode) {
+        this.mode = mode;
+        return this;
+    }
+
     /**
      * Generates the PDF thumbnail. Returns a BufferedImage with jpeg image data of the PDF 
-     * thumbnail. 
+     * thumbnail. Blocks while too many other thumbnails are being rendered.
      */
     public BufferedImage build() throws IOException {
+        acquireRender();
+        long start = System.nanoTime();
+        try (PDDocument document = file != null ? Loader.loadPDF(file) : Loader.loadPDF(pdfData)) {
+            BufferedImage thumbnailBI = render(document);
+            log.debug(
+                mode + " thumbnail rendered in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms"
+            );
+            return thumbnailBI;
+        } finally {
+            releaseRender();
+        }
+    }
+
+    /**
+     * Returns the mode named, ignoring case, or BALANCED if there is no such mode. A bad value
+     * mustn't stop the class loading, as every thumbnail would then fail.
+     */
+    private static Mode parseMode(String name) {
+        try {
+            return Mode.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            log.warn("Unknown thumbnail mode `" + name + "`, using " + Mode.BALANCED);
+            return Mode.BALANCED;
+        }
+    }
+
+    /**
+     * Waits for a render permit. Anything rendering a page raster must hold one, and release it
+     * with {@link #releaseRender()} once done with the raster.
+     */
+    static void acquireRender() throws InterruptedIOException {
+        try {
+            RENDERS.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting to render");
+        }
+    }
+
+    static void releaseRender() {
+        RENDERS.release();
+    }
 
-        // Try to generate a pdf
-        try(PDDocument document = Loader.loadPDF(pdfData)) {
-            PDFRenderer renderer = new PDFRenderer(document);
+    private BufferedImage render(PDDocument document) throws IOException {
+        PDFRenderer renderer = new PDFRenderer(document);
+
+        if (mode == Mode.QUALITY) {
             BufferedImage thumbnailBI = renderer.renderImageWithDPI(pageIndex, dpi, ImageType.RGB);
             return Scalr.resize(
                 thumbnailBI, 
                 Scalr.Method.ULTRA_QUALITY, 
                 Scalr.Mode.FIT_TO_WIDTH, 
                 size
-            );        
-        } 
-    } 
+            );
+        }
+
+        // images embedded in the page never need more detail than the raster can show
+        renderer.setSubsamplingAllowed(true);
+        float targetDPI = targetDPI(document.getPage(pageIndex), size);
+        if (mode == Mode.FAST)
+            return renderer.renderImageWithDPI(pageIndex, targetDPI, ImageType.RGB);
+
+        BufferedImage thumbnailBI = renderer.renderImageWithDPI(pageIndex, targetDPI * BALANCED_OVERSAMPLE, ImageType.RGB);
+        return Scalr.resize(
+            thumbnailBI,
+            Scalr.Method.BALANCED,
+            Scalr.Mode.FIT_TO_WIDTH,
+            size
+        );
+    }
+
+    /**
+     * Returns the dpi that makes a page come out exactly width pixels wide. The renderer draws
+     * the crop box, which defaults to the MediaBox, turned by the page's rotation.
+     */
+    static float targetDPI(PDPage page, int width) {
+        PDRectangle box = page.getCropBox();
+        boolean sideways = Math.floorMod(page.getRotation(), 180) == 90;
+        return width * POINTS_PER_INCH / (sideways ? box.getHeight() : box.getWidth());
+    }
 }
@@ -0,0 +1,168 @@
+package au.com.expressionless.nish.utils.pdf;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Wraps an uploaded PDF so that a single read of it, i.e. by a MinIO put, also checks the
+ * {@code %PDF-} header as soon as it arrives, computes its SHA-256 and spools it to a file. The
+ * trailer is checked by {@link #isPDF()} once the stream has been read to the end. Reading fails
+ * as soon as the header is found to be wrong.
+ */
+public class PDFUploadStream extends FilterInputStream {
+
+    private static final byte[] HEADER = { 0x25, 0x50, 0x44, 0x46, 0x2D }; // %PDF-
+
+    // header and version, as PDFWrapper maps from a file
+    private static final int HEADER_SIZE = 8;
+    private static final int TRAILER_SIZE = 8;
+
+    private final OutputStream spool;
+    private final MessageDigest digest;
+
+    private final byte[] header = new byte[HEADER_SIZE];
+    private final byte[] trailer = new byte[TRAILER_SIZE];
+    private long length;
+    private boolean invalid;
+    private boolean eof;
+
+    /**
+     * PDFUploadStream constructor.
+     * @param in The uploaded PDF
+     * @param spoolFile File the PDF is copied to as it is read, replaced if it exists
+     */
+    public PDFUploadStream(InputStream in, File spoolFile) throws IOException {
+        super(in);
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        spool = new BufferedOutputStream(new FileOutputStream(spoolFile));
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int n = read(b, 0, 1);
+        return n < 0 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (invalid)
+            throw new IOException("Upload is not a PDF file");
+
+        int n = in.read(b, off, len);
+        if (n < 0) {
+            eof = true;
+            spool.flush();
+            return n;
+        }
+        accept(b, off, n);
+        return n;
+    }
+
+    /**
+     * Skipped bytes are still read, so they are hashed and spooled.
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] buf = new byte[(int) Math.min(n, 8192)];
+        long skipped = 0;
+        while (skipped < n) {
+            int r = read(buf, 0, (int) Math.min(buf.length, n - skipped));
+            if (r < 0)
+                break;
+            skipped += r;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+        /* not supported */
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            in.close();
+        } finally {
+            spool.close();
+        }
+    }
+
+    private void accept(byte[] b, int off, int n) throws IOException {
+        digest.update(b, off, n);
+        spool.write(b, off, n);
+
+        // check the header as soon as its bytes arrive
+        if (length < HEADER_SIZE) {
+            int count = (int) Math.min(n, HEADER_SIZE - length);
+            System.arraycopy(b, off, header, (int) length, count);
+            for (int i = (int) length; i < Math.min(length + count, HEADER.length); i++) {
+                if (header[i] != HEADER[i]) {
+                    invalid = true;
+                    throw new IOException("Upload is not a PDF file");
+                }
+            }
+        }
+
+        // keep the last bytes for the trailer check
+        if (n >= TRAILER_SIZE) {
+            System.arraycopy(b, off + n - TRAILER_SIZE, trailer, 0, TRAILER_SIZE);
+        } else {
+            System.arraycopy(trailer, n, trailer, 0, TRAILER_SIZE - n);
+            System.arraycopy(b, off, trailer, TRAILER_SIZE - n, n);
+        }
+        length += n;
+    }
+
+    /**
+     * Returns whether or not the stream was read to the end and held a PDF file.
+     */
+    public boolean isPDF() {
+        if (invalid || !eof)
+            return false;
+        int trailerLength = (int) Math.min(length, TRAILER_SIZE);
+        ByteBuffer trailerBuffer = ByteBuffer.wrap(trailer, TRAILER_SIZE - trailerLength, trailerLength).slice();
+        return PDFWrapper.isPDF(ByteBuffer.wrap(header), trailerBuffer, length);
+    }
+
+    /**
+     * Returns the number of bytes read.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Returns the SHA-256 of the bytes read, in hex. Only call once the stream has been read to
+     * the end.
+     */
+    public String getSha256() {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest())
+            sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+}
@@ -3,10 +3,19 @@ package au.com.expressionless.nish.utils.pdf;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonException;
 import javax.json.JsonObject;
 import javax.json.JsonReader;
 import javax.json.Json;
@@ -15,6 +24,7 @@ import javax.ws.rs.BadRequestException;
 import org.jboss.logging.Logger;
 
 import au.com.expressionless.nish.models.entity.edition.story.Bounds;
+import au.com.expressionless.nish.utils.python.PyScheduler;
 import au.com.expressionless.nish.utils.python.PyScriptResult;
 import au.com.expressionless.nish.utils.python.PyScriptRunner;
 
@@ -23,10 +33,15 @@ import au.com.expressionless.nish.utils.python.PyScriptRunner;
  *  which includes text extraction, image extraction 
  *  and thumbnail generation.
  */
-public class PDFWrapper {
+public class PDFWrapper implements AutoCloseable {
    
+    // bytes mapped from either end of a file to validate it
+    private static final int HEADER_SIZE = 8;
+    private static final int TRAILER_SIZE = 8;
+
     private final File file;
     private final byte[] pdfData;
+    private File spooledFile;
 
     static final Logger log = Logger.getLogger(PDFWrapper.class.getCanonicalName());
 
@@ -37,12 +52,12 @@ public class PDFWrapper {
     public PDFWrapper(File file) throws IOException, BadRequestException {
         
         // check that the PDF file is both not null and a proper PDF file
-        byte[] bytes = Files.readAllBytes(file.toPath());
-        if (!isPDF(bytes))
+        // only the header and trailer are mapped, the file is never read into memory
+        if (!isPDF(file))
             throw new BadRequestException("File is not a valid PDF file!");
 
         this.file = file;
-        this.pdfData = bytes;
+        this.pdfData = null;
     }
 
     /**
@@ -70,6 +85,35 @@ public class PDFWrapper {
         this.file = null;
     }
 
+    /**
+     * Returns a file holding the PDF. PDFs without an associated file are spooled to a temporary
+     * file the first time this is called, which is removed again by {@link #close()}.
+     */
+    public synchronized File getFile() throws IOException {
+        if (file != null)
+            return file;
+
+        if (spooledFile == null) {
+            File tmp = File.createTempFile("pdf-", ".pdf");
+            tmp.deleteOnExit();
+            Files.write(tmp.toPath(), pdfData);
+            spooledFile = tmp;
+        }
+        return spooledFile;
+    }
+
+    /**
+     * Removes the temporary file created by {@link #getFile()}, if any. Files passed into this
+     * wrapper are never deleted.
+     */
+    @Override
+    public synchronized void close() {
+        if (spooledFile != null) {
+            spooledFile.delete();
+            spooledFile = null;
+        }
+    }
+
     /**
      * Extracts text from a  a page in the PDF. Returns a JSON object as a string. If the text 
      * extraction is unsuccessful, this method returns null.
@@ -126,6 +170,103 @@ public class PDFWrapper {
             } 
         }
 
+        return runExtraction(args);
+    }
+
+    /**
+     * Extracts text for a batch of jobs in one run of pdf_ext, so the PDF is only parsed once.
+     * Returns each job's result keyed by job id, or null if the text extraction is unsuccessful.
+     * @param jobs Runs of selections to extract text from.
+     * @return A map of job id to the JSON object extracted for that job, returns null on failure.
+     */
+    public Map<Integer, JsonObject> getText(List<ExtractionJob> jobs) {
+        JsonObject text = runExtraction(jobArgs(jobs));
+        if (text == null)
+            return null;
+        return parseJobResults(text.getJsonObject("jobs"));
+    }
+
+    /**
+     * Extracts text for a batch of jobs like {@link #getText(List)}, without blocking the calling
+     * thread. The future completes with null if the text extraction is unsuccessful.
+     * @param jobs Runs of selections to extract text from.
+     */
+    public CompletableFuture<Map<Integer, JsonObject>> getTextAsync(List<ExtractionJob> jobs) {
+        log.info("Extracting text from pdf...");
+        return new PyScriptRunner("pdf_ext/pdf_ext.py")
+        .setStdinData((file == null) ? pdfData : null)
+        .setArgs(jobArgs(jobs))
+        .setTimeout(10)
+        .setLane(PyScheduler.Lane.INTERACTIVE)
+        .runAsync()
+        .thenApply(result -> {
+
+            // script timed out
+            if (result == null) {
+                log.error("Text extraction script timed out!");
+                return null;
+            }
+
+            try (JsonReader reader = Json.createReader(result.getStdout())) {
+
+                // script ran but there was an error in the script
+                if (result.getExitValue() != 0) {
+                    log.error("Error occured during text extraction!");
+                    log.error(new String(result.getStderrData()));
+                    return null;
+                }
+
+                log.info("Text extraction was successful!");
+                return parseJobResults(reader.readObject().getJsonObject("jobs"));
+            } catch (IOException | JsonException e) {
+                log.error(e.getMessage());
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Builds the pdf_ext arguments for a batch of jobs.
+     */
+    private List<String> jobArgs(List<ExtractionJob> jobs) {
+
+        // --file-path file.pdf or --stdin, as for a single page
+        List<String> args = new ArrayList<>();
+        if (file != null) {
+            args.add("--file-path");
+            args.add(file.toString());
+        } else {
+            args.add("--stdin");
+        }
+
+        // --jobs [{"id", "page", "clips", "sequence"}]
+        JsonArrayBuilder jobArray = Json.createArrayBuilder();
+        for (ExtractionJob job : jobs)
+            jobArray.add(job.toJson());
+        args.add("--jobs");
+        args.add(jobArray.build().toString());
+        return args;
+    }
+
+    /**
+     * Converts the job results returned by pdf_ext, keyed by job id as a string, into a map.
+     * Returns null if the results are missing.
+     */
+    public static Map<Integer, JsonObject> parseJobResults(JsonObject results) {
+        if (results == null)
+            return null;
+
+        Map<Integer, JsonObject> jobResults = new HashMap<>();
+        for (String key : results.keySet())
+            jobResults.put(Integer.valueOf(key), results.getJsonObject(key));
+        return jobResults;
+    }
+
+    /**
+     * Runs pdf_ext with the given arguments, returning the JSON it prints or null on failure.
+     */
+    private JsonObject runExtraction(List<String> args) {
+
         // run the script and get the results
         // TODO: Perhaps make the non-existance of a file more obvious 
         try {
@@ -135,16 +276,26 @@ public class PDFWrapper {
             .setStdinData((file == null) ? pdfData : null)
             .setArgs(args)
             .setTimeout(10)
-            .run();
+            .setLane(PyScheduler.Lane.INTERACTIVE)
+            .stream();
+
+            // parse json into jsonObject as it arrives
+            JsonObject text = null;
+            try (JsonReader reader = Json.createReader(result.getStdout())) {
+                text = reader.readObject();
+            } catch (JsonException e) {
+                log.debug("Could not parse text extraction output: " + e.getMessage());
+            }
+            int exitValue = result.waitFor();
 
             // script timed out
-            if (result == null) {
+            if (result.hasTimedOut()) {
                 log.error("Text extraction script timed out!");
                 return null;
             }
 
             // script ran but there was an error in the script
-            if (result.getExitValue() != 0) {
+            if (exitValue != 0 || text == null) {
                 log.error("Error occured during text extraction!");
                 log.error(new String(result.getStderrData()));
                 return null;
@@ -153,12 +304,7 @@ public class PDFWrapper {
             // script ran successfully  
             log.info("Text extraction was successful!");
             log.info(result.toString());
-
-
-
-            // parse json into jsonObject
-            JsonReader reader = Json.createReader(result.getStdout());
-            return reader.readObject();
+            return text;
         } catch (IOException | InterruptedException e) {
             log.error(e.getMessage());
             return null;
@@ -174,8 +320,7 @@ public class PDFWrapper {
 
         // generate thumbnail
         try {
-            return PDFThumbnailBuilder
-            .builder(pdfData)
+            return (file != null ? PDFThumbnailBuilder.builder(file) : PDFThumbnailBuilder.builder(pdfData))
             .fromPage(0)
             .setSize(600)
             .setDPI(300)
@@ -191,49 +336,81 @@ public class PDFWrapper {
      * PDF file. Taken from https://stackoverflow.com/a/35517156
      */
     private boolean isPDF(byte[] data) {
+        if (data == null) {
+            log.debug("Invalid Data!");
+            return false;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        return isPDF(buffer, buffer, data.length);
+    }
+
+    /**
+     * Returns whether or not a file is a PDF file, mapping only its header and trailer.
+     */
+    private boolean isPDF(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < 5) {
+                log.debug("Invalid Data!");
+                return false;
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(length, HEADER_SIZE));
+            long trailerStart = Math.max(0, length - TRAILER_SIZE);
+            ByteBuffer trailer = channel.map(FileChannel.MapMode.READ_ONLY, trailerStart, length - trailerStart);
+            return isPDF(header, trailer, length);
+        }
+    }
+
+    /**
+     * Checks the header and trailer of a PDF. The header starts at the start of the file and the
+     * trailer ends at its end, only the last {@link #TRAILER_SIZE} bytes of it are scanned.
+     */
+    static boolean isPDF(ByteBuffer header, ByteBuffer trailer, long length) {
 
         log.debug("Checking pdf...");
         // scan header for %PDF-
-        if (data == null || data.length < 5) {
+        if (length < 5) {
             log.debug("Invalid Data!");
             return false;
         }
 
-        if (data[0] == 0x25 && // %
-            data[1] == 0x50 && // P
-            data[2] == 0x44 && // D
-            data[3] == 0x46 && // F
-            data[4] == 0x2D) { // -
+        if (header.get(0) == 0x25 && // %
+            header.get(1) == 0x50 && // P
+            header.get(2) == 0x44 && // D
+            header.get(3) == 0x46 && // F
+            header.get(4) == 0x2D) { // -
             
             // check last 8 bytes for %%EOF with optional white-space
-            int offset = data.length - 8; 
+            int end = trailer.limit();
+            int offset = Math.max(0, end - TRAILER_SIZE);
             int count = 0;            
             boolean hasSpace = false;
             boolean hasCr = false;
             boolean hasLf = false;
-            while (offset < data.length) {
-                if (count == 0 && data[offset] == 0x25) count++; // % 
-                if (count == 1 && data[offset] == 0x25) count++; // %
-                if (count == 2 && data[offset] == 0x45) count++; // E
-                if (count == 3 && data[offset] == 0x4F) count++; // O 
-                if (count == 4 && data[offset] == 0x46) count++; // F 
+            while (offset < end) {
+                byte b = trailer.get(offset);
+                if (count == 0 && b == 0x25) count++; // % 
+                if (count == 1 && b == 0x25) count++; // %
+                if (count == 2 && b == 0x45) count++; // E
+                if (count == 3 && b == 0x4F) count++; // O 
+                if (count == 4 && b == 0x46) count++; // F 
 
                 // optional flags for meta info
-                if (count == 5 && data[offset] == 0x20) hasSpace = true; 
-                if (count == 5 && data[offset] == 0x0D) hasCr    = true; 
-                if (count == 5 && data[offset] == 0x0A) hasLf    = true; 
+                if (count == 5 && b == 0x20) hasSpace = true; 
+                if (count == 5 && b == 0x0D) hasCr    = true; 
+                if (count == 5 && b == 0x0A) hasLf    = true; 
                 offset++;
             }
     
             // PDF is valid if %%EOF was found at the end of the file
             // print version of PDF to debug
             if (count == 5) {
-                String version = data.length <= 13 
+                String version = length <= 13 
                 ? "?"
                 : new StringBuilder()
-                    .append((char)data[5])
-                    .append((char)data[6])
-                    .append((char)data[7])
+                    .append((char)header.get(5))
+                    .append((char)header.get(6))
+                    .append((char)header.get(7))
                     .toString();
 
                 log.debug(
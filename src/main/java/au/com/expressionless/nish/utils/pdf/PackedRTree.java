@@ -0,0 +1,193 @@
+package au.com.expressionless.nish.utils.pdf;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.function.IntConsumer;
+
+/**
+ * Static R-tree over integer rectangles, bulk loaded with Sort-Tile-Recursive and packed into
+ * primitive arrays. Each level is sorted into vertical slices by centre x, then by centre y within
+ * a slice, and grouped {@link #NODE_SIZE} at a time into the level above.
+ * <p>
+ * Queries report every rectangle overlapping the query, edges included, so callers apply their
+ * exact intersection or containment test to a handful of candidates instead of every rectangle.
+ * Instances are immutable and safe to share between threads.
+ */
+public final class PackedRTree {
+
+    public static final int NODE_SIZE = 16;
+
+    private static final PackedRTree EMPTY = new PackedRTree(0, new int[0], new int[0], new int[0]);
+
+    private final int size;
+
+    // boxes of the items, then of each level of nodes up to the root, 4 coordinates each
+    private final int[] boxes;
+
+    // item id for items, position of the first child for nodes
+    private final int[] indices;
+
+    // position one past the end of each level, leaves first
+    private final int[] levelEnds;
+
+    private PackedRTree(int size, int[] boxes, int[] indices, int[] levelEnds) {
+        this.size = size;
+        this.boxes = boxes;
+        this.indices = indices;
+        this.levelEnds = levelEnds;
+    }
+
+    /**
+     * Builds a tree over rectangles packed as [x0, y0, x1, y1, ...]. Item ids are the index of
+     * each rectangle.
+     */
+    public static PackedRTree build(int[] rects) {
+        int n = rects.length / 4;
+        if (n == 0)
+            return EMPTY;
+
+        // count the nodes on every level
+        int levels = 1;
+        int total = n;
+        for (int count = n; count > 1; levels++) {
+            count = (count + NODE_SIZE - 1) / NODE_SIZE;
+            total += count;
+        }
+
+        int[] boxes = new int[total * 4];
+        int[] indices = new int[total];
+        int[] levelEnds = new int[levels];
+
+        // the current level is staged here before being sorted into place
+        int[] levelBoxes = Arrays.copyOf(rects, n * 4);
+        int[] levelIndices = new int[n];
+        for (int i = 0; i < n; i++)
+            levelIndices[i] = i;
+
+        int pos = 0;
+        for (int level = 0; level < levels; level++) {
+            int count = levelIndices.length;
+            Integer[] order = strOrder(levelBoxes, count);
+            for (int k = 0; k < count; k++) {
+                int from = order[k];
+                System.arraycopy(levelBoxes, from * 4, boxes, (pos + k) * 4, 4);
+                indices[pos + k] = levelIndices[from];
+            }
+            int start = pos;
+            pos += count;
+            levelEnds[level] = pos;
+            if (count == 1)
+                break;
+
+            // group runs of sorted nodes under a parent
+            int parents = (count + NODE_SIZE - 1) / NODE_SIZE;
+            levelBoxes = new int[parents * 4];
+            levelIndices = new int[parents];
+            for (int p = 0; p < parents; p++) {
+                int first = start + p * NODE_SIZE;
+                int last = Math.min(first + NODE_SIZE, pos);
+                int x0 = Integer.MAX_VALUE, y0 = Integer.MAX_VALUE;
+                int x1 = Integer.MIN_VALUE, y1 = Integer.MIN_VALUE;
+                for (int c = first; c < last; c++) {
+                    x0 = Math.min(x0, boxes[c * 4]);
+                    y0 = Math.min(y0, boxes[c * 4 + 1]);
+                    x1 = Math.max(x1, boxes[c * 4 + 2]);
+                    y1 = Math.max(y1, boxes[c * 4 + 3]);
+                }
+                levelBoxes[p * 4] = x0;
+                levelBoxes[p * 4 + 1] = y0;
+                levelBoxes[p * 4 + 2] = x1;
+                levelBoxes[p * 4 + 3] = y1;
+                levelIndices[p] = first;
+            }
+        }
+        return new PackedRTree(n, boxes, indices, levelEnds);
+    }
+
+    /**
+     * Returns the order that tiles count boxes into vertical slices of whole nodes.
+     */
+    private static Integer[] strOrder(int[] boxes, int count) {
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++)
+            order[i] = i;
+        if (count <= NODE_SIZE)
+            return order;
+
+        // doubled centres avoid rounding
+        Comparator<Integer> byX = Comparator.comparingLong(i -> (long) boxes[i * 4] + boxes[i * 4 + 2]);
+        Comparator<Integer> byY = Comparator.comparingLong(i -> (long) boxes[i * 4 + 1] + boxes[i * 4 + 3]);
+        Arrays.sort(order, byX);
+
+        int nodes = (count + NODE_SIZE - 1) / NODE_SIZE;
+        int slices = (int) Math.ceil(Math.sqrt(nodes));
+        int sliceSize = NODE_SIZE * ((nodes + slices - 1) / slices);
+        for (int from = 0; from < count; from += sliceSize)
+            Arrays.sort(order, from, Math.min(from + sliceSize, count), byY);
+        return order;
+    }
+
+    /**
+     * Returns the number of rectangles in the tree.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Reports the id of every rectangle overlapping the query, edges included, in no particular
+     * order.
+     */
+    public void search(int x0, int y0, int x1, int y1, IntConsumer action) {
+        if (size == 0)
+            return;
+
+        int[] stack = new int[NODE_SIZE * levelEnds.length + 1];
+        int top = 0;
+        stack[top++] = indices.length - 1;
+        while (top > 0) {
+            int node = stack[--top];
+            if (!overlaps(node, x0, y0, x1, y1))
+                continue;
+            if (node < size) {
+                action.accept(indices[node]);
+                continue;
+            }
+
+            int first = indices[node];
+            int last = Math.min(first + NODE_SIZE, levelEnd(first));
+            for (int c = first; c < last; c++)
+                stack[top++] = c;
+        }
+    }
+
+    /**
+     * Returns the ids of every rectangle overlapping the query, edges included, in ascending
+     * order.
+     */
+    public int[] search(int x0, int y0, int x1, int y1) {
+        int[][] found = { new int[NODE_SIZE] };
+        int[] count = { 0 };
+        search(x0, y0, x1, y1, id -> {
+            if (count[0] == found[0].length)
+                found[0] = Arrays.copyOf(found[0], count[0] * 2);
+            found[0][count[0]++] = id;
+        });
+        int[] ids = Arrays.copyOf(found[0], count[0]);
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    private boolean overlaps(int node, int x0, int y0, int x1, int y1) {
+        int i = node * 4;
+        return boxes[i] <= x1 && x0 <= boxes[i + 2] && boxes[i + 1] <= y1 && y0 <= boxes[i + 3];
+    }
+
+    private int levelEnd(int pos) {
+        for (int end : levelEnds) {
+            if (pos < end)
+                return end;
+        }
+        return indices.length;
+    }
+}
@@ -0,0 +1,127 @@
+package au.com.expressionless.nish.utils.pdf;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+
+/**
+ * The text layout of one page, as dumped by layout.py. Geometry is kept in packed arrays, four
+ * coordinates per entry, so a page costs little more than its text.
+ */
+final class PageLayout {
+
+    final IRect rect;
+
+    // text blocks, as extractBLOCKS
+    final int[] blockRects;
+    final String[] blockTexts;
+
+    // lines, as get_text('dict'), each belonging to a dict block
+    final int[] lineBlocks;
+    final boolean[] lineHorizontal;
+
+    // words, each belonging to a line
+    final float[] wordRects;
+    final String[] wordTexts;
+    final int[] wordLines;
+
+    final int[] imageXrefs;
+    final IRect[] images;
+
+    // vector graphics, sorted by top then left
+    final IRect[] paths;
+
+    // spatial indexes over blocks and words
+    final PackedRTree blockTree;
+    final PackedRTree wordTree;
+
+    private PageLayout(JsonObject page) {
+        JsonArray r = page.getJsonArray("rect");
+        rect = new IRect(r.getInt(0), r.getInt(1), r.getInt(2), r.getInt(3));
+
+        JsonArray blocks = page.getJsonArray("blocks");
+        blockRects = new int[blocks.size() * 4];
+        blockTexts = new String[blocks.size()];
+        for (int i = 0; i < blocks.size(); i++) {
+            JsonArray b = blocks.getJsonArray(i);
+            for (int c = 0; c < 4; c++)
+                blockRects[i * 4 + c] = b.getInt(c);
+            blockTexts[i] = b.getString(4);
+        }
+
+        JsonArray lines = page.getJsonArray("lines");
+        lineBlocks = new int[lines.size()];
+        lineHorizontal = new boolean[lines.size()];
+        for (int i = 0; i < lines.size(); i++) {
+            JsonArray l = lines.getJsonArray(i);
+            lineBlocks[i] = l.getInt(0);
+            lineHorizontal[i] = l.getInt(1) != 0;
+        }
+
+        JsonArray words = page.getJsonArray("words");
+        wordRects = new float[words.size() * 4];
+        wordTexts = new String[words.size()];
+        wordLines = new int[words.size()];
+        for (int i = 0; i < words.size(); i++) {
+            JsonArray w = words.getJsonArray(i);
+            for (int c = 0; c < 4; c++)
+                wordRects[i * 4 + c] = (float) w.getJsonNumber(c).doubleValue();
+            wordTexts[i] = w.getString(4);
+            wordLines[i] = w.getInt(5);
+        }
+
+        JsonArray imageArray = page.getJsonArray("images");
+        imageXrefs = new int[imageArray.size()];
+        images = new IRect[imageArray.size()];
+        for (int i = 0; i < imageArray.size(); i++) {
+            JsonArray im = imageArray.getJsonArray(i);
+            imageXrefs[i] = im.getInt(0);
+            images[i] = new IRect(im.getInt(1), im.getInt(2), im.getInt(3), im.getInt(4));
+        }
+
+        JsonArray pathArray = page.getJsonArray("paths");
+        paths = new IRect[pathArray.size()];
+        for (int i = 0; i < pathArray.size(); i++) {
+            JsonArray p = pathArray.getJsonArray(i);
+            paths[i] = new IRect(p.getInt(0), p.getInt(1), p.getInt(2), p.getInt(3));
+        }
+        Arrays.sort(paths, Comparator.<IRect>comparingInt(p -> p.y0).thenComparingInt(p -> p.x0));
+
+        int[] wordBoxes = new int[wordRects.length];
+        for (int i = 0; i < wordRects.length; i++)
+            wordBoxes[i] = (int) (i % 4 < 2 ? Math.floor(wordRects[i]) : Math.ceil(wordRects[i]));
+        blockTree = PackedRTree.build(blockRects);
+        wordTree = PackedRTree.build(wordBoxes);
+    }
+
+    static PageLayout fromJson(JsonObject page) {
+        return new PageLayout(page);
+    }
+
+    int blockCount() {
+        return blockTexts.length;
+    }
+
+    IRect block(int i) {
+        return new IRect(blockRects[i * 4], blockRects[i * 4 + 1], blockRects[i * 4 + 2], blockRects[i * 4 + 3]);
+    }
+
+    /**
+     * Returns the blocks overlapping r, edges included, in page order.
+     */
+    int[] blocksNear(IRect r) {
+        return blockTree.search(r.x0, r.y0, r.x1, r.y1);
+    }
+
+    /**
+     * Returns whether or not the centre of a word lies inside clip. Text clipped by pdf_ext is
+     * clipped per character, the index only holds words.
+     */
+    boolean wordInside(int i, IRect clip) {
+        float cx = (wordRects[i * 4] + wordRects[i * 4 + 2]) / 2;
+        float cy = (wordRects[i * 4 + 1] + wordRects[i * 4 + 3]) / 2;
+        return cx >= clip.x0 && cx <= clip.x1 && cy >= clip.y0 && cy <= clip.y1;
+    }
+}
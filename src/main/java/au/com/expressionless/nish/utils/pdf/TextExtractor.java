@@ -0,0 +1,43 @@
+package au.com.expressionless.nish.utils.pdf;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import javax.json.JsonObject;
+
+import au.com.expressionless.nish.models.entity.edition.story.Bounds;
+
+/**
+ * An engine that extracts text from selections of a PDF. Every engine returns the json format of
+ * pdf_ext.py, {"paragraphs": [...], "other": [...], "images": [...]} for each page run, with text
+ * in the clips ordered first by column and then by the order of the clips.
+ */
+public interface TextExtractor {
+
+    /**
+     * Extracts text from a rectangular section of a page in the PDF. Returns null if the text
+     * extraction is unsuccessful.
+     * @param pdfWrapper The PDF to extract text from
+     * @param pageIndex Index of the page (0 based) to retrieve text from
+     * @param bounds Sections of the page to extract text from, null for the whole page
+     */
+    JsonObject getText(PDFWrapper pdfWrapper, int pageIndex, Collection<Bounds> bounds);
+
+    /**
+     * Extracts text for a batch of jobs, returning each job's result keyed by job id. Returns null
+     * if the text extraction is unsuccessful.
+     * @param pdfWrapper The PDF to extract text from
+     * @param jobs Runs of selections to extract text from
+     */
+    Map<Integer, JsonObject> getText(PDFWrapper pdfWrapper, List<ExtractionJob> jobs);
+
+    /**
+     * Extracts text for a batch of jobs without blocking the calling thread. The future completes
+     * with null if the text extraction is unsuccessful.
+     * @param pdfWrapper The PDF to extract text from
+     * @param jobs Runs of selections to extract text from
+     */
+    CompletableFuture<Map<Integer, JsonObject>> getTextAsync(PDFWrapper pdfWrapper, List<ExtractionJob> jobs);
+}
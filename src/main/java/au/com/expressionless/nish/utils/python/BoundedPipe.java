@@ -0,0 +1,149 @@
+package au.com.expressionless.nish.utils.python;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * BoundedPipe is a fixed size ring buffer connecting one writing thread to one reading thread.
+ * Writes block while the buffer is full and reads block while it is empty, so a slow reader
+ * throttles the writer instead of letting the buffer grow.
+ */
+class BoundedPipe {
+
+    private final byte[] buffer;
+    private final ReentrantLock lock;
+    private final Condition notEmpty;
+    private final Condition notFull;
+
+    private int readPos;
+    private int count;
+    private boolean writerClosed;
+    private boolean readerClosed;
+
+    /**
+     * BoundedPipe constructor.
+     * @param capacity Number of bytes that can be buffered before the writer blocks
+     */
+    BoundedPipe(int capacity) {
+        this.buffer = new byte[capacity];
+        this.lock = new ReentrantLock();
+        this.notEmpty = lock.newCondition();
+        this.notFull = lock.newCondition();
+    }
+
+    /**
+     * Returns the writing end of the pipe. Writing fails once the reading end has been closed.
+     */
+    OutputStream sink() {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                lock.lock();
+                try {
+                    while (len > 0) {
+                        while (count == buffer.length && !readerClosed)
+                            notFull.await();
+                        if (readerClosed)
+                            throw new IOException("Pipe closed by reader");
+
+                        int writePos = (readPos + count) % buffer.length;
+                        int n = Math.min(len, Math.min(buffer.length - count, buffer.length - writePos));
+                        System.arraycopy(b, off, buffer, writePos, n);
+                        count += n;
+                        off += n;
+                        len -= n;
+                        notEmpty.signal();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while writing to pipe");
+                } finally {
+                    lock.unlock();
+                }
+            }
+
+            @Override
+            public void close() {
+                lock.lock();
+                try {
+                    writerClosed = true;
+                    notEmpty.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the reading end of the pipe. Reads return -1 once the writer has closed and the
+     * buffer has been drained.
+     */
+    InputStream source() {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0)
+                    return 0;
+
+                lock.lock();
+                try {
+                    while (count == 0 && !writerClosed && !readerClosed)
+                        notEmpty.await();
+                    if (readerClosed)
+                        throw new IOException("Pipe closed");
+                    if (count == 0)
+                        return -1;
+
+                    int n = Math.min(len, Math.min(count, buffer.length - readPos));
+                    System.arraycopy(buffer, readPos, b, off, n);
+                    readPos = (readPos + n) % buffer.length;
+                    count -= n;
+                    notFull.signal();
+                    return n;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while reading from pipe");
+                } finally {
+                    lock.unlock();
+                }
+            }
+
+            @Override
+            public int available() {
+                lock.lock();
+                try {
+                    return count;
+                } finally {
+                    lock.unlock();
+                }
+            }
+
+            @Override
+            public void close() {
+                lock.lock();
+                try {
+                    readerClosed = true;
+                    notFull.signalAll();
+                    notEmpty.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        };
+    }
+}
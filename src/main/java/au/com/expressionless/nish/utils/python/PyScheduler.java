@@ -0,0 +1,254 @@
+package au.com.expressionless.nish.utils.python;
+
+import static au.com.expressionless.nish.constants.Config.*;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.ws.rs.ServiceUnavailableException;
+
+import org.jboss.logging.Logger;
+
+import au.com.expressionless.nish.utils.GeneralUtils;
+
+/**
+ * PyScheduler limits how much python work runs at once across the whole server. Work is admitted
+ * up to a global concurrency limit, anything beyond that waits in a bounded queue per
+ * {@link Lane}, and free slots always go to the highest priority lane first. When the queue is
+ * full, or a job waits too long, the job is rejected with a 503 and a Retry-After estimate.
+ */
+public class PyScheduler {
+
+    static final Logger log = Logger.getLogger(PyScheduler.class.getCanonicalName());
+
+    /**
+     * Priority lanes, highest priority first.
+     */
+    public enum Lane {
+        // work an editor is waiting on, i.e. text extraction for selections
+        INTERACTIVE,
+        // work nobody is watching, i.e. keyword regeneration
+        BACKGROUND
+    }
+
+    private static final PyScheduler INSTANCE = new PyScheduler(
+        Integer.parseInt(GeneralUtils.getSystemEnv(
+            ENV_PY_MAX_PROCESSES,
+            String.valueOf(Runtime.getRuntime().availableProcessors())
+        )),
+        Integer.parseInt(GeneralUtils.getSystemEnv(ENV_PY_MAX_QUEUED, "32")),
+        Long.parseLong(GeneralUtils.getSystemEnv(ENV_PY_QUEUE_TIMEOUT, "10"))
+    );
+
+    private final int limit;
+    private final int maxQueued;
+    private final long queueTimeout;
+    private final ReentrantLock lock;
+    private final Map<Lane, Deque<Waiter>> queues;
+    private int running;
+
+    // metrics, guarded by lock
+    private long admitted;
+    private long rejected;
+    private long completed;
+    private long totalWaitNanos;
+    private long maxWaitNanos;
+    private long totalRunNanos;
+
+    /**
+     * PyScheduler constructor.
+     * @param limit Number of jobs allowed to run at once
+     * @param maxQueued Number of jobs allowed to wait, across all lanes
+     * @param queueTimeout Seconds a job may wait before it is rejected
+     */
+    public PyScheduler(int limit, int maxQueued, long queueTimeout) {
+        this.limit = Math.max(1, limit);
+        this.maxQueued = Math.max(0, maxQueued);
+        this.queueTimeout = queueTimeout;
+        this.lock = new ReentrantLock();
+        this.queues = new EnumMap<>(Lane.class);
+        for (Lane lane : Lane.values())
+            queues.put(lane, new ArrayDeque<>());
+    }
+
+    /**
+     * Returns the scheduler shared by all python work on this server.
+     */
+    public static PyScheduler getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Waits for a slot to run a job in. The returned permit must be closed once the job is done.
+     * @param lane Priority lane of the job
+     * @throws ServiceUnavailableException if the queue is full or the job waited too long
+     */
+    public Permit acquire(Lane lane) throws InterruptedException, ServiceUnavailableException {
+        long start = System.nanoTime();
+        Waiter waiter = null;
+
+        lock.lock();
+        try {
+
+            // run straight away if nothing is ahead of us
+            if (running < limit && queuedCount() == 0) {
+                running++;
+                admitted++;
+                return new Permit(start);
+            }
+
+            // reject fast rather than pile up work
+            if (queuedCount() >= maxQueued) {
+                rejected++;
+                throw saturated();
+            }
+
+            waiter = new Waiter(lock.newCondition());
+            queues.get(lane).addLast(waiter);
+            long nanos = TimeUnit.SECONDS.toNanos(queueTimeout);
+            while (!waiter.granted) {
+                if (nanos <= 0) {
+                    queues.get(lane).remove(waiter);
+                    rejected++;
+                    throw saturated();
+                }
+                nanos = waiter.condition.awaitNanos(nanos);
+            }
+
+            long waited = System.nanoTime() - start;
+            admitted++;
+            totalWaitNanos += waited;
+            maxWaitNanos = Math.max(maxWaitNanos, waited);
+            return new Permit(System.nanoTime());
+        } catch (InterruptedException e) {
+
+            // hand on a slot that was granted while we were being interrupted
+            if (waiter.granted) {
+                running--;
+                grantNext();
+            } else {
+                queues.get(lane).remove(waiter);
+            }
+            throw e;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns a snapshot of the scheduler's queue depth and wait time metrics.
+     */
+    public JsonObject getMetrics() {
+        lock.lock();
+        try {
+            JsonObjectBuilder queued = Json.createObjectBuilder();
+            for (Lane lane : Lane.values())
+                queued.add(lane.name().toLowerCase(), queues.get(lane).size());
+
+            long waited = Math.max(1, admitted);
+            long ran = Math.max(1, completed);
+            return Json.createObjectBuilder()
+            .add("limit",       limit)
+            .add("running",     running)
+            .add("maxQueued",   maxQueued)
+            .add("queued",      queued)
+            .add("admitted",    admitted)
+            .add("rejected",    rejected)
+            .add("completed",   completed)
+            .add("avgWaitMs",   TimeUnit.NANOSECONDS.toMillis(totalWaitNanos / waited))
+            .add("maxWaitMs",   TimeUnit.NANOSECONDS.toMillis(maxWaitNanos))
+            .add("avgRunMs",    TimeUnit.NANOSECONDS.toMillis(totalRunNanos / ran))
+            .build();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(long runNanos) {
+        lock.lock();
+        try {
+            running--;
+            completed++;
+            totalRunNanos += runNanos;
+            grantNext();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Hands free slots to waiting jobs, highest priority lane first. Must hold lock.
+     */
+    private void grantNext() {
+        while (running < limit) {
+            Waiter next = null;
+            for (Lane lane : Lane.values()) {
+                next = queues.get(lane).pollFirst();
+                if (next != null)
+                    break;
+            }
+            if (next == null)
+                return;
+
+            next.granted = true;
+            running++;
+            next.condition.signal();
+        }
+    }
+
+    private int queuedCount() {
+        int count = 0;
+        for (Deque<Waiter> queue : queues.values())
+            count += queue.size();
+        return count;
+    }
+
+    /**
+     * Builds the rejection for a saturated scheduler, estimating how long it will take for the
+     * current queue to drain. Must hold lock.
+     */
+    private ServiceUnavailableException saturated() {
+        long avgRunNanos = completed == 0 ? TimeUnit.SECONDS.toNanos(1) : totalRunNanos / completed;
+        long drainNanos = avgRunNanos * (queuedCount() + 1) / limit;
+        long retryAfter = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(drainNanos) + 1);
+        log.warn("Python work is saturated, rejecting job (retry after " + retryAfter + "s)");
+        return new ServiceUnavailableException("Server is busy, try again later", retryAfter);
+    }
+
+    private static class Waiter {
+        private final Condition condition;
+        private boolean granted;
+
+        private Waiter(Condition condition) {
+            this.condition = condition;
+        }
+    }
+
+    /**
+     * A slot to run one job in. Closing the permit hands the slot to the next waiting job.
+     */
+    public class Permit implements AutoCloseable {
+        private final long startNanos;
+        private boolean closed;
+
+        private Permit(long startNanos) {
+            this.startNanos = startNanos;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (closed)
+                return;
+            closed = true;
+            release(System.nanoTime() - startNanos);
+        }
+    }
+}
@@ -1,27 +1,49 @@
 package au.com.expressionless.nish.utils.python;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.compress.utils.IOUtils;
 
 /**
  * PyScriptResult captures any data emitted as a result of running a python script through
- * PyScriptRunner.
+ * PyScriptRunner. Results of {@link PyScriptRunner#run()} belong to a finished process, results of
+ * {@link PyScriptRunner#stream()} belong to a process that may still be running.
  */
 public class PyScriptResult {
 
-    private final int exitValue;
+    private final Process process;
     private final InputStream stdout;
-    private final InputStream stderr;
+    private final Future<byte[]> stderrData;
+    private final AtomicBoolean timedOut;
+    private InputStream stderr;
+    private int exitValue;
 
     /**
      * PyScriptResult constructor.
      */
     PyScriptResult(int exitValue, InputStream stdout, InputStream stderr) {
+        this.process = null;
         this.exitValue = exitValue;
         this.stdout = stdout;
         this.stderr = stderr;
+        this.stderrData = null;
+        this.timedOut = new AtomicBoolean(false);
+    }
+
+    /**
+     * PyScriptResult constructor for a process that is still running.
+     */
+    PyScriptResult(Process process, InputStream stdout, Future<byte[]> stderrData, AtomicBoolean timedOut) {
+        this.process = process;
+        this.stdout = stdout;
+        this.stderr = null;
+        this.stderrData = stderrData;
+        this.timedOut = timedOut;
     }
 
     /**
@@ -31,39 +53,69 @@ public class PyScriptResult {
         return IOUtils.toByteArray(this.stdout);
     }
     /**
-     * Returns byte data of the finished process's stderr.
+     * Returns byte data of the finished process's stderr. For a streamed process this waits for
+     * stderr to be closed.
      */
     public byte[] getStderrData() throws IOException{
-        return IOUtils.toByteArray(this.stderr);
+        return IOUtils.toByteArray(getStderr());
     }
 
     /**
-     * Returns InputStream corresponding to the stdout of the finished process
+     * Returns InputStream corresponding to the stdout of the process. For a streamed process
+     * this can be read while the process is still running.
      */
     public InputStream getStdout() {
         return this.stdout;
     }
 
     /**
-     * Returns InputStream corresponding to the stderr of the finished process
+     * Returns InputStream corresponding to the stderr of the finished process. For a streamed
+     * process this waits for stderr to be closed.
      */
-    public InputStream getStderr() {
+    public synchronized InputStream getStderr() throws IOException {
+        if (this.stderr == null) {
+            try {
+                this.stderr = new ByteArrayInputStream(stderrData.get());
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while reading stderr");
+            }
+        }
         return this.stderr;
     }
 
+    /**
+     * Waits for the process to finish and returns its exit value.
+     */
+    public int waitFor() throws InterruptedException {
+        if (process != null)
+            this.exitValue = process.waitFor();
+        return this.exitValue;
+    }
+
     /**
      * Returns the exit value of the finished process.
+     * @throws IllegalThreadStateException if a streamed process is still running
      */
     public int getExitValue() {
+        if (process != null)
+            this.exitValue = process.exitValue();
         return this.exitValue;
     }
 
+    /**
+     * Returns whether or not the process was destroyed for running past its timeout.
+     */
+    public boolean hasTimedOut() {
+        return this.timedOut.get();
+    }
+
     public String toString() {
-        
+
         return
         "PyScriptResult@" + this.hashCode() + "[" +
-        "exitValue=" + String.valueOf(exitValue) + "]";
+        "exitValue=" + (process != null && process.isAlive() ? "?" : String.valueOf(getExitValue())) + "]";
     }
 }
-
-
@@ -1,28 +1,67 @@
 package au.com.expressionless.nish.utils.python;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.ws.rs.ServiceUnavailableException;
+
+import org.jboss.logging.Logger;
 
 import au.com.expressionless.nish.utils.GeneralUtils;
 
 /**
  * PyScriptRunner is able to run scripts in the directory associated with the environment variable
  * "PY_SCRIPT_DIR". It handles the creation and destruction of the python process, as well as 
- * capturing of results.
+ * capturing of results. Stdin is written and stdout/stderr are drained on separate threads, so a
+ * script producing more output than the OS pipe buffer can hold never blocks.
  */
 public class PyScriptRunner {
-    private static final String PY_EXECUTABLE = "python3"; 
-    private static final String PY_SCRIPT_DIR = GeneralUtils.getSystemEnv("PY_SCRIPT_DIR");
+    static final String PY_EXECUTABLE = "python3"; 
+    static final String PY_SCRIPT_DIR = GeneralUtils.getSystemEnv("PY_SCRIPT_DIR");
     private static final int DEFAULT_TIMEOUT = 5;
+    private static final int DEFAULT_STDOUT_BUFFER = 64 * 1024;
+    private static final int DEFAULT_MAX_STDOUT = 64 * 1024 * 1024;
+    private static final int STDERR_LIMIT = 64 * 1024;
+
+    static final Logger log = Logger.getLogger(PyScriptRunner.class.getCanonicalName());
+
+    // threads pumping data in and out of python processes
+    static final ExecutorService IO_EXECUTOR = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "py-io");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // kills streamed processes that outlive their timeout
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "py-watchdog");
+        t.setDaemon(true);
+        return t;
+    });
 
     private List<String> requiredArgs;
     private List<String> optionalArgs;
     private byte[] stdinData;
     private long timeout;
+    private int stdoutBufferSize;
+    private int maxStdoutSize;
+    private PyScheduler.Lane lane;
 
 
     /**
@@ -42,6 +81,9 @@ public class PyScriptRunner {
         this.timeout = DEFAULT_TIMEOUT;
         this.optionalArgs = new ArrayList<>();
         this.stdinData = null;
+        this.stdoutBufferSize = DEFAULT_STDOUT_BUFFER;
+        this.maxStdoutSize = DEFAULT_MAX_STDOUT;
+        this.lane = PyScheduler.Lane.BACKGROUND;
     }
 
     /**
@@ -88,11 +130,193 @@ public class PyScriptRunner {
         return this;
     }
 
+    /**
+     * Sets the priority lane the script is scheduled in. Scripts run in the background lane by
+     * default, scripts a user is waiting on should run in the interactive lane.
+     * @param lane Priority lane of the script
+     */
+    public PyScriptRunner setLane(PyScheduler.Lane lane) {
+        this.lane = lane;
+        return this;
+    }
+
+    /**
+     * Sets the number of bytes of stdout buffered by {@link #stream()} ahead of the reader. The
+     * python process is paused while the buffer is full.
+     * @param bytes Size of the stdout buffer
+     * @throws IllegalArgumentException if bytes is less than 1
+     */
+    public PyScriptRunner setStdoutBufferSize(int bytes) {
+        if (bytes < 1)
+            throw new IllegalArgumentException("Stdout buffer size must be at least 1, got " + bytes);
+        this.stdoutBufferSize = bytes;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of bytes of stdout collected by {@link #run()}. A script writing
+     * more than this is destroyed.
+     * @param bytes Maximum size of stdout
+     */
+    public PyScriptRunner setMaxStdoutSize(int bytes) {
+        this.maxStdoutSize = bytes;
+        return this;
+    }
+
     /**
      * Runs the python script with the specified options. Returns results of the python script as 
-     * {@link PyScriptResult}. Returns null if the python script times out.
+     * {@link PyScriptResult}. Returns null if the python script times out. Waits for a slot from
+     * {@link PyScheduler} before the script is started.
+     * @throws ServiceUnavailableException if the server is too busy to run the script
+     */
+    public PyScriptResult run() throws IOException, InterruptedException, ServiceUnavailableException {
+        try (PyScheduler.Permit permit = PyScheduler.getInstance().acquire(lane)) {
+            return runNow();
+        }
+    }
+
+    private PyScriptResult runNow() throws IOException, InterruptedException {
+
+        Process p = start();
+
+        // drain both outputs while the script runs, stderr is capped
+        // a script writing too much stdout is killed rather than buffered
+        Future<byte[]> stdout = IO_EXECUTOR.submit(() -> {
+            try {
+                return collect(p.getInputStream(), maxStdoutSize, true);
+            } catch (IOException e) {
+                destroy(p);
+                throw e;
+            }
+        });
+        Future<byte[]> stderr = IO_EXECUTOR.submit(() -> collect(p.getErrorStream(), STDERR_LIMIT, false));
+
+        // check if the script is taking too long
+        // default timeout is 5 seconds
+        boolean hasTimedOut = !p.waitFor(timeout, TimeUnit.SECONDS);
+  
+        // a timed out process should be destroyed, and return null 
+        if (hasTimedOut) {
+            destroy(p);
+            return null;
+        }
+
+        // output is fully drained once the pipes reach EOF
+        try {
+            return new PyScriptResult(
+                p.exitValue(), 
+                new ByteArrayInputStream(stdout.get()), 
+                new ByteArrayInputStream(stderr.get())
+            );
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Runs the python script without blocking the calling thread. The returned future completes
+     * with the results of the script once it exits, or with null if the script times out. Waiting
+     * for a slot from {@link PyScheduler}, writing stdin and draining the outputs all happen on
+     * PyScriptRunner's own threads, and completion is driven by {@link Process#onExit()}.
+     * The future fails with a {@link ServiceUnavailableException} if the server is too busy to
+     * run the script.
+     */
+    public CompletableFuture<PyScriptResult> runAsync() {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return PyScheduler.getInstance().acquire(lane);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CompletionException(e);
+            }
+        }, IO_EXECUTOR).thenCompose(permit -> {
+            Process p;
+            try {
+                p = start();
+            } catch (IOException | RuntimeException e) {
+                permit.close();
+                throw new CompletionException(e);
+            }
+            p.onExit().thenRun(permit::close);
+
+            // drain both outputs while the script runs, as in run()
+            CompletableFuture<byte[]> stdout = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return collect(p.getInputStream(), maxStdoutSize, true);
+                } catch (IOException e) {
+                    destroy(p);
+                    throw new CompletionException(e);
+                }
+            }, IO_EXECUTOR);
+            CompletableFuture<byte[]> stderr = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return collect(p.getErrorStream(), STDERR_LIMIT, false);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, IO_EXECUTOR);
+
+            AtomicBoolean timedOut = new AtomicBoolean(false);
+            if (timeout != Long.MAX_VALUE) {
+                ScheduledFuture<?> watchdog = WATCHDOG.schedule(() -> {
+                    timedOut.set(true);
+                    destroy(p);
+                }, timeout, TimeUnit.SECONDS);
+                p.onExit().thenRun(() -> watchdog.cancel(false));
+            }
+
+            // a timed out process returns null, same as run()
+            return p.onExit()
+            .thenCombine(stdout, (exited, out) -> out)
+            .thenCombine(stderr, (out, err) -> timedOut.get() ? null : new PyScriptResult(
+                p.exitValue(),
+                new ByteArrayInputStream(out),
+                new ByteArrayInputStream(err)
+            ));
+        });
+    }
+
+    /**
+     * Starts the python script with the specified options and returns immediately. The stdout of
+     * the returned {@link PyScriptResult} can be consumed while the script is still running, use
+     * {@link PyScriptResult#waitFor()} for the exit value once it has been read. A script that
+     * times out is destroyed, which ends its stdout early. Waits for a slot from
+     * {@link PyScheduler} before the script is started, the slot is held until the script exits.
+     * @throws ServiceUnavailableException if the server is too busy to run the script
+     */
+    public PyScriptResult stream() throws IOException, InterruptedException, ServiceUnavailableException {
+
+        PyScheduler.Permit permit = PyScheduler.getInstance().acquire(lane);
+        Process p;
+        try {
+            p = start();
+        } catch (IOException | RuntimeException e) {
+            permit.close();
+            throw e;
+        }
+        p.onExit().thenRun(permit::close);
+
+        // stdout flows through a bounded buffer to the reader, stderr is drained and capped
+        BoundedPipe stdout = new BoundedPipe(stdoutBufferSize);
+        IO_EXECUTOR.execute(() -> pump(p.getInputStream(), stdout.sink()));
+        Future<byte[]> stderr = IO_EXECUTOR.submit(() -> collect(p.getErrorStream(), STDERR_LIMIT, false));
+
+        AtomicBoolean timedOut = new AtomicBoolean(false);
+        if (timeout != Long.MAX_VALUE) {
+            ScheduledFuture<?> watchdog = WATCHDOG.schedule(() -> {
+                timedOut.set(true);
+                destroy(p);
+            }, timeout, TimeUnit.SECONDS);
+            p.onExit().thenRun(() -> watchdog.cancel(false));
+        }
+
+        return new PyScriptResult(p, stdout.source(), stderr, timedOut);
+    }
+
+    /**
+     * Starts the python process and begins writing any stdin data to it on a separate thread.
      */
-    public PyScriptResult run() throws IOException, InterruptedException {
+    private Process start() throws IOException {
 
         // compose the strings needed to run script
         List<String> commandList = new ArrayList<>();
@@ -104,36 +328,76 @@ public class PyScriptRunner {
         .command(commandList)
         .start();
 
-
         // write any stdin data to the process
-        if (stdinData != null) {
-            OutputStream stdin = p.getOutputStream();
-            stdin.write(stdinData);
-            stdin.flush();
-            stdin.close();
-        }
+        byte[] data = stdinData;
+        IO_EXECUTOR.execute(() -> {
+            try (OutputStream stdin = p.getOutputStream()) {
+                if (data != null)
+                    stdin.write(data);
+            } catch (IOException e) {
 
-        // check if the script is taking too long
-        // default timeout is 5 seconds
-        boolean hasTimedOut = !p.waitFor(timeout, TimeUnit.SECONDS);
-  
-        // a timed out process should be destroyed, and return null 
-        if (hasTimedOut) {
+                // the script exited without reading all of its input
+                log.debug("Could not write stdin: " + e.getMessage());
+            }
+        });
+        return p;
+    }
 
-            // try to destroy normally      
-            // a process that continues to run after this call
-            // should be destroyed forcibly
-            p.destroy();
-            if (p.isAlive())
-                p.destroyForcibly();
-            return null;
+    /**
+     * Copies a process output into a pipe. If the reader gives up early the rest of the output
+     * is discarded so the process can still finish.
+     */
+    private static void pump(InputStream in, OutputStream out) {
+        byte[] chunk = new byte[8192];
+        try (InputStream processOut = in) {
+            int n;
+            boolean discard = false;
+            while ((n = processOut.read(chunk)) != -1) {
+                if (discard)
+                    continue;
+                try {
+                    out.write(chunk, 0, n);
+                } catch (IOException e) {
+                    discard = true;
+                }
+            }
+        } catch (IOException e) {
+            log.debug("Process output closed: " + e.getMessage());
+        } finally {
+            try {
+                out.close();
+            } catch (IOException e) {
+                log.debug(e.getMessage());
+            }
         }
+    }
+
+    /**
+     * Reads a process output to EOF, keeping at most limit bytes. If failOnLimit is set, going
+     * over the limit is an error, otherwise the rest is discarded.
+     */
+    private static byte[] collect(InputStream in, int limit, boolean failOnLimit) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        try (InputStream processOut = in) {
+            int n;
+            while ((n = processOut.read(chunk)) != -1) {
+                int keep = Math.min(n, limit - out.size());
+                if (keep < n && failOnLimit)
+                    throw new IOException("Process output exceeded " + limit + " bytes");
+                out.write(chunk, 0, keep);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static void destroy(Process p) {
 
-        // if the script timed out, return null, otherwise, return the result
-        return new PyScriptResult(
-            p.exitValue(), 
-            p.getInputStream(), 
-            p.getErrorStream()
-        );
+        // try to destroy normally      
+        // a process that continues to run after this call
+        // should be destroyed forcibly
+        p.destroy();
+        if (p.isAlive())
+            p.destroyForcibly();
     }
 }
@@ -0,0 +1,163 @@
+package au.com.expressionless.nish.utils.python;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.ws.rs.ServiceUnavailableException;
+
+import org.jboss.logging.Logger;
+
+import au.com.expressionless.nish.models.entity.edition.story.Bounds;
+import au.com.expressionless.nish.utils.pdf.ExtractionJob;
+import au.com.expressionless.nish.utils.pdf.PDFWrapper;
+import au.com.expressionless.nish.utils.pdf.TextExtractor;
+
+/**
+ * Extracts text with PyMuPDF through pdf_ext. Jobs go to a pool of long lived pdf_ext workers when
+ * one is given, otherwise pdf_ext.py is run for each request.
+ */
+public class PyTextExtractor implements TextExtractor {
+
+    static final Logger log = Logger.getLogger(PyTextExtractor.class.getCanonicalName());
+
+    private final PyWorkerPool pool;
+    private final long timeout;
+
+    /**
+     * PyTextExtractor constructor.
+     * @param pool Pool of pdf_ext workers, or null to run pdf_ext.py for each request
+     * @param timeout Seconds to wait for a free worker, and again for the job itself
+     */
+    public PyTextExtractor(PyWorkerPool pool, long timeout) {
+        this.pool = pool;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Extracts text from a rectangular section of a page in the PDF. Returns null if the text
+     * extraction is unsuccessful.
+     * @throws ServiceUnavailableException if the server is too busy to extract text
+     * @see PDFWrapper#getText(int, Collection)
+     */
+    @Override
+    public JsonObject getText(PDFWrapper pdfWrapper, int pageIndex, Collection<Bounds> bounds) {
+        if (pool == null)
+            return pdfWrapper.getText(pageIndex, bounds);
+
+        // clips are sent as [x0, y0, x1, y1]
+        JsonArrayBuilder clips = Json.createArrayBuilder();
+        if (bounds != null) {
+            for (Bounds bound : bounds) {
+                clips.add(
+                    Json.createArrayBuilder()
+                    .add(bound.getX())
+                    .add(bound.getY())
+                    .add(bound.getMaxX())
+                    .add(bound.getMaxY())
+                );
+            }
+        }
+
+        JsonObjectBuilder request = Json.createObjectBuilder()
+        .add("type",        "extract")
+        .add("page",        pageIndex)
+        .add("clips",       clips);
+        return submit(pdfWrapper, request);
+    }
+
+    /**
+     * Extracts text for a batch of jobs in a single request, returning each job's result keyed by
+     * job id. Returns null if the text extraction is unsuccessful.
+     * @throws ServiceUnavailableException if the server is too busy to extract text
+     * @see PDFWrapper#getText(List)
+     */
+    @Override
+    public Map<Integer, JsonObject> getText(PDFWrapper pdfWrapper, List<ExtractionJob> jobs) {
+        if (pool == null)
+            return pdfWrapper.getText(jobs);
+
+        JsonArrayBuilder jobArray = Json.createArrayBuilder();
+        for (ExtractionJob job : jobs)
+            jobArray.add(job.toJson());
+
+        JsonObjectBuilder request = Json.createObjectBuilder()
+        .add("type",        "extract_batch")
+        .add("jobs",        jobArray);
+        JsonObject result = submit(pdfWrapper, request);
+        if (result == null)
+            return null;
+        return PDFWrapper.parseJobResults(result.getJsonObject("jobs"));
+    }
+
+    /**
+     * Extracts text for a batch of jobs like {@link #getText(PDFWrapper, List)}, without blocking
+     * the calling thread. The future completes with null if the text extraction is unsuccessful,
+     * or fails with a {@link ServiceUnavailableException} if the server is too busy to extract
+     * text.
+     */
+    @Override
+    public CompletableFuture<Map<Integer, JsonObject>> getTextAsync(PDFWrapper pdfWrapper, List<ExtractionJob> jobs) {
+        CompletableFuture<Map<Integer, JsonObject>> future;
+        if (pool == null) {
+            future = pdfWrapper.getTextAsync(jobs);
+        } else {
+            JsonArrayBuilder jobArray = Json.createArrayBuilder();
+            for (ExtractionJob job : jobs)
+                jobArray.add(job.toJson());
+
+            try {
+                JsonObject request = Json.createObjectBuilder()
+                .add("type",        "extract_batch")
+                .add("file_path",   pdfWrapper.getFile().getAbsolutePath())
+                .add("jobs",        jobArray)
+                .build();
+
+                log.info("Extracting text from pdf...");
+                future = pool.submitAsync(request, timeout)
+                .thenApply(result -> PDFWrapper.parseJobResults(result.getJsonObject("jobs")));
+            } catch (IOException e) {
+                future = CompletableFuture.failedFuture(e);
+            }
+        }
+
+        // only a busy server is reported to the caller, any other failure means no text
+        return future.exceptionally(e -> {
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof ServiceUnavailableException)
+                throw (ServiceUnavailableException) cause;
+            log.error("Error occured during text extraction!");
+            log.error(cause.getMessage());
+            return null;
+        });
+    }
+
+    private JsonObject submit(PDFWrapper pdfWrapper, JsonObjectBuilder request) {
+        try {
+            request.add("file_path", pdfWrapper.getFile().getAbsolutePath());
+
+            log.info("Extracting text from pdf...");
+            JsonObject result = pool.submit(request.build(), timeout);
+            log.info("Text extraction was successful!");
+            return result;
+        } catch (TimeoutException e) {
+            log.error("Text extraction timed out!");
+            return null;
+        } catch (IOException e) {
+            log.error("Error occured during text extraction!");
+            log.error(e.getMessage());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package au.com.expressionless.nish.utils.python;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+
+import org.jboss.logging.Logger;
+
+import au.com.expressionless.nish.utils.GeneralUtils;
+
+/**
+ * PyWorker wraps a long lived python process that answers framed json requests. Each frame
+ * written to or read from the process is a 4 byte big-endian length followed by utf-8 json (see
+ * pyscripts/common/framed_io.py). Every request is tagged with a job id, which the worker echoes
+ * back in its response. The worker reports when it is ready for requests, as scripts may load
+ * models before reading any.
+ */
+public class PyWorker implements Closeable {
+
+    static final Logger log = Logger.getLogger(PyWorker.class.getCanonicalName());
+
+    private static final AtomicLong JOB_IDS = new AtomicLong();
+
+    private final String scriptName;
+    private final Process process;
+    private final DataOutputStream stdin;
+    private final Map<Long, CompletableFuture<JsonObject>> pending;
+
+    // completes once the script's setup is done
+    private final CompletableFuture<Void> ready = new CompletableFuture<>();
+
+    /**
+     * PyWorker constructor. Starts a python process running a script in the directory specified
+     * by the environment variable "PY_SCRIPT_DIR".
+     * @param scriptName Name of the worker script
+     */
+    public PyWorker(String scriptName) throws IOException {
+        List<String> commandList = new ArrayList<>();
+        commandList.add(PyScriptRunner.PY_EXECUTABLE);
+        commandList.add(PyScriptRunner.PY_SCRIPT_DIR + scriptName);
+
+        this.scriptName = scriptName;
+        this.pending = new ConcurrentHashMap<>();
+        this.process = new ProcessBuilder()
+        .command(commandList)
+        .start();
+        this.stdin = new DataOutputStream(process.getOutputStream());
+
+        // responses and stderr have to be drained for as long as the process lives
+        Thread reader = new Thread(this::readResponses, "py-worker-out-" + process.pid());
+        reader.setDaemon(true);
+        reader.start();
+        Thread errReader = new Thread(this::readStderr, "py-worker-err-" + process.pid());
+        errReader.setDaemon(true);
+        errReader.start();
+    }
+
+    /**
+     * Sends a request to the worker and waits for its response. Returns the "result" field of
+     * the response.
+     * @param request Json object describing the job, the "id" field is set by this method
+     * @param timeoutSeconds Number of seconds to wait for the response
+     * @throws IOException if the worker died, or the worker reported an error for the job
+     * @throws TimeoutException if the worker did not respond in time
+     */
+    public JsonObject request(JsonObject request, long timeoutSeconds)
+        throws IOException, InterruptedException, TimeoutException {
+
+            long id = JOB_IDS.incrementAndGet();
+            CompletableFuture<JsonObject> future = new CompletableFuture<>();
+            pending.put(id, future);
+            try {
+                write(Json.createObjectBuilder(request).add("id", id).build());
+                JsonObject response = future.get(timeoutSeconds, TimeUnit.SECONDS);
+                if (!response.getBoolean("ok", false)) {
+                    throw new IOException(
+                        scriptName + " failed job " + id + ": " + response.getString("error", "?")
+                    );
+                }
+                return response.getJsonObject("result");
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            } finally {
+                pending.remove(id);
+            }
+    }
+
+    /**
+     * Returns a future that completes once the worker is ready for requests, or exceptionally if
+     * it exits or isn't ready within the given amount of seconds.
+     */
+    public CompletableFuture<Void> whenReady(long timeoutSeconds) {
+        return ready.orTimeout(timeoutSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Returns whether or not the worker answers a ping within the given amount of seconds.
+     */
+    public boolean ping(long timeoutSeconds) {
+        if (!isAlive())
+            return false;
+
+        long id = JOB_IDS.incrementAndGet();
+        CompletableFuture<JsonObject> future = new CompletableFuture<>();
+        pending.put(id, future);
+        try {
+            write(Json.createObjectBuilder().add("id", id).add("type", "ping").build());
+            return future.get(timeoutSeconds, TimeUnit.SECONDS).getBoolean("ok", false);
+        } catch (IOException | ExecutionException | TimeoutException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            pending.remove(id);
+        }
+    }
+
+    /**
+     * Returns whether or not the python process is still running.
+     */
+    public boolean isAlive() {
+        return process.isAlive();
+    }
+
+    /**
+     * Stops the worker. Closing stdin lets the worker exit on its own, a worker that is still
+     * running afterwards is destroyed forcibly.
+     */
+    @Override
+    public void close() {
+        try {
+            stdin.close();
+            if (!process.waitFor(1, TimeUnit.SECONDS))
+                process.destroyForcibly();
+        } catch (IOException e) {
+            process.destroyForcibly();
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized void write(JsonObject frame) throws IOException {
+        byte[] payload = GeneralUtils.JsonSerialise(frame);
+        stdin.writeInt(payload.length);
+        stdin.write(payload);
+        stdin.flush();
+    }
+
+    private void readResponses() {
+        try (DataInputStream stdout = new DataInputStream(process.getInputStream())) {
+            while (true) {
+                byte[] payload = new byte[stdout.readInt()];
+                stdout.readFully(payload);
+
+                JsonObject response;
+                try (JsonReader reader = Json.createReader(new ByteArrayInputStream(payload))) {
+                    response = reader.readObject();
+                }
+
+                // sent by the script once, before any response
+                if ("ready".equals(response.getString("type", null))) {
+                    ready.complete(null);
+                    continue;
+                }
+
+                // responses for jobs that have already timed out are dropped
+                CompletableFuture<JsonObject> future = pending.get(response.getJsonNumber("id").longValue());
+                if (future != null)
+                    future.complete(response);
+            }
+        } catch (EOFException e) {
+            log.debug(scriptName + " closed its stdout");
+        } catch (IOException | RuntimeException e) {
+            log.error(scriptName + " sent a malformed response: " + e.getMessage());
+            process.destroyForcibly();
+        }
+
+        // nothing else will arrive, fail anything still waiting
+        IOException dead = new IOException(scriptName + " worker exited");
+        ready.completeExceptionally(dead);
+        pending.values().forEach(future -> future.completeExceptionally(dead));
+    }
+
+    private void readStderr() {
+        try (BufferedReader stderr = new BufferedReader(
+            new InputStreamReader(process.getErrorStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = stderr.readLine()) != null)
+                    log.warn(scriptName + ": " + line);
+        } catch (IOException e) {
+            log.debug(e.getMessage());
+        }
+    }
+
+    public String toString() {
+        return "PyWorker@" + this.hashCode() + "[" +
+        "script=" + scriptName + ", " +
+        "pid=" + process.pid() + "]";
+    }
+}
@@ -0,0 +1,249 @@
+package au.com.expressionless.nish.utils.python;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.json.JsonObject;
+import javax.ws.rs.ServiceUnavailableException;
+
+import org.jboss.logging.Logger;
+
+/**
+ * PyWorkerPool keeps a fixed number of {@link PyWorker}s running the same script. Workers are
+ * only handed out once their script is ready, one job at a time, crashed or unresponsive workers
+ * are replaced, and idle workers are periodically health checked.
+ */
+public class PyWorkerPool implements Closeable {
+
+    static final Logger log = Logger.getLogger(PyWorkerPool.class.getCanonicalName());
+
+    private static final long PING_TIMEOUT = 2;
+
+    // seconds a new worker has to finish its setup, i.e. loading models, before it is replaced
+    private static final long READY_TIMEOUT = 120;
+
+    private final String scriptName;
+    private final int size;
+    private final PyScheduler.Lane lane;
+    private final BlockingQueue<PyWorker> idle;
+    private final List<PyWorker> workers;
+    private ScheduledExecutorService healthChecker;
+    private volatile boolean closed;
+
+    /**
+     * PyWorkerPool constructor. No workers are started until {@link #start(long)} is called.
+     * @param scriptName Name of the worker script, relative to "PY_SCRIPT_DIR"
+     * @param size Number of workers to keep running
+     * @param lane Priority lane jobs are scheduled in, see {@link PyScheduler}
+     */
+    public PyWorkerPool(String scriptName, int size, PyScheduler.Lane lane) {
+        this.scriptName = scriptName;
+        this.size = size;
+        this.lane = lane;
+        this.idle = new LinkedBlockingQueue<>();
+        this.workers = new ArrayList<>();
+    }
+
+    /**
+     * Starts every worker in the pool and schedules the health check. Jobs wait for a worker
+     * until one has finished its setup.
+     * @param healthCheckSeconds Seconds between health checks of idle workers, 0 disables them
+     */
+    public synchronized PyWorkerPool start(long healthCheckSeconds) throws IOException {
+        for (int i = 0; i < size; i++)
+            startWorker();
+
+        if (healthCheckSeconds > 0) {
+            healthChecker = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "py-worker-health");
+                t.setDaemon(true);
+                return t;
+            });
+            healthChecker.scheduleWithFixedDelay(
+                this::healthCheck,
+                healthCheckSeconds,
+                healthCheckSeconds,
+                TimeUnit.SECONDS
+            );
+        }
+        log.info("Started " + size + " workers for " + scriptName);
+        return this;
+    }
+
+    /**
+     * Runs a job on the next free worker, once {@link PyScheduler} admits it. A worker that fails
+     * or times out is replaced before it is handed back to the pool.
+     * @param request Json object describing the job
+     * @param timeoutSeconds Seconds to wait for a free worker, and again for the job itself
+     * @throws ServiceUnavailableException if the server is too busy to run the job
+     */
+    public JsonObject submit(JsonObject request, long timeoutSeconds)
+        throws IOException, InterruptedException, TimeoutException, ServiceUnavailableException {
+
+            try (PyScheduler.Permit permit = PyScheduler.getInstance().acquire(lane)) {
+                return submitNow(request, timeoutSeconds);
+            }
+    }
+
+    /**
+     * Runs a job like {@link #submit(JsonObject, long)} without blocking the calling thread. The
+     * wait for a slot and a free worker happens on PyScriptRunner's io threads.
+     * @param request Json object describing the job
+     * @param timeoutSeconds Seconds to wait for a free worker, and again for the job itself
+     */
+    public CompletableFuture<JsonObject> submitAsync(JsonObject request, long timeoutSeconds) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return submit(request, timeoutSeconds);
+            } catch (IOException | TimeoutException e) {
+                throw new CompletionException(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CompletionException(e);
+            }
+        }, PyScriptRunner.IO_EXECUTOR);
+    }
+
+    private JsonObject submitNow(JsonObject request, long timeoutSeconds)
+        throws IOException, InterruptedException, TimeoutException {
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+            PyWorker worker;
+            while (true) {
+                worker = idle.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (worker == null)
+                    throw new TimeoutException("No " + scriptName + " worker became free in time");
+                if (worker.isAlive())
+                    break;
+
+                // its replacement joins the idle workers once it's ready
+                replace(worker);
+            }
+
+            boolean healthy = false;
+            try {
+                JsonObject result = worker.request(request, timeoutSeconds);
+                healthy = true;
+                return result;
+            } catch (IOException e) {
+
+                // the worker reported a failure for this job but is otherwise fine
+                healthy = worker.isAlive();
+                throw e;
+            } finally {
+                if (healthy)
+                    release(worker);
+                else
+                    replace(worker);
+            }
+    }
+
+    /**
+     * Pings every idle worker, replacing those that do not answer. Workers that could not be
+     * restarted earlier are started again here.
+     */
+    public void healthCheck() {
+        synchronized (this) {
+            while (!closed && workers.size() < size) {
+                try {
+                    startWorker();
+                } catch (IOException e) {
+                    log.error("Could not start " + scriptName + " worker: " + e.getMessage());
+                    break;
+                }
+            }
+        }
+
+        for (int i = idle.size(); i > 0 && !closed; i--) {
+            PyWorker worker = idle.poll();
+            if (worker == null)
+                return;
+            if (worker.ping(PING_TIMEOUT))
+                release(worker);
+            else
+                replace(worker);
+        }
+    }
+
+    /**
+     * Returns the number of workers in the pool.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the number of workers currently waiting for a job.
+     */
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * Stops the health check and every worker in the pool.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (healthChecker != null)
+            healthChecker.shutdownNow();
+        for (PyWorker worker : workers)
+            worker.close();
+        workers.clear();
+        idle.clear();
+    }
+
+    private void release(PyWorker worker) {
+        if (worker != null && !closed)
+            idle.add(worker);
+    }
+
+    /**
+     * Kills a worker and starts a new one in its place. If the new worker could not be started
+     * the pool shrinks until the health check restarts it.
+     */
+    private synchronized void replace(PyWorker worker) {
+        log.warn("Restarting " + worker);
+        worker.close();
+        workers.remove(worker);
+        if (closed)
+            return;
+
+        try {
+            startWorker();
+        } catch (IOException e) {
+            log.error("Could not restart " + scriptName + " worker: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Starts a worker, which joins the idle workers once it is ready. A worker that exits or
+     * takes too long getting ready is dropped, to be restarted by the health check. Must hold
+     * this.
+     */
+    private void startWorker() throws IOException {
+        PyWorker worker = new PyWorker(scriptName);
+        workers.add(worker);
+        worker.whenReady(READY_TIMEOUT).whenComplete((ok, e) -> {
+            if (e == null) {
+                release(worker);
+                return;
+            }
+            log.error(worker + " did not become ready: " + e);
+            synchronized (this) {
+                worker.close();
+                workers.remove(worker);
+            }
+        });
+    }
+}
@@ -0,0 +1,276 @@
+package au.com.expressionless.nish.utils.text;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+
+/**
+ * KeywordExtractor is a JVM port of pyscripts/txt_tag/text_cleaner.py. It produces the same
+ * (word, ratio) rows in the same stages: title words, author names, proper nouns, and finally
+ * the frequency ratio of every lowercased, lemmatised, stopword filtered word in the stories.
+ * Text is tokenised in place in a reused char buffer, and words are counted in a
+ * {@link TokenTable}, so only distinct words are ever allocated.
+ * <p>
+ * NLTK's tagger and WordNet are approximated: a proper noun is a capitalised word that isn't a
+ * stopword and doesn't start a sentence, as those are capitalised whatever they are, and words
+ * are lemmatised as nouns with WordNet's suffix rules.
+ */
+public class KeywordExtractor {
+
+    private static final String STOPWORDS_RESOURCE = "/keywords/stopwords_en.txt";
+    private static final TokenTable STOPWORDS = loadStopwords();
+
+    // same characters as python's string.punctuation, which text_cleaner.py deletes
+    private static final String PUNCTUATION = "!\"#$%&'()*+,-./:;<=>?@[\\]^_`{|}~";
+
+    // plurals WordNet knows about that suffix rules get wrong, as {plural, singular}
+    private static final String[][] IRREGULAR = {
+        { "men",        "man" },
+        { "women",      "woman" },
+        { "children",   "child" },
+        { "feet",       "foot" },
+        { "teeth",      "tooth" },
+        { "mice",       "mouse" },
+        { "geese",      "goose" }
+    };
+    private static final TokenTable IRREGULAR_INDEX = index(IRREGULAR);
+
+    // words ending in s that are already singular
+    private static final TokenTable SINGULAR = table(
+        "news", "series", "species", "physics", "mathematics", "politics", "economics",
+        "athletics", "gas", "bias", "lens", "atlas", "canvas", "chaos", "always"
+    );
+
+    // the token as written, and lowercased
+    private char[] buf = new char[64];
+    private char[] lower = new char[64];
+
+    /**
+     * Returns the keyword rows for an edition in the order text_cleaner.py finds them.
+     * @param titles Title of the edition followed by the title of each story
+     * @param authors Author of each story
+     * @param texts Text of each story
+     */
+    public List<Pair<String, Double>> extract(Collection<String> titles, Collection<String> authors, Collection<String> texts) {
+        List<Pair<String, Double>> rows = new ArrayList<>();
+
+        // words already given a row, matched case sensitively as text_cleaner.py does
+        TokenTable prevWords = new TokenTable(64);
+
+        // title words, sorted and stopword filtered
+        TokenTable titleWords = new TokenTable(64);
+        for (String title : titles)
+            splitWhitespace(title.toLowerCase(), titleWords);
+        for (String word : titleWords.sortedKeys()) {
+            if (STOPWORDS.contains(word))
+                continue;
+            rows.add(new ImmutablePair<>(word, 1d));
+            prevWords.add(word, 1);
+        }
+
+        // author names
+        TokenTable authorNames = new TokenTable(64);
+        for (String author : authors)
+            splitWhitespace(author.toLowerCase(), authorNames);
+        authorNames.forEach((name, count) -> {
+            if (!prevWords.contains(name))
+                rows.add(new ImmutablePair<>(name, 1d));
+        });
+        authorNames.forEach((name, count) -> prevWords.add(name, 1));
+
+        // proper nouns are collected in the same pass that counts words
+        TokenTable properNouns = new TokenTable(256);
+        TokenTable counts = new TokenTable(1024);
+        int total = 0;
+        for (String text : texts) {
+            if (text != null)
+                total += scan(text, properNouns, counts);
+        }
+
+        properNouns.forEach((properNoun, count) -> {
+            if (!prevWords.contains(properNoun))
+                rows.add(new ImmutablePair<>(properNoun, 1d));
+        });
+        properNouns.forEach((properNoun, count) -> prevWords.add(properNoun, 1));
+
+        // frequency ratios, sorted by word
+        for (String word : counts.sortedKeys()) {
+            if (prevWords.contains(word))
+                continue;
+            char[] chars = word.toCharArray();
+            double ratio = (double) counts.get(chars, 0, chars.length) / total;
+            rows.add(new ImmutablePair<>(word, Math.round(ratio * 10000) / 10000d));
+        }
+        return rows;
+    }
+
+    /**
+     * Tokenises one story, adding its capitalised words to properNouns and counting its
+     * lowercased, lemmatised words. Returns the number of words counted.
+     */
+    private int scan(String text, TokenTable properNouns, TokenTable counts) {
+        int total = 0;
+        int len = 0;
+        int n = text.length();
+
+        // whether the next token starts a sentence, and whether the current one ends one
+        boolean sentenceStart = true;
+        boolean sentenceEnd = false;
+        for (int i = 0; i <= n; i++) {
+            char c = i < n ? text.charAt(i) : ' ';
+
+            // a literal "\n" is whitespace, any other punctuation is deleted
+            boolean escapedNewline = c == '\\' && i + 1 < n && text.charAt(i + 1) == 'n';
+            if (escapedNewline || Character.isWhitespace(c)) {
+                if (len > 0) {
+                    total += countToken(len, sentenceStart, properNouns, counts);
+                    sentenceStart = sentenceEnd;
+                } else if (sentenceEnd) {
+                    sentenceStart = true;
+                }
+
+                // paragraphs and headlines are ended by a line break rather than a full stop
+                if (escapedNewline || c == '\n')
+                    sentenceStart = true;
+                len = 0;
+                sentenceEnd = false;
+                if (escapedNewline)
+                    i++;
+                continue;
+            }
+
+            // closing quotes and brackets after a full stop still end the sentence
+            if (c == '.' || c == '!' || c == '?')
+                sentenceEnd = true;
+            else if (Character.isLetterOrDigit(c))
+                sentenceEnd = false;
+            if (PUNCTUATION.indexOf(c) >= 0)
+                continue;
+
+            if (len == buf.length) {
+                buf = Arrays.copyOf(buf, len * 2);
+                lower = new char[len * 2];
+            }
+            buf[len++] = c;
+        }
+        return total;
+    }
+
+    /**
+     * Handles the token held in buf. Returns 1 if the token was counted, 0 otherwise.
+     */
+    private int countToken(int len, boolean sentenceStart, TokenTable properNouns, TokenTable counts) {
+        boolean hasDigit = false;
+        for (int i = 0; i < len; i++) {
+            hasDigit |= Character.isDigit(buf[i]);
+            lower[i] = Character.toLowerCase(buf[i]);
+        }
+
+        // proper nouns keep their case, a word starting a sentence is capitalised regardless
+        if (!sentenceStart && Character.isUpperCase(buf[0]) && !hasDigit && !STOPWORDS.contains(lower, 0, len))
+            properNouns.add(buf, 0, len, 1);
+
+        if (hasDigit)
+            return 0;
+        len = lemmatise(len);
+        if (STOPWORDS.contains(lower, 0, len))
+            return 0;
+
+        counts.add(lower, 0, len, 1);
+        return 1;
+    }
+
+    /**
+     * Lemmatises the lowercase word held in lower as a noun, in place. Returns the new length.
+     */
+    private int lemmatise(int len) {
+        int irregular = IRREGULAR_INDEX.get(lower, 0, len);
+        if (irregular > 0) {
+            String singular = IRREGULAR[irregular - 1][1];
+            singular.getChars(0, singular.length(), lower, 0);
+            return singular.length();
+        }
+
+        if (len <= 3 || !endsWith(len, "s") || SINGULAR.contains(lower, 0, len)
+            || endsWith(len, "ss") || endsWith(len, "us") || endsWith(len, "is"))
+                return len;
+
+        // stories -> story
+        if (endsWith(len, "ies") && len > 4) {
+            lower[len - 3] = 'y';
+            return len - 2;
+        }
+
+        // boxes -> box, churches -> church
+        if (endsWith(len, "xes") || endsWith(len, "zes") || endsWith(len, "ches")
+            || endsWith(len, "shes") || endsWith(len, "sses"))
+                return len - 2;
+
+        // editions -> edition
+        return len - 1;
+    }
+
+    private boolean endsWith(int len, String suffix) {
+        int start = len - suffix.length();
+        if (start < 0)
+            return false;
+        for (int i = 0; i < suffix.length(); i++) {
+            if (lower[start + i] != suffix.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Adds every whitespace separated word of s to table.
+     */
+    private static void splitWhitespace(String s, TokenTable table) {
+        if (s == null)
+            return;
+        for (String word : s.split("\\s+")) {
+            if (!word.isEmpty())
+                table.add(word, 1);
+        }
+    }
+
+    private static TokenTable table(String... words) {
+        TokenTable table = new TokenTable(words.length);
+        for (String word : words)
+            table.add(word, 1);
+        return table;
+    }
+
+    // maps each plural to its 1 based index in pairs
+    private static TokenTable index(String[][] pairs) {
+        TokenTable table = new TokenTable(pairs.length);
+        for (int i = 0; i < pairs.length; i++)
+            table.add(pairs[i][0], i + 1);
+        return table;
+    }
+
+    private static TokenTable loadStopwords() {
+        TokenTable stopwords = new TokenTable(256);
+        try (InputStream in = KeywordExtractor.class.getResourceAsStream(STOPWORDS_RESOURCE);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (!line.isEmpty() && !line.startsWith("#"))
+                        stopwords.add(line, 1);
+                }
+        } catch (IOException | NullPointerException e) {
+            throw new UncheckedIOException(new IOException("Could not load " + STOPWORDS_RESOURCE, e));
+        }
+        return stopwords;
+    }
+}
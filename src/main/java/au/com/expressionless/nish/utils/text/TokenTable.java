@@ -0,0 +1,165 @@
+package au.com.expressionless.nish.utils.text;
+
+import java.util.Arrays;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * TokenTable is an open addressing hash table from tokens to int counts. Tokens can be looked up
+ * straight from a slice of a char buffer, so a token only becomes a String the first time it is
+ * added, and counts are never boxed.
+ */
+class TokenTable {
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private String[] keys;
+    private int[] hashes;
+    private int[] values;
+    private int size;
+
+    /**
+     * TokenTable constructor.
+     * @param expected Number of tokens expected, the table grows past this as needed
+     */
+    TokenTable(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(16, (int) (expected / LOAD_FACTOR)) - 1) << 1;
+        this.keys = new String[capacity];
+        this.hashes = new int[capacity];
+        this.values = new int[capacity];
+    }
+
+    /**
+     * Adds delta to the count of a token, adding the token if it is new. Returns the new count.
+     */
+    int add(char[] buf, int off, int len, int delta) {
+        int hash = hash(buf, off, len);
+        int slot = find(buf, off, len, hash);
+        if (keys[slot] == null) {
+            keys[slot] = new String(buf, off, len);
+            hashes[slot] = hash;
+            if (++size > keys.length * LOAD_FACTOR) {
+                grow();
+                slot = find(buf, off, len, hash);
+            }
+        }
+        values[slot] += delta;
+        return values[slot];
+    }
+
+    /**
+     * Adds delta to the count of a token, adding the token if it is new. Returns the new count.
+     */
+    int add(String token, int delta) {
+        char[] buf = token.toCharArray();
+        return add(buf, 0, buf.length, delta);
+    }
+
+    /**
+     * Returns the count of a token, 0 if it has never been added.
+     */
+    int get(char[] buf, int off, int len) {
+        int slot = find(buf, off, len, hash(buf, off, len));
+        return keys[slot] == null ? 0 : values[slot];
+    }
+
+    /**
+     * Returns whether or not a token has been added.
+     */
+    boolean contains(char[] buf, int off, int len) {
+        return keys[find(buf, off, len, hash(buf, off, len))] != null;
+    }
+
+    /**
+     * Returns whether or not a token has been added.
+     */
+    boolean contains(String token) {
+        char[] buf = token.toCharArray();
+        return contains(buf, 0, buf.length);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns every token in the table, sorted.
+     */
+    String[] sortedKeys() {
+        String[] sorted = new String[size];
+        int i = 0;
+        for (String key : keys) {
+            if (key != null)
+                sorted[i++] = key;
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Calls the consumer with every token and its count, in no particular order.
+     */
+    void forEach(ObjIntConsumer<String> consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null)
+                consumer.accept(keys[i], values[i]);
+        }
+    }
+
+    private int find(char[] buf, int off, int len, int hash) {
+        int mask = keys.length - 1;
+        int slot = mix(hash) & mask;
+        while (keys[slot] != null) {
+            if (hashes[slot] == hash && matches(keys[slot], buf, off, len))
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        String[] oldKeys = keys;
+        int[] oldHashes = hashes;
+        int[] oldValues = values;
+        keys = new String[oldKeys.length << 1];
+        hashes = new int[keys.length];
+        values = new int[keys.length];
+
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == null)
+                continue;
+            int slot = mix(oldHashes[i]) & mask;
+            while (keys[slot] != null)
+                slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            hashes[slot] = oldHashes[i];
+            values[slot] = oldValues[i];
+        }
+    }
+
+    private static boolean matches(String key, char[] buf, int off, int len) {
+        if (key.length() != len)
+            return false;
+        for (int i = 0; i < len; i++) {
+            if (key.charAt(i) != buf[off + i])
+                return false;
+        }
+        return true;
+    }
+
+    // same as String.hashCode, so a String and a slice holding the same chars always agree
+    private static int hash(char[] buf, int off, int len) {
+        int h = 0;
+        for (int i = off; i < off + len; i++)
+            h = 31 * h + buf[i];
+        return h;
+    }
+
+    // spreads the low bits, linear probing clusters badly on String style hashes
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h;
+    }
+}
@@ -0,0 +1,84 @@
+package au.com.expressionless.nish.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class ByteRangeTest {
+
+    private static final long SIZE = 1000;
+
+    @Test
+    public void closedRange() {
+        ByteRange range = ByteRange.parse("bytes=100-199", SIZE);
+        assertEquals(100, range.getOffset());
+        assertEquals(100, range.getLength());
+        assertFalse(range.isWhole());
+        assertEquals("bytes 100-199/1000", range.toContentRange());
+
+        // the unit is case insensitive and a last byte past the end is clamped
+        range = ByteRange.parse("Bytes=900-5000", SIZE);
+        assertEquals(900, range.getOffset());
+        assertEquals(100, range.getLength());
+        assertEquals("bytes 900-999/1000", range.toContentRange());
+    }
+
+    @Test
+    public void openEndedRange() {
+        ByteRange range = ByteRange.parse("bytes=250-", SIZE);
+        assertEquals(250, range.getOffset());
+        assertEquals(750, range.getLength());
+        assertEquals("bytes 250-999/1000", range.toContentRange());
+
+        assertTrue(ByteRange.parse("bytes=0-", SIZE).isWhole());
+    }
+
+    @Test
+    public void suffixRange() {
+        ByteRange range = ByteRange.parse("bytes=-100", SIZE);
+        assertEquals(900, range.getOffset());
+        assertEquals(100, range.getLength());
+        assertEquals("bytes 900-999/1000", range.toContentRange());
+
+        // a suffix longer than the object is the whole object
+        range = ByteRange.parse("bytes=-5000", SIZE);
+        assertEquals(0, range.getOffset());
+        assertEquals(SIZE, range.getLength());
+        assertTrue(range.isWhole());
+    }
+
+    @Test
+    public void unsatisfiableRangesThrow() {
+        assertThrows(IllegalArgumentException.class, () -> ByteRange.parse("bytes=1000-", SIZE));
+        assertThrows(IllegalArgumentException.class, () -> ByteRange.parse("bytes=1000-1999", SIZE));
+        assertThrows(IllegalArgumentException.class, () -> ByteRange.parse("bytes=5000-6000", SIZE));
+        assertThrows(IllegalArgumentException.class, () -> ByteRange.parse("bytes=-0", SIZE));
+    }
+
+    @Test
+    public void zeroLengthObject() {
+        assertThrows(IllegalArgumentException.class, () -> ByteRange.parse("bytes=0-", 0));
+        assertThrows(IllegalArgumentException.class, () -> ByteRange.parse("bytes=0-0", 0));
+        assertThrows(IllegalArgumentException.class, () -> ByteRange.parse("bytes=-10", 0));
+    }
+
+    @Test
+    public void multipleRangesServeWholeObject() {
+        assertNull(ByteRange.parse("bytes=0-99,200-299", SIZE));
+        assertNull(ByteRange.parse("bytes=-100, 0-10", SIZE));
+    }
+
+    @Test
+    public void malformedRangesServeWholeObject() {
+        assertNull(ByteRange.parse(null, SIZE));
+        assertNull(ByteRange.parse("items=0-99", SIZE));
+        assertNull(ByteRange.parse("bytes=100", SIZE));
+        assertNull(ByteRange.parse("bytes=abc-def", SIZE));
+        assertNull(ByteRange.parse("bytes=200-100", SIZE));
+        assertNull(ByteRange.parse("bytes=--5", SIZE));
+    }
+}
@@ -0,0 +1,168 @@
+package au.com.expressionless.nish.utils.pdf;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonStructure;
+import javax.json.JsonValue;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import au.com.expressionless.nish.models.entity.edition.story.Bounds;
+
+public class LayoutIndexTest {
+
+    private static final File SCRIPT_DIR = new File("pyscripts/pdf_ext");
+
+    /**
+     * front_page.json is a {@code pdf_ext.py --layout} dump of a page with a headline, two
+     * columns, a sidebar on a background, a captioned image, vertical text and a footer. The
+     * expected results are what extract.py returns for each list of clips on that page.
+     */
+    @Test
+    public void matchesExtractOnFixture() throws IOException {
+        LayoutIndex index = LayoutIndex.fromJson(readResource("/layout/front_page.json").asJsonObject());
+        assertEquals(1, index.getPageCount());
+
+        for (JsonValue value : readResource("/layout/front_page_expected.json").asJsonArray()) {
+            JsonObject expected = value.asJsonObject();
+            JsonArray clips = expected.getJsonArray("clips");
+            assertEquals(expected.getJsonObject("result"), index.getText(0, toBounds(clips)), clips.toString());
+        }
+    }
+
+    @Test
+    public void missingPageIsNull() throws IOException {
+        LayoutIndex index = LayoutIndex.fromJson(readResource("/layout/front_page.json").asJsonObject());
+        assertNull(index.getText(1, null));
+        assertNull(index.getText(-1, null));
+        assertNull(index.getText(List.of(new ExtractionJob(0, 3, List.of(), 0))));
+    }
+
+    /**
+     * Renders a page with PDFBox and compares the index built by {@code pdf_ext.py --layout}
+     * against pdf_ext.py's own extraction, skipped where python3 can't import PyMuPDF.
+     */
+    @Test
+    public void matchesPdfExtOnRenderedPage(@TempDir File dir) throws Exception {
+        assumeTrue(run(new File(dir, "fitz.txt"), "python3", "-c", "import fitz") != null, "PyMuPDF is not available");
+
+        File pdf = new File(dir, "page.pdf");
+        try (PDDocument doc = new PDDocument()) {
+            PDPage page = new PDPage(new PDRectangle(600, 800));
+            doc.addPage(page);
+            try (PDPageContentStream content = new PDPageContentStream(doc, page)) {
+                PDType1Font font = new PDType1Font(Standard14Fonts.FontName.HELVETICA);
+                writeLines(content, font, 18, 50, 70, "Council approves new budget");
+                writeLines(content, font, 10, 50, 120, "Rates will rise by two", "percent from July.", "",
+                    "Libraries will stay open", "until eight at night.");
+                writeLines(content, font, 10, 320, 120, "The mayor said the", "plan was fair.", "",
+                    "Critics want more", "detail on parking.");
+            }
+            doc.save(pdf);
+        }
+
+        String layout = run(new File(dir, "layout.json"), "python3", "pdf_ext.py", "-f", pdf.getAbsolutePath(), "--layout");
+        assertNotNull(layout, "pdf_ext.py --layout failed");
+        LayoutIndex index = LayoutIndex.fromJson(parse(layout).asJsonObject());
+
+        JsonArray[] clipLists = {
+            Json.createArrayBuilder().build(),
+            Json.createArrayBuilder().add(Json.createArrayBuilder().add(40).add(100).add(300).add(250)).build(),
+            Json.createArrayBuilder()
+                .add(Json.createArrayBuilder().add(310).add(100).add(560).add(250))
+                .add(Json.createArrayBuilder().add(40).add(50).add(560).add(100))
+                .build()
+        };
+        JsonArrayBuilder jobs = Json.createArrayBuilder();
+        for (int i = 0; i < clipLists.length; i++)
+            jobs.add(Json.createObjectBuilder().add("id", i).add("page", 0).add("clips", clipLists[i]).add("sequence", i));
+
+        String extracted = run(new File(dir, "jobs.json"), "python3", "pdf_ext.py", "-f", pdf.getAbsolutePath(),
+            "-j", jobs.build().toString());
+        assertNotNull(extracted, "pdf_ext.py -j failed");
+        JsonObject results = parse(extracted).asJsonObject().getJsonObject("jobs");
+        for (int i = 0; i < clipLists.length; i++)
+            assertEquals(results.getJsonObject(String.valueOf(i)), index.getText(0, toBounds(clipLists[i])), clipLists[i].toString());
+    }
+
+    private static void writeLines(PDPageContentStream content, PDType1Font font, float size, float x, float top,
+        String... lines) throws IOException {
+
+        content.beginText();
+        content.setFont(font, size);
+        content.setLeading(size * 1.4f);
+
+        // pdf space has its origin at the bottom left, fitz's at the top left
+        content.newLineAtOffset(x, 800 - top - size);
+        for (String line : lines) {
+            content.showText(line);
+            content.newLine();
+        }
+        content.endText();
+    }
+
+    /**
+     * Runs a script from pyscripts/pdf_ext and returns its stdout, or null if it failed.
+     */
+    private static String run(File out, String... command) throws InterruptedException {
+        try {
+            Process process = new ProcessBuilder(command)
+                .directory(SCRIPT_DIR)
+                .redirectOutput(out)
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+            if (!process.waitFor(60, TimeUnit.SECONDS) || process.exitValue() != 0)
+                return null;
+            return Files.readString(out.toPath(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static List<Bounds> toBounds(JsonArray clips) {
+        List<Bounds> bounds = new ArrayList<>();
+        for (int i = 0; i < clips.size(); i++) {
+            JsonArray c = clips.getJsonArray(i);
+            bounds.add(new Bounds(c.getInt(0), c.getInt(1), c.getInt(2) - c.getInt(0), c.getInt(3) - c.getInt(1), i));
+        }
+        return bounds;
+    }
+
+    private static JsonStructure readResource(String name) throws IOException {
+        try (InputStream in = LayoutIndexTest.class.getResourceAsStream(name);
+            JsonReader reader = Json.createReader(in)) {
+                return reader.read();
+        }
+    }
+
+    private static JsonStructure parse(String json) {
+        try (JsonReader reader = Json.createReader(new StringReader(json))) {
+            return reader.read();
+        }
+    }
+}
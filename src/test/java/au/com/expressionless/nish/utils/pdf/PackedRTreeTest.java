@@ -0,0 +1,134 @@
+package au.com.expressionless.nish.utils.pdf;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class PackedRTreeTest {
+
+    private static final long SEED = 20231018L;
+
+    @Test
+    public void emptyTreeFindsNothing() {
+        PackedRTree tree = PackedRTree.build(new int[0]);
+        assertEquals(0, tree.size());
+        assertArrayEquals(new int[0], tree.search(Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void singleRectangle() {
+        PackedRTree tree = PackedRTree.build(new int[] { 10, 20, 30, 40 });
+        assertEquals(1, tree.size());
+        assertArrayEquals(new int[] { 0 }, tree.search(15, 25, 16, 26));
+        assertArrayEquals(new int[0], tree.search(31, 20, 50, 40));
+        assertArrayEquals(new int[0], tree.search(0, 0, 9, 19));
+    }
+
+    @Test
+    public void edgesTouchingCount() {
+        PackedRTree tree = PackedRTree.build(new int[] { 10, 10, 20, 20 });
+
+        // sides and corners
+        assertArrayEquals(new int[] { 0 }, tree.search(20, 12, 25, 18));
+        assertArrayEquals(new int[] { 0 }, tree.search(0, 12, 10, 18));
+        assertArrayEquals(new int[] { 0 }, tree.search(12, 0, 18, 10));
+        assertArrayEquals(new int[] { 0 }, tree.search(12, 20, 18, 30));
+        assertArrayEquals(new int[] { 0 }, tree.search(20, 20, 30, 30));
+        assertArrayEquals(new int[] { 0 }, tree.search(0, 0, 10, 10));
+
+        // points on the boundary
+        assertArrayEquals(new int[] { 0 }, tree.search(10, 15, 10, 15));
+        assertArrayEquals(new int[0], tree.search(21, 21, 30, 30));
+    }
+
+    @Test
+    public void singleNodeMatchesBruteForce() {
+        Random random = new Random(SEED);
+        for (int n = 1; n <= PackedRTree.NODE_SIZE; n++)
+            checkAgainstBruteForce(randomRects(random, n, 200, 40), random, 50);
+    }
+
+    @Test
+    public void multiLevelMatchesBruteForce() {
+        Random random = new Random(SEED + 1);
+
+        // two, three and four levels of nodes
+        for (int n : new int[] { PackedRTree.NODE_SIZE + 1, 300, 5000, 70000 })
+            checkAgainstBruteForce(randomRects(random, n, 2000, 60), random, 200);
+    }
+
+    @Test
+    public void identicalAndDegenerateRectangles() {
+        Random random = new Random(SEED + 2);
+
+        // many copies of the same box, plus zero width and zero height boxes
+        int n = 100;
+        int[] rects = new int[n * 4];
+        for (int i = 0; i < n; i++) {
+            int x = (i % 3 == 0) ? 50 : random.nextInt(100);
+            int y = (i % 3 == 0) ? 50 : random.nextInt(100);
+            rects[i * 4] = x;
+            rects[i * 4 + 1] = y;
+            rects[i * 4 + 2] = (i % 3 == 1) ? x : x + random.nextInt(10);
+            rects[i * 4 + 3] = (i % 3 == 2) ? y : y + random.nextInt(10);
+        }
+        checkAgainstBruteForce(rects, random, 200);
+    }
+
+    @Test
+    public void callbackSearchReportsEachIdOnce() {
+        Random random = new Random(SEED + 3);
+        int[] rects = randomRects(random, 1000, 500, 50);
+        PackedRTree tree = PackedRTree.build(rects);
+
+        List<Integer> reported = new ArrayList<>();
+        tree.search(0, 0, 600, 600, reported::add);
+        assertEquals(1000, reported.size());
+        assertEquals(1000, reported.stream().distinct().count());
+    }
+
+    private static void checkAgainstBruteForce(int[] rects, Random random, int queries) {
+        PackedRTree tree = PackedRTree.build(rects);
+        assertEquals(rects.length / 4, tree.size());
+
+        int extent = 0;
+        for (int v : rects)
+            extent = Math.max(extent, v);
+        for (int q = 0; q < queries; q++) {
+            int x0 = random.nextInt(extent + 20) - 10;
+            int y0 = random.nextInt(extent + 20) - 10;
+            int x1 = x0 + random.nextInt(extent / 4 + 1);
+            int y1 = y0 + random.nextInt(extent / 4 + 1);
+            assertArrayEquals(bruteForce(rects, x0, y0, x1, y1), tree.search(x0, y0, x1, y1),
+                "query " + x0 + "," + y0 + "," + x1 + "," + y1 + " over " + rects.length / 4 + " rectangles");
+        }
+    }
+
+    private static int[] bruteForce(int[] rects, int x0, int y0, int x1, int y1) {
+        List<Integer> found = new ArrayList<>();
+        for (int i = 0; i < rects.length / 4; i++) {
+            int r = i * 4;
+            if (rects[r] <= x1 && x0 <= rects[r + 2] && rects[r + 1] <= y1 && y0 <= rects[r + 3])
+                found.add(i);
+        }
+        return found.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static int[] randomRects(Random random, int n, int extent, int maxSide) {
+        int[] rects = new int[n * 4];
+        for (int i = 0; i < n; i++) {
+            int x = random.nextInt(extent);
+            int y = random.nextInt(extent);
+            rects[i * 4] = x;
+            rects[i * 4 + 1] = y;
+            rects[i * 4 + 2] = x + random.nextInt(maxSide + 1);
+            rects[i * 4 + 3] = y + random.nextInt(maxSide + 1);
+        }
+        return rects;
+    }
+}
@@ -0,0 +1,136 @@
+package au.com.expressionless.nish.utils.text;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonValue;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.jupiter.api.Test;
+
+public class KeywordExtractorTest {
+
+    private static final File SCRIPT_DIR = new File("pyscripts/txt_tag");
+    private static final File SAMPLE = new File(SCRIPT_DIR, "sample.json");
+
+    @Test
+    public void sampleTitleAuthorAndRatioRows() throws IOException {
+        List<Pair<String, Double>> rows = extractSample();
+
+        // titles first, sorted and stopword filtered
+        assertEquals(List.of("like", "pizza", "sleep", "somefilename"),
+            rows.subList(0, 4).stream().map(Pair::getKey).collect(Collectors.toList()));
+
+        Map<String, Double> byWord = toMap(rows);
+        assertEquals(1d, byWord.get("nish"));
+        assertEquals(1d, byWord.get("matt"));
+        assertFalse(byWord.containsKey("i"));
+
+        // seven words are left once stopwords are removed, "johns" lemmatised to "john"
+        Map<String, Double> ratios = new TreeMap<>();
+        rows.stream().filter(row -> row.getValue() < 1).forEach(row -> ratios.put(row.getKey(), row.getValue()));
+        assertEquals(Map.of("eating", 0.1429, "hi", 0.1429, "john", 0.1429, "sleeping", 0.1429), ratios);
+    }
+
+    @Test
+    public void sentenceStartsAreNotProperNouns() {
+        List<Pair<String, Double>> rows = new KeywordExtractor().extract(
+            List.of("edition"),
+            List.of("smith"),
+            List.of(
+                "Residents met the Mayor on Tuesday. However the Council said \"no.\" Yesterday Jones left!"
+                + " Why? Nobody knows...\n Budget talks resume",
+                "Rates rise . Libraries close"
+            )
+        );
+        Map<String, Double> byWord = toMap(rows);
+
+        for (String properNoun : new String[] { "Mayor", "Tuesday", "Council", "Jones" })
+            assertEquals(1d, byWord.get(properNoun), properNoun);
+        for (String sentenceStart : new String[] { "Residents", "However", "Yesterday", "Why", "Nobody", "Budget", "Rates", "Libraries" })
+            assertFalse(byWord.containsKey(sentenceStart), sentenceStart);
+    }
+
+    /**
+     * Runs text_cleaner.py on the sample and compares every row, skipped where python3 can't run
+     * it, i.e. without NLTK and its data.
+     */
+    @Test
+    public void matchesTextCleanerOnSample() throws Exception {
+        Process process;
+        try {
+            process = new ProcessBuilder("python3", "text_cleaner.py")
+                .directory(SCRIPT_DIR)
+                .redirectInput(SAMPLE.getAbsoluteFile())
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        } catch (IOException e) {
+            assumeTrue(false, "python3 is not available");
+            return;
+        }
+
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = out.readLine()) != null)
+                lines.add(line);
+        }
+        assumeTrue(process.waitFor(60, TimeUnit.SECONDS) && process.exitValue() == 0, "text_cleaner.py could not run");
+
+        // rows are printed as word,edition_id,ratio, author and proper noun rows come from sets
+        // so only their content is compared
+        Map<String, Double> expected = new TreeMap<>();
+        for (String line : lines) {
+            String[] fields = line.split(",");
+            expected.put(fields[0], Double.parseDouble(fields[2]));
+        }
+        assertTrue(expected.size() > 0);
+        assertEquals(expected, toMap(extractSample()));
+    }
+
+    private static List<Pair<String, Double>> extractSample() throws IOException {
+        JsonObject sample;
+        try (Reader reader = Files.newBufferedReader(SAMPLE.toPath(), StandardCharsets.UTF_8);
+            JsonReader json = Json.createReader(reader)) {
+                sample = json.readObject();
+        }
+
+        List<String> titles = new ArrayList<>();
+        List<String> authors = new ArrayList<>();
+        List<String> texts = new ArrayList<>();
+        titles.add(sample.getString("title"));
+        for (JsonValue value : sample.getJsonArray("stories")) {
+            JsonObject story = value.asJsonObject();
+            titles.add(story.getString("title"));
+            authors.add(story.getString("author"));
+            texts.add(story.getString("text"));
+        }
+        return new KeywordExtractor().extract(titles, authors, texts);
+    }
+
+    private static Map<String, Double> toMap(List<Pair<String, Double>> rows) {
+        Map<String, Double> byWord = new TreeMap<>();
+        for (Pair<String, Double> row : rows)
+            byWord.put(row.getKey(), row.getValue());
+        return byWord;
+    }
+}